@@ -1,8 +1,7 @@
 #!/bin/bash
 
-echo "Installing dependencies for SuperCSV"
+echo "Installing dependencies for SuperCSV (its sources are built from src/main/3rdParty/src)"
 mvn install:install-file -Dfile=src/main/3rdParty/spiffy-with_source-all-0.05.jar -DgroupId=spiffy -DartifactId=spiffy -Dversion=0.05 -Dpackaging=jar
-mvn install:install-file -Dfile=src/main/3rdParty/SuperCSV-1.52.jar -DgroupId=supercsv -DartifactId=supercsv -Dversion=1.5.2 -Dpackaging=jar 
 
 echo "making the project"
 mvn clean compile package eclipse:eclipse
@@ -0,0 +1,105 @@
+package org.supercsv.cellprocessor;
+
+import org.supercsv.cellprocessor.ift.LongCellProcessor;
+import org.supercsv.cellprocessor.ift.PrimitiveLongCellProcessor;
+import org.supercsv.cellprocessor.ift.StringCellProcessor;
+import org.supercsv.exception.NullInputException;
+import org.supercsv.exception.SuperCSVException;
+import org.supercsv.util.CSVContext;
+
+/**
+ * Convert a string to a long within a range, doing the work of <tt>new LMinMax(min, max)</tt> in one pass. Plain
+ * digits are parsed straight from the characters, anything else (a sign, more than 18 digits) goes through
+ * <tt>Long.parseLong</tt> so the accepted values and the error messages are the same as the ones of {@link ParseLong}
+ * and {@link org.supercsv.cellprocessor.constraint.LMinMax}.
+ * 
+ * @author krickert
+ */
+public class ParseLongRange extends CellProcessorAdaptor implements StringCellProcessor, PrimitiveLongCellProcessor {
+/** a long of up to 18 digits never overflows */
+private static final int MAX_FAST_DIGITS = 18;
+
+protected final long min, max;
+
+public ParseLongRange(final long min, final long max) {
+	super();
+	if( max < min ) {
+		throw new SuperCSVException("max < min in the arguments " + min + " " + max, this);
+	}
+	this.min = min;
+	this.max = max;
+}
+
+public ParseLongRange(final long min, final long max, final LongCellProcessor next) {
+	super(next);
+	if( max < min ) {
+		throw new SuperCSVException("max < min in the arguments " + min + " " + max, this);
+	}
+	this.min = min;
+	this.max = max;
+}
+
+/**
+ * {@inheritDoc}
+ */
+@Override
+public Object execute(final Object value, final CSVContext context) throws SuperCSVException {
+	if( value == null ) {
+		throw new NullInputException("Input cannot be null on line " + context.lineNumber + " at column "
+			+ context.columnNumber, context, this);
+	}
+	final long result;
+	if( value instanceof Long ) {
+		result = (Long) value;
+		if( !inRange(result) ) {
+			throw outOfRange(value, context);
+		}
+	}
+	else {
+		final CharSequence chars = value instanceof CharSequence ? (CharSequence) value : value.toString();
+		result = parseLong(chars, 0, chars.length(), context);
+	}
+	return next.execute(Long.valueOf(result), context);
+}
+
+/**
+ * {@inheritDoc}
+ */
+public long parseLong(final CharSequence value, final int start, final int end, final CSVContext context)
+	throws SuperCSVException {
+	final int length = end - start;
+	long result = 0;
+	boolean digits = length > 0 && length <= MAX_FAST_DIGITS;
+	for( int i = start; digits && i < end; i++ ) {
+		final int digit = value.charAt(i) - '0';
+		if( digit < 0 || digit > 9 ) {
+			digits = false;
+		}
+		else {
+			result = result * 10 + digit;
+		}
+	}
+	if( !digits ) {
+		try {
+			result = Long.parseLong(value.subSequence(start, end).toString());
+		}
+		catch(final NumberFormatException e) {
+			throw new SuperCSVException("Parsing error", context, this, e);
+		}
+	}
+	if( !inRange(result) ) {
+		// the text of the cell is only made for the error
+		throw outOfRange(value.subSequence(start, end), context);
+	}
+	return result;
+}
+
+private boolean inRange(final long result) {
+	return result >= min && result <= max;
+}
+
+private SuperCSVException outOfRange(final Object value, final CSVContext context) {
+	return new SuperCSVException("Entry \"" + value + "\" on line " + context.lineNumber + " column "
+		+ context.columnNumber + " is not within the numerical range " + min + "-" + max, context, this);
+}
+}
@@ -0,0 +1,29 @@
+package org.supercsv.cellprocessor.ift;
+
+import org.supercsv.exception.SuperCSVException;
+import org.supercsv.util.CSVContext;
+
+/**
+ * A processor which can turn a range of characters into a primitive <tt>double</tt> without creating a
+ * <tt>String</tt> or a <tt>Double</tt>. Its {@link CellProcessor#execute(Object, CSVContext)} does the same for the
+ * legacy consumers and boxes the result.
+ * 
+ * @author krickert
+ */
+public interface PrimitiveDoubleCellProcessor extends CellProcessor {
+
+/**
+ * @param value
+ *            the characters holding the cell
+ * @param start
+ *            the index of the first character of the cell
+ * @param end
+ *            the index after the last character of the cell
+ * @param context
+ *            the position of the cell, only read when the cell is rejected
+ * @return the value of the cell
+ * @throws SuperCSVException
+ *             when the cell is not a valid value
+ */
+double parseDouble(CharSequence value, int start, int end, CSVContext context) throws SuperCSVException;
+}
@@ -0,0 +1,409 @@
+package org.supercsv.io;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.util.List;
+
+import org.supercsv.exception.SuperCSVException;
+import org.supercsv.prefs.CsvPreference;
+import org.supercsv.util.CSVContext;
+
+/**
+ * A tokenizer which scans raw bytes instead of characters. The input is read into a large <tt>byte[]</tt> window,
+ * either from an <tt>InputStream</tt> or from a <tt>ByteBuffer</tt> (e.g. a memory mapped file), and every cell of a
+ * row is reported as an offset/length slice of that window. No <tt>String</tt> is created unless asked for by
+ * {@link #getString(int)} or {@link #readStringList(List)}.
+ * <p>
+ * Quoting, escaped quotes, space trimming and multi-line cells follow the same rules as {@link Tokenizer}. Cells
+ * needing un-escaping are compacted in place within the window, so a slice always holds the final cell value. The
+ * slices of a row are only valid until the next row is read.
+ * <p>
+ * The quote and delimiter characters of the <tt>CsvPreference</tt> must be single byte (ASCII) characters, and the
+ * charset must be ASCII compatible (e.g. UTF-8 or ISO-8859-1).
+ *
+ * @author krickert
+ */
+public class ByteTokenizer implements ITokenizer {
+/** the default size of the byte window. Rows longer than the window makes it grow */
+public static final int DEFAULT_WINDOW_SIZE = 1 << 20;
+
+final CsvPreference preferences;
+final Charset charset;
+final InputStream stream;
+final ByteBuffer source;
+
+byte[] buf;
+/** the position of the next byte to scan */
+int pos = 0;
+/** the end of the valid data in the window */
+int limit = 0;
+boolean eof = false;
+/** true if the last line terminator was a '\r', meaning a following '\n' belongs to it */
+boolean afterCr = false;
+int lineNumber = 0;
+
+int[] offsets = new int[16];
+int[] lengths = new int[16];
+int columns = 0;
+
+public ByteTokenizer(final InputStream stream, final CsvPreference preference) {
+	this(stream, preference, Charset.defaultCharset(), DEFAULT_WINDOW_SIZE);
+}
+
+public ByteTokenizer(final InputStream stream, final CsvPreference preference, final Charset charset,
+	final int windowSize) {
+	this(stream, null, preference, charset, windowSize);
+}
+
+public ByteTokenizer(final ByteBuffer source, final CsvPreference preference) {
+	this(source, preference, Charset.defaultCharset(), DEFAULT_WINDOW_SIZE);
+}
+
+public ByteTokenizer(final ByteBuffer source, final CsvPreference preference, final Charset charset,
+	final int windowSize) {
+	this(null, source, preference, charset, windowSize);
+}
+
+private ByteTokenizer(final InputStream stream, final ByteBuffer source, final CsvPreference preference,
+	final Charset charset, final int windowSize) {
+	if( stream == null && source == null ) {
+		throw new SuperCSVException("the input of the tokenizer cannot be null");
+	}
+	if( preference.getQuoteChar() > 127 || preference.getDelimiterChar() > 127 ) {
+		throw new SuperCSVException("only single byte quote and delimiter characters are supported");
+	}
+	if( windowSize < 1 ) {
+		throw new SuperCSVException("window size must be > 0, is " + windowSize);
+	}
+	this.stream = stream;
+	this.source = source;
+	this.preferences = preference;
+	this.charset = charset;
+	this.buf = new byte[windowSize];
+}
+
+/**
+ * {@inheritDoc}
+ */
+public void close() throws IOException {
+	if( stream != null ) {
+		stream.close();
+	}
+}
+
+/**
+ * {@inheritDoc}
+ */
+public int getLineNumber() {
+	return lineNumber;
+}
+
+/**
+ * {@inheritDoc}
+ */
+public boolean readStringList(final List<String> result) throws IOException {
+	result.clear();
+	if( !readRow() ) {
+		return false;
+	}
+	for( int i = 0; i < columns; i++ ) {
+		result.add(getString(i));
+	}
+	return true;
+}
+
+/**
+ * Read a csv row (can span multiple lines in the file) and record the slices of its cells. Empty lines are skipped.
+ *
+ * @return true if something was read, false on EOF
+ * @throws IOException
+ *             when an io-error occurs
+ * @throws SuperCSVException
+ *             when the input ends inside a quoted cell
+ */
+public boolean readRow() throws IOException {
+	columns = 0;
+	final int quote = preferences.getQuoteChar();
+	final int delim = preferences.getDelimiterChar();
+
+	// read non-empty lines only
+	int p = pos;
+	while( true ) {
+		if( p == limit ) {
+			if( eof ) {
+				pos = p;
+				return false; // EOF
+			}
+			p -= fill(p);
+			continue;
+		}
+		final byte c = buf[p];
+		if( afterCr ) {
+			afterCr = false;
+			if( c == '\n' ) {
+				p++;
+				continue;
+			}
+		}
+		if( c == '\n' || c == '\r' ) {
+			lineNumber++;
+			afterCr = c == '\r';
+			p++;
+			continue;
+		}
+		break;
+	}
+
+	int rowStart = p; // the window is never compacted beyond the start of the row
+	int cellStart = p; // the first byte of the current cell
+	int w = p; // the write cursor of the current cell, always <= p
+	int potentialSpaces = 0; // see Tokenizer, spaces are only kept when followed by a non-space in the cell
+	boolean quoteScope = false;
+	int linenoQuoteState = -1; // the line number of the file where a potential multiline cell starts
+
+	while( true ) {
+		if( p == limit ) {
+			if( eof ) {
+				if( quoteScope ) {
+					throw new SuperCSVException(
+						"File ended unexpectedly while reading a quoted cell starting on line: " + linenoQuoteState,
+						new CSVContext(linenoQuoteState, 0));
+				}
+				// an unterminated last line counts as a line
+				addCell(cellStart, w - cellStart);
+				lineNumber++;
+				pos = p;
+				return true;
+			}
+			final int shift = fill(rowStart);
+			p -= shift;
+			w -= shift;
+			cellStart -= shift;
+			rowStart = 0;
+			continue;
+		}
+		final byte c = buf[p];
+		if( afterCr ) {
+			afterCr = false;
+			if( c == '\n' ) {
+				p++;
+				continue;
+			}
+		}
+
+		if( !quoteScope ) {
+			if( c == delim ) {
+				addCell(cellStart, w - cellStart);
+				cellStart = w = p + 1;
+				potentialSpaces = 0;
+			}
+			else
+				if( c == ' ' ) {
+					if( w > cellStart ) {
+						potentialSpaces++;
+					}
+					else {
+						// trim starting spaces by moving the cell start
+						cellStart = w = p + 1;
+					}
+				}
+				else
+					if( c == '\n' || c == '\r' ) {
+						addCell(cellStart, w - cellStart);
+						lineNumber++;
+						afterCr = c == '\r';
+						pos = p + 1;
+						return true; // we've read a line
+					}
+					else
+						if( c == quote ) {
+							if( w == cellStart ) { // quote first in the cell cannot be escaped
+								quoteScope = true;
+								linenoQuoteState = lineNumber + 1;
+								cellStart = w = p + 1;
+							}
+							else {
+								if( p + 1 == limit && !eof ) {
+									// look ahead needs the next byte
+									final int shift = fill(rowStart);
+									p -= shift;
+									w -= shift;
+									cellStart -= shift;
+									rowStart = 0;
+									continue;
+								}
+								w = addSpaces(w, potentialSpaces);
+								potentialSpaces = 0;
+								if( p + 1 < limit && buf[p + 1] == quote ) {
+									// an escaped quote, add and skip the first quote
+									buf[w++] = c;
+									p++;
+								}
+								else {
+									// a single quote, change state and don't append
+									quoteScope = true;
+									linenoQuoteState = lineNumber + 1;
+								}
+							}
+						}
+						else { // if just a normal character
+							w = addSpaces(w, potentialSpaces);
+							potentialSpaces = 0;
+							buf[w++] = c;
+						}
+		}
+		else { // quote scope
+			if( c == '\n' || c == '\r' ) {
+				// newline does not count as newline in quote scope
+				buf[w++] = '\n';
+				lineNumber++;
+				afterCr = c == '\r';
+			}
+			else
+				if( c == quote ) {
+					if( p + 1 == limit && !eof ) {
+						final int shift = fill(rowStart);
+						p -= shift;
+						w -= shift;
+						cellStart -= shift;
+						rowStart = 0;
+						continue;
+					}
+					if( p + 1 < limit && buf[p + 1] == quote ) {
+						// an escaped quote, add and skip the first quote
+						buf[w++] = c;
+						p++;
+					}
+					else {
+						// a single quote, only change state
+						quoteScope = false;
+					}
+				}
+				else { // normal characters and delimiters don't count in this mode
+					buf[w++] = c;
+				}
+		}
+		p++; // read next byte
+	}
+}
+
+/**
+ * @return the number of cells of the last row read
+ */
+public int getColumnCount() {
+	return columns;
+}
+
+/**
+ * @return the window holding the cells of the last row read. The reference changes when the window grows
+ */
+public byte[] getBuffer() {
+	return buf;
+}
+
+/**
+ * @return the offset in {@link #getBuffer()} of the cell N of the last row read
+ */
+public int getOffset(final int N) {
+	checkColumn(N);
+	return offsets[N];
+}
+
+/**
+ * @return the length in bytes of the cell N of the last row read
+ */
+public int getLength(final int N) {
+	checkColumn(N);
+	return lengths[N];
+}
+
+/**
+ * @return cell N of the last row read decoded as a String
+ */
+public String getString(final int N) {
+	checkColumn(N);
+	return new String(buf, offsets[N], lengths[N], charset);
+}
+
+public Charset getCharset() {
+	return charset;
+}
+
+private void checkColumn(final int N) {
+	if( N < 0 || N >= columns ) {
+		throw new IndexOutOfBoundsException("column " + N + " does not exist, the row has " + columns + " columns");
+	}
+}
+
+private void addCell(final int offset, final int length) {
+	if( columns == offsets.length ) {
+		final int[] newOffsets = new int[columns << 1];
+		final int[] newLengths = new int[columns << 1];
+		System.arraycopy(offsets, 0, newOffsets, 0, columns);
+		System.arraycopy(lengths, 0, newLengths, 0, columns);
+		offsets = newOffsets;
+		lengths = newLengths;
+	}
+	offsets[columns] = offset;
+	lengths[columns] = length;
+	columns++;
+}
+
+private int addSpaces(int w, final int spaces) {
+	for( int i = 0; i < spaces; i++ ) {
+		buf[w++] = ' ';
+	}
+	return w;
+}
+
+/**
+ * Move the bytes from <tt>keep</tt> to the start of the window (growing it if it is already full) and read more
+ * input behind them. The slices already recorded for the current row are moved along.
+ *
+ * @return the number of bytes everything was moved to the left, to be subtracted from positions held by the caller
+ */
+private int fill(final int keep) throws IOException {
+	final int remaining = limit - keep;
+	if( keep > 0 ) {
+		System.arraycopy(buf, keep, buf, 0, remaining);
+		for( int i = 0; i < columns; i++ ) {
+			offsets[i] -= keep;
+		}
+	}
+	else
+		if( limit == buf.length ) {
+			final byte[] grown = new byte[buf.length << 1];
+			System.arraycopy(buf, 0, grown, 0, limit);
+			buf = grown;
+		}
+	limit = remaining;
+
+	final int n = readInput(buf, limit, buf.length - limit);
+	if( n < 0 ) {
+		eof = true;
+	}
+	else {
+		limit += n;
+	}
+	return keep;
+}
+
+private int readInput(final byte[] b, final int off, final int len) throws IOException {
+	if( stream != null ) {
+		int n;
+		do {
+			n = stream.read(b, off, len);
+		}
+		while( n == 0 );
+		return n;
+	}
+	if( !source.hasRemaining() ) {
+		return -1;
+	}
+	final int n = Math.min(len, source.remaining());
+	source.get(b, off, n);
+	return n;
+}
+}
@@ -25,6 +25,15 @@ public CsvListReader(final Reader reader, final CsvPreference preferences) {
 	setInput(reader);
 }
 
+/**
+ * Create a csv reader on top of a given tokenizer, such as a {@link ByteTokenizer} reading raw bytes. The
+ * preferences should be the ones the tokenizer was created with.
+ */
+public CsvListReader(final ITokenizer tokenizer, final CsvPreference preferences) {
+	setPreferences(preferences);
+	setTokenizer(tokenizer);
+}
+
 /**
  * {@inheritDoc}
  */
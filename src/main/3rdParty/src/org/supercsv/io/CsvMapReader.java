@@ -27,6 +27,15 @@ public CsvMapReader(final Reader reader, final CsvPreference preferences) {
 	setInput(reader);
 }
 
+/**
+ * Create a csv reader on top of a given tokenizer, such as a {@link ByteTokenizer} reading raw bytes. The
+ * preferences should be the ones the tokenizer was created with.
+ */
+public CsvMapReader(final ITokenizer tokenizer, final CsvPreference preferences) {
+	setPreferences(preferences);
+	setTokenizer(tokenizer);
+}
+
 /**
  * {@inheritDoc}
  */
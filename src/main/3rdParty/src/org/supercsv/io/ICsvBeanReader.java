@@ -5,6 +5,7 @@ import java.io.IOException;
 import org.supercsv.cellprocessor.ift.CellProcessor;
 import org.supercsv.exception.SuperCSVException;
 import org.supercsv.exception.SuperCSVReflectionException;
+import org.supercsv.util.BeanBinder;
 
 /**
  * Supertype for readers reading into objects/beans.
@@ -45,4 +46,37 @@ public <T> T read(Class<T> clazz, String... nameMapping) throws IOException, Sup
  */
 public <T> T read(Class<T> clazz, String[] nameMapping, CellProcessor... processors) throws IOException,
 	SuperCSVReflectionException, SuperCSVException;
+
+/**
+ * Read a line of a csv file and populate a bean with the data using a binder resolved in advance, e.g. a
+ * {@link org.supercsv.util.MethodBinder} or a hand written binder calling the set methods directly. Before population
+ * the data is processed by cell processors.
+ * 
+ * @param clazz
+ *            the type to instantiate
+ * @param binder
+ *            the binder storing the processed values of the line in the bean
+ * @param processors
+ *            an array of CellProcessor. Null entries in the array denotes columns that should not be processed.
+ * @return an object or null if EOF
+ * @since 1.52
+ */
+public <T> T read(Class<T> clazz, BeanBinder<? super T> binder, CellProcessor... processors) throws IOException,
+	SuperCSVReflectionException, SuperCSVException;
+
+/**
+ * Read a line of a csv file into an existing bean using a binder, e.g. a bean taken from a pool for reuse. Before
+ * population the data is processed by cell processors. Properties with no column in the line keep their value.
+ * 
+ * @param bean
+ *            the bean to populate
+ * @param binder
+ *            the binder storing the processed values of the line in the bean
+ * @param processors
+ *            an array of CellProcessor. Null entries in the array denotes columns that should not be processed.
+ * @return the bean or null if EOF, in which case the bean is left untouched
+ * @since 1.52
+ */
+public <T> T readInto(T bean, BeanBinder<? super T> binder, CellProcessor... processors) throws IOException,
+	SuperCSVReflectionException, SuperCSVException;
 }
@@ -0,0 +1,24 @@
+package org.supercsv.util;
+
+import java.util.List;
+
+import org.supercsv.exception.SuperCSVException;
+
+/**
+ * Fills a bean with the processed values of a csv line. A binder is resolved once for a bean type and a name mapping,
+ * so filling a row is a fixed sequence of set calls rather than a method lookup for every cell.
+ * 
+ * @author krickert
+ */
+public interface BeanBinder<T> {
+
+/**
+ * @param bean
+ *            the bean to fill
+ * @param values
+ *            the processed values of a line, in the order of the name mapping the binder was made for
+ * @throws SuperCSVException
+ *             when a value cannot be stored in the bean
+ */
+void bind(T bean, List<? extends Object> values) throws SuperCSVException;
+}
@@ -0,0 +1,70 @@
+package org.supercsv.util;
+
+import java.nio.charset.Charset;
+
+/**
+ * A reusable <tt>CharSequence</tt> view of a slice of a byte array holding single byte characters, such as a cell of
+ * a {@link org.supercsv.io.ByteTokenizer}. Every byte is read as the character of the same code (ISO-8859-1), which
+ * for ASCII is the character of any ASCII compatible charset. This lets the primitive cell processors parse a cell
+ * without decoding it into a <tt>String</tt>. Only {@link #toString()} decodes, with the charset of the data.
+ * 
+ * @author krickert
+ */
+public class ByteSlice implements CharSequence {
+private final Charset charset;
+private byte[] data;
+private int offset;
+private int length;
+
+/**
+ * @param charset
+ *            the charset used by {@link #toString()}
+ */
+public ByteSlice(final Charset charset) {
+	this.charset = charset;
+}
+
+/**
+ * Points the view at another slice. The bytes are not copied, they must not change while the view is used.
+ * 
+ * @return this view
+ */
+public ByteSlice set(final byte[] data, final int offset, final int length) {
+	this.data = data;
+	this.offset = offset;
+	this.length = length;
+	return this;
+}
+
+/**
+ * {@inheritDoc}
+ */
+public char charAt(final int index) {
+	if( index < 0 || index >= length ) {
+		throw new IndexOutOfBoundsException("index " + index + " is not within the slice of length " + length);
+	}
+	return (char) (data[offset + index] & 0xff);
+}
+
+/**
+ * {@inheritDoc}
+ */
+public int length() {
+	return length;
+}
+
+/**
+ * @return a decoded copy of the sub sequence, not a view
+ */
+public CharSequence subSequence(final int start, final int end) {
+	if( start < 0 || end > length || start > end ) {
+		throw new IndexOutOfBoundsException("range " + start + "-" + end + " is not within the slice of length " + length);
+	}
+	return new String(data, offset + start, end - start, charset);
+}
+
+@Override
+public String toString() {
+	return new String(data, offset, length, charset);
+}
+}
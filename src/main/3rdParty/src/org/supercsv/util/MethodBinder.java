@@ -0,0 +1,61 @@
+package org.supercsv.util;
+
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.util.List;
+
+import org.supercsv.exception.SuperCSVException;
+import org.supercsv.exception.SuperCSVReflectionException;
+
+/**
+ * A {@link BeanBinder} for any bean type, resolving the set method of each column only once. The set method of a
+ * column is looked up, like {@link MethodCache} does, from the type of the first value stored in it and is then
+ * invoked directly for every following line. Hence all values of a column must be accepted by that same method.
+ * 
+ * @author krickert
+ */
+public class MethodBinder<T> implements BeanBinder<T> {
+private final String[] nameMapping;
+private final Method[] setters;
+private final MethodCache cache = new MethodCache();
+
+/**
+ * @param nameMapping
+ *            the property names of the columns, null denotes a column which is ignored
+ */
+public MethodBinder(final String... nameMapping) {
+	this.nameMapping = nameMapping.clone();
+	this.setters = new Method[nameMapping.length];
+}
+
+/**
+ * {@inheritDoc}
+ */
+public void bind(final T bean, final List<? extends Object> values) throws SuperCSVException {
+	for( int i = 0; i < nameMapping.length; i++ ) {
+		// don't call a set-method in the bean, if there is no result to store
+		if( nameMapping[i] == null ) {
+			continue;
+		}
+		final Object value = values.get(i);
+		Method setter = setters[i];
+		if( setter == null ) {
+			setter = cache.getSetMethod(bean, nameMapping[i], value == null ? null : value.getClass());
+			setters[i] = setter;
+		}
+		try {
+			setter.invoke(bean, value);
+		}
+		catch(final IllegalArgumentException e) {
+			throw new SuperCSVException("Method " + setter.getName() + "() does not accept input \"" + value
+				+ "\" of type " + (value == null ? null : value.getClass().getName()), null, e);
+		}
+		catch(final IllegalAccessException e) {
+			throw new SuperCSVReflectionException("Error while filling an object", e);
+		}
+		catch(final InvocationTargetException e) {
+			throw new SuperCSVReflectionException("Error while filling an object", e);
+		}
+	}
+}
+}
@@ -0,0 +1,80 @@
+package org.supercsv.cellprocessor;
+
+import java.nio.charset.Charset;
+
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.supercsv.TestConstants;
+import org.supercsv.exception.SuperCSVException;
+import org.supercsv.mock.ComparerCellProcessor;
+import org.supercsv.util.ByteSlice;
+import org.supercsv.util.CSVContext;
+
+/**
+ * @author krickert
+ */
+public class ParseFixedDoubleTest {
+private static final CSVContext CSVCONTEXT = TestConstants.ANONYMOUS_CSVCONTEXT;
+private static final String[] VALUES = { "41.9288", "-87.6315", "0", "-0", "-0.0", ".5", "5.", "+3.25", "123456789012345",
+	"1234567890.123456", "0.1", "1e5", "-1.5E-3", " 7.5 ", "179.99999999999", "NaN", "-Infinity" };
+ParseFixedDouble cp;
+
+@Before
+public void setUp() throws Exception {
+	cp = new ParseFixedDouble();
+}
+
+@Test
+public void sameAsDoubleParseDouble() throws Exception {
+	for( final String value : VALUES ) {
+		Assert.assertEquals(value, Double.valueOf(Double.parseDouble(value)), cp.execute(value, CSVCONTEXT));
+		Assert.assertEquals(value, Double.doubleToLongBits(Double.parseDouble(value)), Double.doubleToLongBits(cp
+			.parseDouble(value, 0, value.length(), CSVCONTEXT)));
+	}
+}
+
+@Test
+public void parsesTheRangeOfTheCharacters() throws Exception {
+	final byte[] row = "\"3523140760\";\"41.9288\";\"-87.6315\"".getBytes("US-ASCII");
+	final ByteSlice slice = new ByteSlice(Charset.forName("US-ASCII")).set(row, 13, 9);
+	Assert.assertEquals(41.9288, cp.parseDouble(slice, 1, 8, CSVCONTEXT), 0.0);
+	Assert.assertEquals(-87.6315, cp.parseDouble("x-87.6315x", 1, 9, CSVCONTEXT), 0.0);
+}
+
+@Test
+public void shouldHandleInputOfTypeDoubleWithoutExtraConversion() {
+	Assert.assertEquals(17.3, new ParseFixedDouble(new Optional(new ParseFixedDouble())).execute("17.3", CSVCONTEXT));
+}
+
+@Test
+public void testChaining() throws Exception {
+	Assert.assertEquals(true, new ParseFixedDouble(new ComparerCellProcessor(17.3)).execute("17.3", CSVCONTEXT));
+}
+
+@Test
+public void sameErrorsAsParseDouble() throws Exception {
+	for( final String value : new String[] { "", "-", ".", "1.2.3", "hello" } ) {
+		String expected = null;
+		try {
+			new ParseDouble().execute(value, CSVCONTEXT);
+			Assert.fail(value);
+		}
+		catch(final SuperCSVException e) {
+			expected = e.getMessage();
+		}
+		try {
+			cp.execute(value, CSVCONTEXT);
+			Assert.fail(value);
+		}
+		catch(final SuperCSVException e) {
+			Assert.assertEquals(expected, e.getMessage());
+		}
+	}
+}
+
+@Test(expected = SuperCSVException.class)
+public void invalid_input() {
+	cp.execute('C', CSVCONTEXT);
+}
+}
@@ -0,0 +1,77 @@
+package org.supercsv.cellprocessor;
+
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.supercsv.TestConstants;
+import org.supercsv.cellprocessor.constraint.LMinMax;
+import org.supercsv.exception.SuperCSVException;
+import org.supercsv.util.CSVContext;
+
+/**
+ * @author krickert
+ */
+public class ParseLongRangeTest {
+private static final CSVContext CSVCONTEXT = TestConstants.ANONYMOUS_CSVCONTEXT;
+ParseLongRange cp;
+
+@Before
+public void setUp() throws Exception {
+	cp = new ParseLongRange(0l, 4278190080l);
+}
+
+@Test
+public void validInputTest() throws Exception {
+	Assert.assertEquals(0l, cp.execute("0", CSVCONTEXT));
+	Assert.assertEquals(3523140760l, cp.execute("3523140760", CSVCONTEXT));
+	Assert.assertEquals(4278190080l, cp.execute("4278190080", CSVCONTEXT));
+	Assert.assertEquals(17l, cp.execute("+17", CSVCONTEXT));
+	Assert.assertEquals(17l, cp.execute(17, CSVCONTEXT));
+	Assert.assertEquals(17l, cp.execute(17l, CSVCONTEXT));
+	Assert.assertEquals(3523140760l, cp.parseLong("\"3523140760\"", 1, 11, CSVCONTEXT));
+}
+
+@Test
+public void sameErrorsAsLMinMax() throws Exception {
+	for( final Object value : new Object[] { "", "-1", "4278190081", "12x", "99999999999999999999", " 1", 4278190081l } ) {
+		String expected = null;
+		try {
+			new LMinMax(0l, 4278190080l).execute(value, CSVCONTEXT);
+			Assert.fail(value.toString());
+		}
+		catch(final SuperCSVException e) {
+			expected = e.getMessage();
+		}
+		try {
+			cp.execute(value, CSVCONTEXT);
+			Assert.fail(value.toString());
+		}
+		catch(final SuperCSVException e) {
+			Assert.assertEquals(expected, e.getMessage());
+		}
+	}
+}
+
+@Test
+public void longDigitsDontOverflow() throws Exception {
+	final ParseLongRange all = new ParseLongRange(0l, Long.MAX_VALUE);
+	Assert.assertEquals(Long.MAX_VALUE, all.execute("9223372036854775807", CSVCONTEXT));
+	try {
+		all.execute("9223372036854775808", CSVCONTEXT);
+		Assert.fail("expected the overflow to fail");
+	}
+	catch(final SuperCSVException e) {
+		Assert.assertTrue(e.getCause() instanceof NumberFormatException);
+	}
+}
+
+@Test(expected = SuperCSVException.class)
+public void invalidMinMaxTest() throws Exception {
+	new ParseLongRange(100l, 17l);
+}
+
+@Test(expected = SuperCSVException.class)
+public void nullInputTest() throws Exception {
+	cp.execute(null, CSVCONTEXT);
+}
+}
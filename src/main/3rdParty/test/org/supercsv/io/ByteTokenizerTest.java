@@ -0,0 +1,188 @@
+package org.supercsv.io;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.junit.Assert.assertThat;
+
+import java.io.ByteArrayInputStream;
+import java.io.StringReader;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.supercsv.exception.SuperCSVException;
+import org.supercsv.prefs.CsvPreference;
+
+public class ByteTokenizerTest {
+static final Charset UTF8 = Charset.forName("UTF-8");
+ByteTokenizer tokenizer;
+List<String> result;
+
+static ByteTokenizer tokenizer(final String input, final CsvPreference preference) {
+	return new ByteTokenizer(new ByteArrayInputStream(input.getBytes(UTF8)), preference, UTF8, 4);
+}
+
+@Before
+public void setUp() throws Exception {
+	result = new ArrayList<String>();
+}
+
+@Test
+public void headerFile_emptyValue() throws Exception {
+	tokenizer = tokenizer("header1\n ", CsvPreference.EXCEL_PREFERENCE);
+	tokenizer.readStringList(result); // skip header
+	tokenizer.readStringList(result);
+	assertThat(result.size(), is(1));
+	assertThat(result.get(0), is(""));
+}
+
+@Test
+public void inputOneRow_2_quote() throws Exception {
+	tokenizer = tokenizer("\"\"", CsvPreference.EXCEL_PREFERENCE);
+	tokenizer.readStringList(result);
+	assertThat(result.size(), is(1));
+	assertThat("only two must yield empty entry", result.get(0), is(""));
+}
+
+@Test
+public void inputOneRow_2_quote_inside_quote() throws Exception {
+	tokenizer = tokenizer("\"\"\"hello\"\"\"", CsvPreference.EXCEL_PREFERENCE);
+	tokenizer.readStringList(result);
+	assertThat(result.get(0), is("\"hello\""));
+}
+
+@Test
+public void inputOneRow_2_quote_outside_quote() throws Exception {
+	tokenizer = tokenizer("  yo \"\"hello\"\"  ", CsvPreference.EXCEL_PREFERENCE);
+	tokenizer.readStringList(result);
+	assertThat(result.get(0), is("yo \"hello\""));
+}
+
+@Test
+public void inputOneRow_4_quote() throws Exception {
+	tokenizer = tokenizer("\"\"\"\"", CsvPreference.EXCEL_PREFERENCE);
+	tokenizer.readStringList(result);
+	assertThat(result.size(), is(1));
+	assertThat("4 quotes is 2 for start+end and 2 for an escaped quote", result.get(0), is("\""));
+}
+
+@Test
+public void inputOneRow_empty() throws Exception {
+	tokenizer = tokenizer("", CsvPreference.EXCEL_PREFERENCE);
+	assertThat(tokenizer.readStringList(result), is(false));
+	assertThat(result.size(), is(0));
+}
+
+@Test
+public void inputOneRow_should_not_strim_spaces_before_and_after() throws Exception {
+	tokenizer = tokenizer("\"    hello    \" , \"   you  \" , \" there \"", CsvPreference.EXCEL_PREFERENCE);
+	tokenizer.readStringList(result);
+	assertThat(result.get(0), is("    hello    "));
+	assertThat(result.get(1), is("   you  "));
+	assertThat(result.get(2), is(" there "));
+}
+
+@Test
+public void inputOneRow_should_not_trim_spaces_between_words() throws Exception {
+	tokenizer = tokenizer("    hello  you  ,   there  on   the  ,  corner ", CsvPreference.EXCEL_PREFERENCE);
+	tokenizer.readStringList(result);
+	assertThat(result.get(0), is("hello  you"));
+	assertThat(result.get(1), is("there  on   the"));
+	assertThat(result.get(2), is("corner"));
+}
+
+@Test
+public void inputOneRow_should_not_trim_tabs_before_and_after() throws Exception {
+	tokenizer = tokenizer(" \thello\t ,\tyou\t,\tthere\t", CsvPreference.EXCEL_PREFERENCE);
+	tokenizer.readStringList(result);
+	assertThat(result.get(0), is("\thello\t"));
+	assertThat(result.get(1), is("\tyou\t"));
+	assertThat(result.get(2), is("\tthere\t"));
+}
+
+@Test(expected = SuperCSVException.class)
+public void inputOneRow_value_missing_end_quote() throws Exception {
+	tokenizer = tokenizer("\"missing", CsvPreference.EXCEL_PREFERENCE);
+	tokenizer.readStringList(result);
+}
+
+@Test
+public void inputOneRow_value_newline() throws Exception {
+	tokenizer = tokenizer("\"m\r\nn\"\nnext", CsvPreference.EXCEL_PREFERENCE);
+	tokenizer.readStringList(result);
+	assertThat(result.size(), is(1));
+	assertThat(result.get(0), is("m\nn"));
+	assertThat(tokenizer.getLineNumber(), is(2));
+	tokenizer.readStringList(result);
+	assertThat(result.get(0), is("next"));
+	assertThat(tokenizer.getLineNumber(), is(3));
+}
+
+@Test
+public void should_skip_empty_lines_and_count_them() throws Exception {
+	tokenizer = tokenizer("a\r\n\r\n\nb\rc", CsvPreference.EXCEL_PREFERENCE);
+	tokenizer.readStringList(result);
+	assertThat(result.get(0), is("a"));
+	assertThat(tokenizer.getLineNumber(), is(1));
+	tokenizer.readStringList(result);
+	assertThat(result.get(0), is("b"));
+	assertThat(tokenizer.getLineNumber(), is(4));
+	tokenizer.readStringList(result);
+	assertThat(result.get(0), is("c"));
+	assertThat(tokenizer.getLineNumber(), is(5));
+	assertThat(tokenizer.readStringList(result), is(false));
+}
+
+@Test
+public void should_report_slices_of_the_window() throws Exception {
+	final String input = "\"3523140760\";\"US\";\"United States\";\"\"\n";
+	tokenizer = new ByteTokenizer(ByteBuffer.wrap(input.getBytes(UTF8)), CsvPreference.EXCEL_NORTH_EUROPE_PREFERENCE,
+		UTF8, 8);
+	assertThat(tokenizer.readRow(), is(true));
+	assertThat(tokenizer.getColumnCount(), is(4));
+	final byte[] buf = tokenizer.getBuffer();
+	assertThat(new String(buf, tokenizer.getOffset(0), tokenizer.getLength(0), UTF8), is("3523140760"));
+	assertThat(new String(buf, tokenizer.getOffset(2), tokenizer.getLength(2), UTF8), is("United States"));
+	assertThat(tokenizer.getLength(3), is(0));
+	assertThat(tokenizer.readRow(), is(false));
+}
+
+@Test
+public void should_read_the_same_as_the_char_tokenizer() throws Exception {
+	final String input = "header1; header2 ;\"head\"\"er3\"\n" //
+		+ "\"3523140760\";\"US\";\"United States\"\r\n" //
+		+ " a  b ;\"multi\nline\";\"\"\n" //
+		+ "\n" //
+		+ "x \"\"y\"\" ;;\"Z\u00fcrich\"";
+	final Tokenizer chars = new Tokenizer(new StringReader(input), CsvPreference.EXCEL_NORTH_EUROPE_PREFERENCE);
+	tokenizer = tokenizer(input, CsvPreference.EXCEL_NORTH_EUROPE_PREFERENCE);
+	final List<String> expected = new ArrayList<String>();
+	boolean more = true;
+	while( more ) {
+		more = chars.readStringList(expected);
+		assertThat(tokenizer.readStringList(result), is(more));
+		assertThat(result, is(expected));
+		assertThat(tokenizer.getLineNumber(), is(chars.getLineNumber()));
+	}
+}
+
+@Test
+public void valueInHeaderFile() throws Exception {
+	tokenizer = tokenizer("header1\nvalue", CsvPreference.EXCEL_PREFERENCE);
+	tokenizer.readStringList(result); // skip header
+	tokenizer.readStringList(result);
+	assertThat(result.size(), is(1));
+	assertThat(result.get(0), is("value"));
+}
+
+@Test
+public void readers_should_accept_the_tokenizer() throws Exception {
+	final CsvListReader reader = new CsvListReader(tokenizer("a,b\nc,d", CsvPreference.EXCEL_PREFERENCE),
+		CsvPreference.EXCEL_PREFERENCE);
+	assertThat(reader.getCSVHeader(true)[1], is("b"));
+	assertThat(reader.read().get(0), is("c"));
+	assertThat(reader.getLineNumber(), is(2));
+}
+}
@@ -0,0 +1,69 @@
+package org.supercsv.util;
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.StringReader;
+import java.util.Arrays;
+
+import org.junit.Test;
+import org.supercsv.cellprocessor.Optional;
+import org.supercsv.cellprocessor.ParseInt;
+import org.supercsv.cellprocessor.ift.CellProcessor;
+import org.supercsv.exception.SuperCSVException;
+import org.supercsv.io.CsvBeanReader;
+import org.supercsv.mock.PersonBean;
+import org.supercsv.prefs.CsvPreference;
+
+public class MethodBinderTest {
+static final String file = "Klaus,     Anderson,   Mauler Street 43,   4328,           New York\n"
+	+ "Moby,      Duck,       Sesam str,              12,       Duckburg\n";
+final String[] nameMapper = { "firstname", "password", "street", "zip", "town" };
+final CellProcessor[] processors = new CellProcessor[] { null, null, null, new Optional(new ParseInt()), null };
+
+@Test
+public void should_bind_values_and_skip_unmapped_columns() {
+	final MethodBinder<PersonBean> binder = new MethodBinder<PersonBean>("firstname", null, "street", "zip");
+	final PersonBean bean = new PersonBean();
+	binder.bind(bean, Arrays.asList("Klaus", "Anderson", "Mauler Street 43", 4328));
+	assertEquals("Klaus", bean.getFirstname());
+	assertEquals(null, bean.getPassword());
+	assertEquals("Mauler Street 43", bean.getStreet());
+	assertEquals(4328, bean.getZip());
+	
+	// the resolved set methods are reused for the next bean
+	final PersonBean next = new PersonBean();
+	binder.bind(next, Arrays.asList("Moby", "Duck", "Sesam str", 1));
+	assertEquals("Moby", next.getFirstname());
+	assertEquals(1, next.getZip());
+}
+
+@Test(expected = SuperCSVException.class)
+public void should_fail_on_a_value_of_another_type() {
+	final MethodBinder<PersonBean> binder = new MethodBinder<PersonBean>("firstname");
+	binder.bind(new PersonBean(), Arrays.asList("Klaus"));
+	binder.bind(new PersonBean(), Arrays.asList(42));
+}
+
+@Test
+public void reader_should_fill_beans_the_same_with_precompiled_binding() throws Exception {
+	final CsvBeanReader reflective = new CsvBeanReader(new StringReader(file), CsvPreference.STANDARD_PREFERENCE);
+	final CsvBeanReader precompiled = new CsvBeanReader(new StringReader(file), CsvPreference.STANDARD_PREFERENCE)
+		.setPrecompiledBinding(true);
+	final CsvBeanReader bound = new CsvBeanReader(new StringReader(file), CsvPreference.STANDARD_PREFERENCE);
+	final MethodBinder<PersonBean> binder = new MethodBinder<PersonBean>(nameMapper);
+	PersonBean expected;
+	while( (expected = reflective.read(PersonBean.class, nameMapper, processors)) != null ) {
+		final PersonBean actual = precompiled.read(PersonBean.class, nameMapper, processors);
+		final PersonBean actualBound = bound.read(PersonBean.class, binder, processors);
+		for( final PersonBean bean : new PersonBean[] { actual, actualBound } ) {
+			assertEquals(expected.getFirstname(), bean.getFirstname());
+			assertEquals(expected.getPassword(), bean.getPassword());
+			assertEquals(expected.getStreet(), bean.getStreet());
+			assertEquals(expected.getZip(), bean.getZip());
+			assertEquals(expected.getTown(), bean.getTown());
+		}
+	}
+	assertEquals(null, precompiled.read(PersonBean.class, nameMapper, processors));
+	assertEquals(null, bound.read(PersonBean.class, binder, processors));
+}
+}
@@ -0,0 +1,452 @@
+package com.krickert.concurrent;
+
+import java.io.Flushable;
+import java.io.InterruptedIOException;
+import java.util.AbstractQueue;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * A blocking queue that hands its elements from producers to consumers in
+ * batches, so the lock of the underlying queue is taken once per batch instead
+ * of once per element.
+ *
+ * Producers either hand over whole batches with {@link #putBatch(List)} or put
+ * single elements, which are collected in a batch owned by the producing thread
+ * and handed over once it is full. An element put that way is not visible to
+ * the consumers until its batch is full or the producer calls {@link #flush()},
+ * so every producer thread has to flush once it is done. Consumers either take
+ * whole batches with {@link #pollBatch(long, TimeUnit)} or single elements.
+ *
+ * The element methods make this a plain {@link BlockingQueue} for code that
+ * doesn't know about batches. The capacity is rounded down to whole batches,
+ * and a flushed batch takes a whole slot even if it isn't full. {@link #size()}
+ * and the iterator only see the elements handed over.
+ *
+ * The batches travel through an {@link ArrayBlockingQueue} or a lock-free
+ * {@link RingBufferQueue}. Either way the queue is {@link ClosableQueue
+ * closable}: closing it flushes the calling producer and sends an end marker
+ * behind the last batch, so consumers know when they took the last element.
+ *
+ * @author krickert
+ *
+ */
+public class BatchingBlockingQueue<E> extends AbstractQueue<E> implements ClosableQueue<E>, Flushable {
+  /* the end marker following the last batch */
+  @SuppressWarnings("rawtypes")
+  private static final List END = new ArrayList(0);
+
+  private final int batchSize;
+  private final BlockingQueue<List<E>> batches;
+  private volatile boolean closed = false;
+  private volatile Throwable failure = null;
+  /* the number of elements in the batches of the underlying queue */
+  private final AtomicInteger queued = new AtomicInteger();
+  /* the batch the calling producer thread is filling */
+  private final ThreadLocal<List<E>> open = new ThreadLocal<List<E>>();
+
+  /* the batch the consumers are taking elements from, guarded by consumerLock */
+  private final ReentrantLock consumerLock = new ReentrantLock();
+  private List<E> current = Collections.emptyList();
+  private int next = 0;
+
+  /**
+   * @param capacity
+   *          the number of elements the queue holds before producers block
+   * @param batchSize
+   *          the number of elements handed over at once
+   */
+  public BatchingBlockingQueue(int capacity, int batchSize) {
+    this(capacity, batchSize, false);
+  }
+
+  /**
+   * @param lockFree
+   *          true to hand the batches over through a {@link RingBufferQueue}
+   *          instead of an {@link ArrayBlockingQueue}
+   */
+  public BatchingBlockingQueue(int capacity, int batchSize, boolean lockFree) {
+    this(lockFree ? new RingBufferQueue<List<E>>(batches(capacity, batchSize)) : new ArrayBlockingQueue<List<E>>(batches(capacity,
+        batchSize)), batchSize);
+  }
+
+  /**
+   * @param batches
+   *          the empty queue handing the batches over, whose capacity is the
+   *          number of batches
+   * @param batchSize
+   *          the number of elements handed over at once
+   */
+  public BatchingBlockingQueue(BlockingQueue<List<E>> batches, int batchSize) {
+    if (batchSize < 1) {
+      throw new IllegalArgumentException("batch size must be at least 1, is " + batchSize);
+    }
+    this.batchSize = batchSize;
+    this.batches = batches;
+  }
+
+  private static int batches(int capacity, int batchSize) {
+    if (batchSize < 1) {
+      throw new IllegalArgumentException("batch size must be at least 1, is " + batchSize);
+    }
+    return Math.max(1, capacity / batchSize);
+  }
+
+  public int getBatchSize() {
+    return batchSize;
+  }
+
+  /**
+   * Hands a batch over to the consumers, waiting for room if needed. The batch
+   * must not be changed afterwards.
+   */
+  public void putBatch(List<E> batch) throws InterruptedException {
+    checkFailure();
+    if (closed) {
+      throw new IllegalStateException("The queue is closed");
+    }
+    if (batch.isEmpty()) {
+      return;
+    }
+    queued.addAndGet(batch.size());
+    try {
+      batches.put(batch);
+    } catch (InterruptedException e) {
+      queued.addAndGet(-batch.size());
+      throw e;
+    }
+  }
+
+  /**
+   * Takes all the elements of the next batch, or what is left of it if single
+   * elements were taken from it already.
+   *
+   * @return the batch or null if none arrived within the timeout
+   */
+  public List<E> pollBatch(long timeout, TimeUnit unit) throws InterruptedException {
+    return nextBatch(Math.max(0l, unit.toNanos(timeout)));
+  }
+
+  /**
+   * Takes all the elements of the next batch, waiting for one if needed.
+   *
+   * @return the batch, or null once the queue is closed and empty
+   * @throws IllegalStateException
+   *           if the queue failed
+   */
+  public List<E> takeBatchOrEnd() throws InterruptedException {
+    return nextBatch(-1l);
+  }
+
+  private List<E> nextBatch(long nanos) throws InterruptedException {
+    consumerLock.lockInterruptibly();
+    try {
+      if (next < current.size()) {
+        List<E> rest = next == 0 ? current : new ArrayList<E>(current.subList(next, current.size()));
+        current = Collections.emptyList();
+        next = 0;
+        return rest;
+      }
+      return receive(nanos);
+    } finally {
+      consumerLock.unlock();
+    }
+  }
+
+  /**
+   * Takes the next batch from the underlying queue. Must hold the consumer
+   * lock.
+   *
+   * @param nanos
+   *          the time to wait, 0 to not wait and < 0 to wait until the end
+   * @return the batch or null if none arrived in time or the queue ended
+   */
+  private List<E> receive(long nanos) throws InterruptedException {
+    checkFailure();
+    List<E> batch;
+    if (nanos < 0) {
+      batch = batches.take();
+    } else if (nanos == 0) {
+      batch = batches.poll();
+    } else {
+      batch = batches.poll(nanos, TimeUnit.NANOSECONDS);
+    }
+    if (batch == END) {
+      // leave the marker for the other consumers
+      batches.offer(batch);
+      checkFailure();
+      return null;
+    }
+    if (batch != null) {
+      queued.addAndGet(-batch.size());
+    }
+    return batch;
+  }
+
+  private void checkFailure() {
+    if (failure != null) {
+      throw new IllegalStateException("The queue failed", failure);
+    }
+  }
+
+  /**
+   * Flushes the batch of the calling thread and marks the end of the stream.
+   * Every other producer thread must have flushed already.
+   */
+  @SuppressWarnings("unchecked")
+  @Override
+  public void close() throws InterruptedException {
+    if (!closed) {
+      List<E> batch = open.get();
+      if (batch != null) {
+        open.remove();
+        putBatch(batch);
+      }
+      closed = true;
+      batches.put(END);
+    }
+  }
+
+  /**
+   * Fails the queue, dropping the batches not taken yet so producers waiting
+   * for room wake up.
+   */
+  @SuppressWarnings("unchecked")
+  @Override
+  public void fail(Throwable cause) {
+    failure = cause == null ? new IllegalStateException("failed without a cause") : cause;
+    if (batches instanceof ClosableQueue) {
+      ((ClosableQueue<List<E>>) batches).fail(failure);
+    } else {
+      batches.clear();
+      queued.set(0);
+      // wakes up a consumer waiting for a batch
+      batches.offer(END);
+    }
+  }
+
+  @Override
+  public E takeOrEnd() throws InterruptedException {
+    return take(-1l);
+  }
+
+  /**
+   * Hands the batch the calling thread is filling over to the consumers, even
+   * though it isn't full. Every producer thread must call this once it's done.
+   *
+   * @throws InterruptedIOException
+   *           if interrupted while waiting for room in the queue
+   */
+  @Override
+  public void flush() throws InterruptedIOException {
+    List<E> batch = open.get();
+    if (batch != null && !batch.isEmpty()) {
+      open.remove();
+      try {
+        putBatch(batch);
+      } catch (InterruptedException e) {
+        open.set(batch);
+        Thread.currentThread().interrupt();
+        throw new InterruptedIOException("interrupted while flushing the batch");
+      }
+    }
+  }
+
+  private List<E> openBatch() {
+    List<E> batch = open.get();
+    if (batch == null) {
+      batch = new ArrayList<E>(batchSize);
+      open.set(batch);
+    }
+    return batch;
+  }
+
+  @Override
+  public void put(E e) throws InterruptedException {
+    checkElement(e);
+    List<E> batch = openBatch();
+    batch.add(e);
+    if (batch.size() == batchSize) {
+      open.remove();
+      putBatch(batch);
+    }
+  }
+
+  @Override
+  public boolean offer(E e) {
+    checkElement(e);
+    List<E> batch = openBatch();
+    batch.add(e);
+    if (batch.size() == batchSize) {
+      queued.addAndGet(batch.size());
+      if (!batches.offer(batch)) {
+        queued.addAndGet(-batch.size());
+        batch.remove(batch.size() - 1);
+        return false;
+      }
+      open.remove();
+    }
+    return true;
+  }
+
+  @Override
+  public boolean offer(E e, long timeout, TimeUnit unit) throws InterruptedException {
+    checkElement(e);
+    List<E> batch = openBatch();
+    batch.add(e);
+    if (batch.size() == batchSize) {
+      queued.addAndGet(batch.size());
+      boolean handed = false;
+      try {
+        handed = batches.offer(batch, timeout, unit);
+      } finally {
+        if (!handed) {
+          queued.addAndGet(-batch.size());
+          batch.remove(batch.size() - 1);
+        }
+      }
+      if (!handed) {
+        return false;
+      }
+      open.remove();
+    }
+    return true;
+  }
+
+  private static void checkElement(Object e) {
+    if (e == null) {
+      throw new NullPointerException();
+    }
+  }
+
+  /**
+   * Makes the next element available in current, waiting up to the timeout
+   * for a batch. Must hold the consumer lock.
+   *
+   * @param nanos
+   *          the time to wait, 0 to not wait and < 0 to wait until the end
+   * @return false if no element arrived in time or the queue ended
+   */
+  private boolean advance(long nanos) throws InterruptedException {
+    if (next < current.size()) {
+      return true;
+    }
+    List<E> batch = receive(nanos);
+    if (batch == null) {
+      return false;
+    }
+    current = batch;
+    next = 0;
+    return true;
+  }
+
+  private E take(long nanos) throws InterruptedException {
+    consumerLock.lockInterruptibly();
+    try {
+      if (!advance(nanos)) {
+        return null;
+      }
+      return current.get(next++);
+    } finally {
+      consumerLock.unlock();
+    }
+  }
+
+  @Override
+  public E take() throws InterruptedException {
+    return take(-1l);
+  }
+
+  @Override
+  public E poll(long timeout, TimeUnit unit) throws InterruptedException {
+    return take(Math.max(0l, unit.toNanos(timeout)));
+  }
+
+  @Override
+  public E poll() {
+    try {
+      return take(0l);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      return null;
+    }
+  }
+
+  @Override
+  public E peek() {
+    consumerLock.lock();
+    try {
+      return advance(0l) ? current.get(next) : null;
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      return null;
+    } finally {
+      consumerLock.unlock();
+    }
+  }
+
+  @Override
+  public int drainTo(Collection<? super E> c) {
+    return drainTo(c, Integer.MAX_VALUE);
+  }
+
+  @Override
+  public int drainTo(Collection<? super E> c, int maxElements) {
+    if (c == this) {
+      throw new IllegalArgumentException();
+    }
+    int n = 0;
+    E e;
+    while (n < maxElements && (e = poll()) != null) {
+      c.add(e);
+      n++;
+    }
+    return n;
+  }
+
+  /**
+   * @return the number of elements handed over to the consumers and not taken
+   *         yet
+   */
+  @Override
+  public int size() {
+    consumerLock.lock();
+    try {
+      return queued.get() + current.size() - next;
+    } finally {
+      consumerLock.unlock();
+    }
+  }
+
+  @Override
+  public int remainingCapacity() {
+    return batches.remainingCapacity() * batchSize;
+  }
+
+  /**
+   * @return an iterator over a snapshot of the elements handed over to the
+   *         consumers, which doesn't support removal
+   */
+  @Override
+  public Iterator<E> iterator() {
+    List<E> snapshot = new ArrayList<E>();
+    consumerLock.lock();
+    try {
+      snapshot.addAll(current.subList(next, current.size()));
+      for (List<E> batch : batches) {
+        snapshot.addAll(batch);
+      }
+    } finally {
+      consumerLock.unlock();
+    }
+    return Collections.unmodifiableList(snapshot).iterator();
+  }
+}
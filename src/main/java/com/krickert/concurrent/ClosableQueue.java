@@ -0,0 +1,38 @@
+package com.krickert.concurrent;
+
+import java.util.concurrent.BlockingQueue;
+
+/**
+ * A blocking queue with an explicit end of stream, so consumers stop as soon
+ * as the last element is taken instead of waiting for a timeout, and never
+ * stop early because the producers stalled. Either side can also fail the
+ * queue, which makes the other side stop with the cause of the failure.
+ *
+ * @author krickert
+ *
+ */
+public interface ClosableQueue<E> extends BlockingQueue<E> {
+
+  /**
+   * Marks the end of the stream once every producer is done. The elements in
+   * the queue are still taken, after them {@link #takeOrEnd()} returns null.
+   * Putting elements after the queue was closed fails.
+   */
+  void close() throws InterruptedException;
+
+  /**
+   * Stops the stream because of an error. Consumers and producers waiting on
+   * the queue, or using it afterwards, get an IllegalStateException with the
+   * cause.
+   */
+  void fail(Throwable cause);
+
+  /**
+   * Takes the next element, waiting for one if needed.
+   *
+   * @return the element, or null once the queue is closed and empty
+   * @throws IllegalStateException
+   *           if the queue failed
+   */
+  E takeOrEnd() throws InterruptedException;
+}
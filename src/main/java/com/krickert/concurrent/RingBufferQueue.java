@@ -0,0 +1,282 @@
+package com.krickert.concurrent;
+
+import java.util.AbstractQueue;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * A bounded lock-free queue for any number of producers and consumers, built
+ * on a ring of slots with a sequence number each (after Dmitry Vyukov's
+ * bounded MPMC queue). A producer claims a slot by moving the tail with a
+ * compare-and-set and publishes the element by advancing the slot sequence, a
+ * consumer does the same with the head. No lock is ever taken, threads that
+ * find the ring full or empty back off by spinning, then yielding, then
+ * parking for a short while.
+ *
+ * The queue is {@link ClosableQueue closable}: once the producers are done the
+ * consumers drain it and {@link #takeOrEnd()} returns null right after the
+ * last element.
+ *
+ * @author krickert
+ *
+ */
+public class RingBufferQueue<E> extends AbstractQueue<E> implements ClosableQueue<E> {
+  private static final int SPINS = 64;
+  private static final int YIELDS = 128;
+  private static final long PARK_NANOS = 50000l;
+
+  private final int capacity;
+  private final int mask;
+  private final AtomicReferenceArray<E> elements;
+  private final AtomicLongArray sequences;
+  private final AtomicLong head = new AtomicLong();
+  private final AtomicLong tail = new AtomicLong();
+
+  private volatile boolean closed = false;
+  private volatile Throwable failure = null;
+
+  /**
+   * @param capacity
+   *          the minimum number of elements the ring holds, rounded up to a
+   *          power of two
+   */
+  public RingBufferQueue(int capacity) {
+    if (capacity < 1 || capacity > 1 << 30) {
+      throw new IllegalArgumentException("capacity must be between 1 and 2^30, is " + capacity);
+    }
+    int size = Integer.highestOneBit(capacity);
+    if (size < capacity) {
+      size <<= 1;
+    }
+    this.capacity = size;
+    this.mask = size - 1;
+    this.elements = new AtomicReferenceArray<E>(size);
+    this.sequences = new AtomicLongArray(size);
+    for (int i = 0; i < size; i++) {
+      sequences.set(i, i);
+    }
+  }
+
+  /**
+   * Backs off a thread that found the ring full or empty.
+   *
+   * @param attempt
+   *          the number of times the thread backed off already
+   */
+  private static void backOff(int attempt) {
+    if (attempt < SPINS) {
+      return;
+    } else if (attempt < YIELDS) {
+      Thread.yield();
+    } else {
+      LockSupport.parkNanos(PARK_NANOS);
+    }
+  }
+
+  private void checkFailure() {
+    if (failure != null) {
+      throw new IllegalStateException("The queue failed", failure);
+    }
+  }
+
+  @Override
+  public boolean offer(E e) {
+    if (e == null) {
+      throw new NullPointerException();
+    }
+    checkFailure();
+    if (closed) {
+      throw new IllegalStateException("The queue is closed");
+    }
+    long position = tail.get();
+    while (true) {
+      int index = (int) position & mask;
+      long difference = sequences.get(index) - position;
+      if (difference == 0) {
+        if (tail.compareAndSet(position, position + 1)) {
+          elements.lazySet(index, e);
+          // publishes the element to the consumers
+          sequences.lazySet(index, position + 1);
+          return true;
+        }
+        position = tail.get();
+      } else if (difference < 0) {
+        return false; // full
+      } else {
+        position = tail.get();
+      }
+    }
+  }
+
+  @Override
+  public E poll() {
+    long position = head.get();
+    while (true) {
+      int index = (int) position & mask;
+      long difference = sequences.get(index) - (position + 1);
+      if (difference == 0) {
+        if (head.compareAndSet(position, position + 1)) {
+          E e = elements.get(index);
+          elements.lazySet(index, null);
+          // hands the slot back to the producers one lap later
+          sequences.lazySet(index, position + capacity);
+          return e;
+        }
+        position = head.get();
+      } else if (difference < 0) {
+        return null; // empty
+      } else {
+        position = head.get();
+      }
+    }
+  }
+
+  @Override
+  public void put(E e) throws InterruptedException {
+    for (int attempt = 0; !offer(e); attempt++) {
+      if (Thread.interrupted()) {
+        throw new InterruptedException();
+      }
+      backOff(attempt);
+    }
+  }
+
+  @Override
+  public boolean offer(E e, long timeout, TimeUnit unit) throws InterruptedException {
+    long deadline = System.nanoTime() + unit.toNanos(timeout);
+    for (int attempt = 0; !offer(e); attempt++) {
+      if (Thread.interrupted()) {
+        throw new InterruptedException();
+      }
+      if (System.nanoTime() - deadline >= 0) {
+        return false;
+      }
+      backOff(attempt);
+    }
+    return true;
+  }
+
+  @Override
+  public E take() throws InterruptedException {
+    E e;
+    for (int attempt = 0; (e = poll()) == null; attempt++) {
+      checkFailure();
+      if (Thread.interrupted()) {
+        throw new InterruptedException();
+      }
+      backOff(attempt);
+    }
+    return e;
+  }
+
+  @Override
+  public E poll(long timeout, TimeUnit unit) throws InterruptedException {
+    long deadline = System.nanoTime() + unit.toNanos(timeout);
+    E e;
+    for (int attempt = 0; (e = poll()) == null; attempt++) {
+      checkFailure();
+      if (Thread.interrupted()) {
+        throw new InterruptedException();
+      }
+      if (closed || System.nanoTime() - deadline >= 0) {
+        return poll();
+      }
+      backOff(attempt);
+    }
+    return e;
+  }
+
+  @Override
+  public E takeOrEnd() throws InterruptedException {
+    E e;
+    for (int attempt = 0; (e = poll()) == null; attempt++) {
+      checkFailure();
+      if (closed) {
+        // elements put before closing are visible once closed is
+        return poll();
+      }
+      if (Thread.interrupted()) {
+        throw new InterruptedException();
+      }
+      backOff(attempt);
+    }
+    return e;
+  }
+
+  @Override
+  public void close() {
+    closed = true;
+  }
+
+  @Override
+  public void fail(Throwable cause) {
+    failure = cause == null ? new IllegalStateException("failed without a cause") : cause;
+  }
+
+  public boolean isClosed() {
+    return closed;
+  }
+
+  @Override
+  public E peek() {
+    long position = head.get();
+    int index = (int) position & mask;
+    return sequences.get(index) == position + 1 ? elements.get(index) : null;
+  }
+
+  @Override
+  public int size() {
+    long size = tail.get() - head.get();
+    return (int) Math.max(0l, Math.min(size, capacity));
+  }
+
+  @Override
+  public int remainingCapacity() {
+    return capacity - size();
+  }
+
+  @Override
+  public int drainTo(Collection<? super E> c) {
+    return drainTo(c, Integer.MAX_VALUE);
+  }
+
+  @Override
+  public int drainTo(Collection<? super E> c, int maxElements) {
+    if (c == this) {
+      throw new IllegalArgumentException();
+    }
+    int n = 0;
+    E e;
+    while (n < maxElements && (e = poll()) != null) {
+      c.add(e);
+      n++;
+    }
+    return n;
+  }
+
+  /**
+   * @return an iterator over a snapshot of the elements, which may miss
+   *         elements taken or put while it is made and doesn't support
+   *         removal
+   */
+  @Override
+  public Iterator<E> iterator() {
+    List<E> snapshot = new ArrayList<E>(size());
+    long end = tail.get();
+    for (long position = head.get(); position < end; position++) {
+      E e = elements.get((int) position & mask);
+      if (e != null) {
+        snapshot.add(e);
+      }
+    }
+    return Collections.unmodifiableList(snapshot).iterator();
+  }
+}
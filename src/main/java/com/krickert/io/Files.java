@@ -0,0 +1,60 @@
+package com.krickert.io;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * The file handling shared by the files written next to the index and read by
+ * the lookups: mapping a whole file and replacing a file by one written next
+ * to it.
+ *
+ * @author krickert
+ *
+ */
+public final class Files {
+
+  private Files() {
+  }
+
+  /**
+   * Maps a whole file read only. The file is closed before this returns, the
+   * mapping stays valid without it.
+   *
+   * @throws IOException
+   *           if the file can't be read or is too large for one buffer
+   */
+  public static MappedByteBuffer map(File file) throws IOException {
+    RandomAccessFile raf = new RandomAccessFile(file, "r");
+    try {
+      FileChannel channel = raf.getChannel();
+      if (channel.size() > Integer.MAX_VALUE) {
+        throw new IOException(file + " is larger than 2GB and can't be mapped in one buffer");
+      }
+      return channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+    } finally {
+      raf.close();
+    }
+  }
+
+  /**
+   * Renames a file written next to the one it replaces over that one, which a
+   * reader sees either before or after but never half written.
+   *
+   * @param next
+   *          the new file, in the directory of the one it replaces
+   * @param file
+   *          the file replaced, which may not exist yet
+   */
+  public static void replace(File next, File file) throws IOException {
+    if (!next.renameTo(file)) {
+      // renaming over an existing file fails on some platforms, which loses
+      // the atomicity there but not the file
+      if (!file.delete() || !next.renameTo(file)) {
+        throw new IOException("Could not rename " + next + " to " + file);
+      }
+    }
+  }
+}
@@ -0,0 +1,182 @@
+package com.krickert.io;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+/**
+ * Reads an input stream on its own thread into a ring of large reusable
+ * buffers, so the work done by the underlying stream (e.g. inflating a zip
+ * entry) overlaps with the work of the thread consuming the data. The buffers
+ * cycle between a free and a full queue: the read ahead thread fills free
+ * buffers and the consumer hands them back once it has copied them out.
+ *
+ * Errors of the underlying stream are thrown to the consumer once it reaches
+ * the data that failed to be read. This stream is not thread safe, it's meant
+ * to have a single consumer.
+ *
+ * @author krickert
+ *
+ */
+public class ReadAheadInputStream extends InputStream {
+
+  private static final class Buffer {
+    final byte[] data;
+    int length;
+
+    Buffer(int size) {
+      data = new byte[size];
+    }
+  }
+
+  /* marks the end of the data in the full queue */
+  private static final Buffer END = new Buffer(0);
+
+  private final InputStream in;
+  private final BlockingQueue<Buffer> free;
+  private final BlockingQueue<Buffer> full;
+  private final Thread reader;
+  private volatile IOException failure;
+
+  private Buffer current;
+  private int position;
+
+  /**
+   * Starts reading the stream ahead right away.
+   *
+   * @param in
+   *          the stream to read, closed when this stream is closed
+   * @param buffers
+   *          the number of buffers in the ring, at least 2 so one can be
+   *          filled while the other one is consumed
+   * @param bufferSize
+   *          the size of each buffer in bytes
+   * @param name
+   *          the name of the read ahead thread
+   */
+  public ReadAheadInputStream(InputStream in, int buffers, int bufferSize, String name) {
+    if (buffers < 2) {
+      throw new IllegalArgumentException("at least 2 buffers are needed, got " + buffers);
+    }
+    this.in = checkNotNull(in);
+    this.free = new ArrayBlockingQueue<Buffer>(buffers);
+    // one more for the end marker
+    this.full = new ArrayBlockingQueue<Buffer>(buffers + 1);
+    for (int i = 0; i < buffers; i++) {
+      free.add(new Buffer(bufferSize));
+    }
+    this.reader = new Thread(new Runnable() {
+      @Override
+      public void run() {
+        readAhead();
+      }
+    }, name);
+    reader.setDaemon(true);
+    reader.start();
+  }
+
+  private void readAhead() {
+    try {
+      while (true) {
+        Buffer buffer = free.take();
+        buffer.length = fill(buffer.data);
+        if (buffer.length == 0) {
+          break;
+        }
+        full.put(buffer);
+      }
+    } catch (IOException e) {
+      failure = e;
+    } catch (InterruptedException e) {
+      // closed by the consumer
+      return;
+    }
+    full.offer(END);
+  }
+
+  /**
+   * Reads until the buffer is full or the stream ends.
+   *
+   * @return the number of bytes read, 0 at the end of the stream
+   */
+  private int fill(byte[] data) throws IOException {
+    int length = 0;
+    int n;
+    while (length < data.length && (n = in.read(data, length, data.length - length)) >= 0) {
+      length += n;
+    }
+    return length;
+  }
+
+  /**
+   * @return false at the end of the stream
+   */
+  private boolean next() throws IOException {
+    if (current == END) {
+      return false;
+    }
+    if (current != null) {
+      free.offer(current);
+    }
+    try {
+      current = full.take();
+    } catch (InterruptedException e) {
+      throw new InterruptedIOException("interrupted while waiting for the read ahead thread");
+    }
+    position = 0;
+    if (current == END && failure != null) {
+      throw failure;
+    }
+    return current != END;
+  }
+
+  @Override
+  public int read() throws IOException {
+    if (current == null || position == current.length) {
+      if (!next()) {
+        return -1;
+      }
+    }
+    return current.data[position++] & 0xff;
+  }
+
+  @Override
+  public int read(byte[] b, int off, int len) throws IOException {
+    if (len == 0) {
+      return 0;
+    }
+    if (current == null || position == current.length) {
+      if (!next()) {
+        return -1;
+      }
+    }
+    int n = Math.min(len, current.length - position);
+    System.arraycopy(current.data, position, b, off, n);
+    position += n;
+    return n;
+  }
+
+  @Override
+  public int available() {
+    return current == null || current == END ? 0 : current.length - position;
+  }
+
+  /**
+   * Stops the read ahead thread and closes the underlying stream.
+   */
+  @Override
+  public void close() throws IOException {
+    reader.interrupt();
+    try {
+      reader.join();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+    current = END;
+    in.close();
+  }
+}
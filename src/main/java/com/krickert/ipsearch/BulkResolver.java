@@ -0,0 +1,201 @@
+package com.krickert.ipsearch;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+
+import java.io.Closeable;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Resolves many addresses at once against a {@link RangeTable}, for the jobs
+ * that resolve the addresses of whole logs. Instead of a binary search per
+ * address, the addresses are sorted with their positions packed into
+ * primitive longs and joined with the ranges in a single forward pass, each
+ * range being visited once however many addresses it holds. The location ids
+ * are written into an array of the caller at the positions of the addresses.
+ * The sort is a radix sort on the 32 bits of the address, two passes of 16
+ * bits, so both the sort and the join stream through memory.
+ *
+ * With more than one thread the addresses are split into as many parts, each
+ * sorted and joined by a thread of its own. A stream of addresses is resolved
+ * a batch at a time through arrays the caller reuses; the sort keys are kept
+ * between calls too, so resolving allocates nothing once the largest batch
+ * was seen. A resolver is not thread safe.
+ *
+ * @author krickert
+ *
+ */
+public class BulkResolver implements Closeable {
+  /* below this the parts aren't worth a thread */
+  private static final int MIN_PART = 64 * 1024;
+
+  private final RangeTable table;
+  private final int threads;
+  private final ExecutorService executor;
+  private long[] keys = new long[0];
+  private long[] scratch = new long[0];
+  /* the digit counts of every part */
+  private final int[][] counts;
+
+  /**
+   * @param table
+   *          the ranges to resolve the addresses against
+   * @param threads
+   *          the number of threads sorting and joining
+   */
+  public BulkResolver(RangeTable table, int threads) {
+    if (threads < 1) {
+      throw new IllegalArgumentException("threads must be at least 1, is " + threads);
+    }
+    this.table = checkNotNull(table);
+    this.threads = threads;
+    this.executor = threads > 1 ? Executors.newFixedThreadPool(threads) : null;
+    this.counts = new int[threads][1 << 16];
+  }
+
+  /**
+   * Same as above, on a single thread.
+   */
+  public BulkResolver(RangeTable table) {
+    this(table, 1);
+  }
+
+  /**
+   * Same as {@link #resolve(long[], int, int[])} for the whole array.
+   */
+  public void resolve(long[] ips, int[] locationIds) {
+    resolve(ips, ips.length, locationIds);
+  }
+
+  /**
+   * Resolves the first <code>count</code> addresses.
+   *
+   * @param ips
+   *          IPv4 addresses as numbers, the way ipinfodb writes them, in any
+   *          order. Not changed
+   * @param locationIds
+   *          gets the location id of every address at its position, or
+   *          {@link RangeTable#NO_LOCATION}
+   * @throws IllegalArgumentException
+   *           if an address isn't an IPv4 address
+   */
+  public void resolve(long[] ips, int count, int[] locationIds) {
+    if (count > ips.length || count > locationIds.length) {
+      throw new IllegalArgumentException(count + " addresses don't fit arrays of " + ips.length + " and " + locationIds.length);
+    }
+    if (keys.length < count) {
+      keys = new long[count];
+      scratch = new long[count];
+    }
+    int parts = executor == null ? 1 : Math.max(1, Math.min(threads, count / MIN_PART));
+    if (parts == 1) {
+      sortAndJoin(ips, 0, count, locationIds, counts[0]);
+      return;
+    }
+    List<Future<Void>> futures = new ArrayList<Future<Void>>(parts);
+    for (int part = 0; part < parts; part++) {
+      final int from = (int) ((long) count * part / parts);
+      final int to = (int) ((long) count * (part + 1) / parts);
+      final long[] partIps = ips;
+      final int[] partIds = locationIds;
+      final int[] partCounts = counts[part];
+      futures.add(executor.submit(new Callable<Void>() {
+        @Override
+        public Void call() {
+          sortAndJoin(partIps, from, to, partIds, partCounts);
+          return null;
+        }
+      }));
+    }
+    try {
+      for (Future<Void> future : futures) {
+        future.get();
+      }
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new IllegalStateException(e);
+    } catch (ExecutionException e) {
+      if (e.getCause() instanceof RuntimeException) {
+        throw (RuntimeException) e.getCause();
+      }
+      throw new IllegalStateException(e.getCause());
+    }
+  }
+
+  /**
+   * Sorts the addresses from <code>from</code> to <code>to</code> and joins
+   * them with the ranges.
+   */
+  private void sortAndJoin(long[] ips, int from, int to, int[] locationIds, int[] digits) {
+    // the addresses fit in 32 bits, the positions in 31
+    for (int i = from; i < to; i++) {
+      long ip = ips[i];
+      if (ip < 0 || ip > 0xffffffffl) {
+        throw new IllegalArgumentException("not an IPv4 address: " + ip);
+      }
+      keys[i] = ip << 31 | i;
+    }
+    sort(keys, scratch, from, to, 31, digits);
+    sort(scratch, keys, from, to, 47, digits);
+
+    int size = table.size();
+    if (from == to || size == 0) {
+      for (int i = from; i < to; i++) {
+        locationIds[(int) (keys[i] & Integer.MAX_VALUE)] = RangeTable.NO_LOCATION;
+      }
+      return;
+    }
+    int range = table.range(keys[from] >>> 31);
+    long nextStart = range + 1 < size ? table.start(range + 1) : Long.MAX_VALUE;
+    int locationId = range < 0 ? RangeTable.NO_LOCATION : table.locationIdOf(range);
+    for (int i = from; i < to; i++) {
+      long ip = keys[i] >>> 31;
+      if (ip >= nextStart) {
+        while (range + 1 < size && table.start(range + 1) <= ip) {
+          range++;
+        }
+        nextStart = range + 1 < size ? table.start(range + 1) : Long.MAX_VALUE;
+        locationId = table.locationIdOf(range);
+      }
+      locationIds[(int) (keys[i] & Integer.MAX_VALUE)] = locationId;
+    }
+  }
+
+  /**
+   * One pass of the radix sort, moving the keys from <code>from</code> to
+   * <code>to</code> ordered by 16 bits of the key, keeping the order of the
+   * keys with the same bits.
+   */
+  private static void sort(long[] in, long[] out, int from, int to, int shift, int[] digits) {
+    Arrays.fill(digits, 0);
+    for (int i = from; i < to; i++) {
+      digits[(int) (in[i] >>> shift) & 0xffff]++;
+    }
+    int position = from;
+    for (int digit = 0; digit < digits.length; digit++) {
+      int count = digits[digit];
+      digits[digit] = position;
+      position += count;
+    }
+    for (int i = from; i < to; i++) {
+      long key = in[i];
+      out[digits[(int) (key >>> shift) & 0xffff]++] = key;
+    }
+  }
+
+  /**
+   * Stops the threads of the resolver.
+   */
+  @Override
+  public void close() {
+    if (executor != null) {
+      executor.shutdown();
+    }
+  }
+}
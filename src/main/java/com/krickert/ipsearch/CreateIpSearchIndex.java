@@ -1,12 +1,22 @@
 package com.krickert.ipsearch;
 
+import java.io.File;
+import java.io.IOException;
 import java.util.concurrent.ExecutorService;
 
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
+import org.apache.lucene.document.Document;
+import org.apache.lucene.index.IndexReader;
+import org.apache.lucene.search.IndexSearcher;
+import org.apache.lucene.search.TermQuery;
+import org.apache.lucene.store.Directory;
 import org.springframework.context.ApplicationContext;
 import org.springframework.context.support.ClassPathXmlApplicationContext;
 
+import com.krickert.lucene.IndexVersions;
+import com.krickert.lucene.IndexWriterManager;
+
 /**
  * <b>Simple ip address spatial search indexer.</b> <br>
  * With this application, we will automatically download the latest version of
@@ -17,6 +27,7 @@ import org.springframework.context.support.ClassPathXmlApplicationContext;
  * <li>Download the index file
  * <li>Steam the file into the lucene index
  * <li>Close the index and optimize
+ * <li>Verify the new version of the index and publish it
  * <li>You can now search with the spatial encoding of IP and location data
  * </ol>
  * 
@@ -64,6 +75,7 @@ public class CreateIpSearchIndex {
    */
   private void start() {
     downloadIpDataFiles();
+    long started = System.currentTimeMillis();
     // since the parsing occurs in it's own thread, returns the executor so we
     // can shut it down on completion
     ExecutorService execution = parseIpData();
@@ -72,6 +84,76 @@ public class CreateIpSearchIndex {
     log.info("Completed index.  Committing and flushing to disk.");
     execution.shutdownNow();
     task.commitAndFinish();
+    reportIndex(task.getSchema(), System.currentTimeMillis() - started);
+    publishIndex();
+  }
+
+  /**
+   * Verifies the staging version of the index and points the searches at it.
+   * If it doesn't pass the version published before stays.
+   */
+  private void publishIndex() {
+    try {
+      verifyIndex(IndexWriterManager.openReader(context.getBean("directory", Directory.class), context.getBean("indexDirFile",
+          File.class)), context.getBean(LocationStoreWriter.class), context.getBean(IpdbWriter.class));
+      context.getBean(IndexVersions.class).publish();
+    } catch (IOException e) {
+      throw new IllegalStateException(e);
+    }
+  }
+
+  /**
+   * Checks the index, with its unmerged shards if any, has documents and that
+   * a range can be found by its ip_start, and its location in the store if
+   * there's one. The ipdb file, if written, has to hold every range of the
+   * index. Closes the reader.
+   */
+  private static void verifyIndex(IndexReader reader, LocationStoreWriter store, IpdbWriter ipdb) throws IOException {
+    try {
+      if (reader.numDocs() == 0) {
+        throw new IllegalStateException("The new index has no documents, not publishing it");
+      }
+      int doc = reader.maxDoc() / 2;
+      while (reader.isDeleted(doc)) {
+        doc = (doc + 1) % reader.maxDoc();
+      }
+      Document sample = reader.document(doc);
+      long ipStart = Long.parseLong(sample.get(IndexedRanges.IP_START_FIELD));
+      IndexSearcher searcher = new IndexSearcher(reader);
+      if (searcher.search(new TermQuery(IndexedRanges.term(ipStart)), 1).totalHits == 0) {
+        throw new IllegalStateException("The range starting at " + ipStart + " can't be found in the new index, not publishing it");
+      }
+      if (store.isEnabled()) {
+        int locationId = Integer.parseInt(sample.get("location_id"));
+        new LocationStore(store.getFile()).get(locationId);
+      }
+      if (ipdb.isEnabled() && new IpdbFile(ipdb.getFile()).size() != reader.numDocs()) {
+        throw new IllegalStateException("The new ipdb file doesn't hold the " + reader.numDocs() + " ranges of the index, not publishing it");
+      }
+      log.info("Verified the new index of " + reader.numDocs() + " ranges");
+    } finally {
+      reader.close();
+    }
+  }
+
+  /**
+   * Logs the build time and the size of the index, to compare the schema
+   * profiles
+   */
+  private void reportIndex(IndexSchema schema, long millis) {
+    File indexDir = context.getBean("indexDirFile", File.class);
+    log.info("Built the " + schema + " index in " + millis + " ms, " + indexSize(indexDir) + " bytes in " + indexDir);
+  }
+
+  private static long indexSize(File indexDir) {
+    long size = 0;
+    File[] files = indexDir.listFiles();
+    if (files != null) {
+      for (File file : files) {
+        size += file.length();
+      }
+    }
+    return size;
   }
 
   /**
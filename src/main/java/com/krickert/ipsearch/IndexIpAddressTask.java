@@ -3,42 +3,91 @@ package com.krickert.ipsearch;
 import static com.google.common.base.Preconditions.checkNotNull;
 
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.concurrent.BlockingQueue;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
 
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 import org.apache.lucene.document.Document;
-import org.apache.lucene.document.Field;
-import org.apache.lucene.document.Field.Index;
-import org.apache.lucene.document.NumericField;
 import org.apache.lucene.index.CorruptIndexException;
+import org.apache.lucene.index.IndexReader;
 import org.apache.lucene.index.IndexWriter;
-import org.apache.lucene.spatial.tier.projections.CartesianTierPlotter;
-import org.apache.lucene.spatial.tier.projections.IProjector;
-import org.apache.lucene.spatial.tier.projections.SinusoidalProjector;
-import org.apache.lucene.util.NumericUtils;
+import org.apache.lucene.index.Term;
 
+import com.krickert.concurrent.BatchingBlockingQueue;
+import com.krickert.concurrent.ClosableQueue;
 import com.krickert.ipsearch.city.IpSearchCityBean;
+import com.krickert.ipsearch.city.IpSearchCityBeanPool;
+import com.krickert.lucene.DocumentSource;
 import com.krickert.lucene.IndexWriterManager;
+import com.krickert.lucene.ThreadedIndexWriter;
 
 /**
  * Continually takes data from a queue and puts it into an index. The indexer
  * itself is already multi threaded so this only runs on a single thread.
  * 
+ * If the writer opened an existing index the index is refreshed instead of
+ * built: every row is diffed against the {@link IndexedRanges} of the index,
+ * only the new and changed ranges are written, replacing their document by
+ * their ip_start, and the ranges gone from the file are deleted at the end.
+ * 
  * @author krickert
  * 
  */
 public class IndexIpAddressTask {
   private static final Log log = LogFactory.getLog(IndexIpAddressTask.class);
+  /* the locations memoized by the tier encoder of every thread */
+  private static final int TIER_CACHE_SIZE = 4096;
 
+  private final IndexWriterManager manager;
   private final IndexWriter writer;
+  /* the writers of the shards, each filled by a thread of its own */
+  private final List<IndexWriter> shards;
   private final BlockingQueue<IpSearchCityBean> queue;
   private final int timeout;
+  private final IpSearchCityBeanPool pool;
+
+  private final int startTier;
+  private final int endTier;
+  private final IndexSchema schema;
+  /* the store of the locations, null to keep them in the documents */
+  private final LocationStoreWriter store;
+  /* the writer of the ipdb file, null to write none */
+  private final IpdbWriter ipdb;
+  /* the ranges of the index being refreshed, null when building a new one */
+  private volatile IndexedRanges ranges;
+  private final AtomicLong unchanged = new AtomicLong();
 
-  private static final String latField = "lat";
-  private static final String lngField = "lon";
-  private static final String tierPrefix = "_localTier";
+  /* the document template of every thread adding documents */
+  private final ThreadLocal<IpDocumentTemplate> templates = new ThreadLocal<IpDocumentTemplate>() {
+    @Override
+    protected IpDocumentTemplate initialValue() {
+      return new IpDocumentTemplate(schema, new TierEncoder(startTier, endTier, TierEncoder.DEFAULT_TIER_PREFIX, TIER_CACHE_SIZE),
+          store, manager.isRefreshable());
+    }
+  };
+
+  private final DocumentSource<IpSearchCityBean> documents = new DocumentSource<IpSearchCityBean>() {
+    @Override
+    public Document document(IpSearchCityBean bean) {
+      return templates.get().fill(bean);
+    }
+
+    @Override
+    public Term term(IpSearchCityBean bean) {
+      return ranges == null ? null : IndexedRanges.term(bean.ipStart());
+    }
+
+    @Override
+    public void indexed(IpSearchCityBean bean) {
+      // the document holds everything it needs from the bean
+      pool.release(bean);
+    }
+  };
 
   /**
    * The task of this indexer is to create the spatial ip address index. There
@@ -61,20 +110,203 @@ public class IndexIpAddressTask {
    *           violently
    */
   public IndexIpAddressTask(IndexWriterManager writer, BlockingQueue<IpSearchCityBean> queue, int timeout) {
+    this(writer, queue, timeout, new IpSearchCityBeanPool(0));
+  }
+
+  /**
+   * Same as above, but every bean is released to the pool once its document
+   * was built so the reader can fill it again.
+   * 
+   * @param pool
+   *          the pool the {@link IpDataReaderTask} acquires its beans from
+   */
+  public IndexIpAddressTask(IndexWriterManager writer, BlockingQueue<IpSearchCityBean> queue, int timeout, IpSearchCityBeanPool pool) {
+    this(writer, queue, timeout, pool, TierEncoder.DEFAULT_START_TIER, TierEncoder.DEFAULT_END_TIER);
+  }
+
+  /**
+   * Same as above, with the range of cartesian tiers every location is
+   * encoded into.
+   * 
+   * @param startTier
+   *          the first tier, 5 by default
+   * @param endTier
+   *          the last tier, 15 by default
+   */
+  public IndexIpAddressTask(IndexWriterManager writer, BlockingQueue<IpSearchCityBean> queue, int timeout, IpSearchCityBeanPool pool,
+      int startTier, int endTier) {
+    this(writer, queue, timeout, pool, startTier, endTier, IndexSchema.FULL);
+  }
+
+  /**
+   * Same as above, with the profile of the fields every document gets.
+   * 
+   * @param schema
+   *          the fields indexed, {@link IndexSchema#FULL} by default
+   */
+  public IndexIpAddressTask(IndexWriterManager writer, BlockingQueue<IpSearchCityBean> queue, int timeout, IpSearchCityBeanPool pool,
+      int startTier, int endTier, IndexSchema schema) {
+    this(writer, queue, timeout, pool, startTier, endTier, schema, null);
+  }
+
+  /**
+   * Same as above, keeping the locations in a {@link LocationStore} next to
+   * the index so the documents only store the id of their location.
+   * 
+   * @param store
+   *          the writer of the store, written once the index is finished. If
+   *          it's null or not enabled the locations are stored in the
+   *          documents
+   */
+  public IndexIpAddressTask(IndexWriterManager writer, BlockingQueue<IpSearchCityBean> queue, int timeout, IpSearchCityBeanPool pool,
+      int startTier, int endTier, IndexSchema schema, LocationStoreWriter store) {
+    this(writer, queue, timeout, pool, startTier, endTier, schema, store, null);
+  }
+
+  /**
+   * Same as above, also writing every range into an {@link IpdbFile} next to
+   * the index. An index being refreshed still writes every range of the file
+   * into it, changed or not.
+   * 
+   * @param ipdb
+   *          the writer of the file, written once the index is finished. If
+   *          it's null or not enabled no file is written
+   */
+  public IndexIpAddressTask(IndexWriterManager writer, BlockingQueue<IpSearchCityBean> queue, int timeout, IpSearchCityBeanPool pool,
+      int startTier, int endTier, IndexSchema schema, LocationStoreWriter store, IpdbWriter ipdb) {
+    if (startTier < 0 || endTier < startTier) {
+      throw new IllegalArgumentException("not a valid tier range: " + startTier + " to " + endTier);
+    }
+    this.startTier = startTier;
+    this.endTier = endTier;
+    this.manager = writer;
     this.writer = checkNotNull(writer.getWriter());
+    this.shards = writer.getShardWriters();
     this.queue = checkNotNull(queue);
     this.timeout = timeout;
+    this.pool = checkNotNull(pool);
+    this.schema = checkNotNull(schema);
+    this.store = store != null && store.isEnabled() ? store : null;
+    this.ipdb = ipdb != null && ipdb.isEnabled() ? ipdb : null;
+  }
+
+  public IndexSchema getSchema() {
+    return schema;
   }
 
+  /**
+   * Takes the beans from the queue until the reader is done and indexes them.
+   * If the index is sharded every shard is filled by a thread of its own, all
+   * of them taking from the same queue, and this waits for all of them.
+   */
   public void insertIntoIndex() {
     log.info("Starting to insert into the indexer");
+    if (manager.isIncremental()) {
+      loadRanges();
+    }
+    if (shards.isEmpty()) {
+      insertIntoIndex(writer);
+    } else {
+      insertIntoShards();
+    }
+    if (ranges != null) {
+      deleteRemovedRanges();
+    }
+  }
+
+  private void loadRanges() {
+    try {
+      IndexReader reader = writer.getReader();
+      try {
+        ranges = IndexedRanges.load(reader);
+      } finally {
+        reader.close();
+      }
+    } catch (IOException e) {
+      throw new IllegalStateException(e);
+    }
+    log.info("Refreshing an index of " + ranges.size() + " ranges");
+  }
+
+  private void deleteRemovedRanges() {
+    long[] removed = ranges.unseen();
+    Term[] terms = new Term[removed.length];
+    for (int i = 0; i < removed.length; i++) {
+      terms[i] = IndexedRanges.term(removed[i]);
+    }
+    try {
+      writer.deleteDocuments(terms);
+    } catch (IOException e) {
+      throw new IllegalStateException(e);
+    }
+    log.info(unchanged.get() + " ranges unchanged, " + removed.length + " deleted");
+  }
+
+  /**
+   * @return true if the range of the bean is indexed as it is already, in
+   *         which case the bean was released
+   */
+  private boolean skipUnchanged(IpSearchCityBean bean) {
+    if (ranges != null && ranges.unchanged(bean.ipStart(), bean.signature())) {
+      unchanged.incrementAndGet();
+      pool.release(bean);
+      return true;
+    }
+    return false;
+  }
+
+  private void insertIntoShards() {
+    log.info("Indexing into " + shards.size() + " shards");
+    final AtomicReference<RuntimeException> failure = new AtomicReference<RuntimeException>();
+    List<Thread> threads = new ArrayList<Thread>(shards.size());
+    for (int i = 0; i < shards.size(); i++) {
+      final IndexWriter shard = shards.get(i);
+      Thread thread = new Thread("index shard " + i) {
+        @Override
+        public void run() {
+          try {
+            insertIntoIndex(shard);
+          } catch (RuntimeException e) {
+            failure.compareAndSet(null, e);
+          }
+        }
+      };
+      thread.start();
+      threads.add(thread);
+    }
+    try {
+      for (Thread thread : threads) {
+        thread.join();
+      }
+    } catch (InterruptedException e) {
+      for (Thread thread : threads) {
+        thread.interrupt();
+      }
+      Thread.currentThread().interrupt();
+      throw new IllegalStateException(e);
+    }
+    if (failure.get() != null) {
+      throw failure.get();
+    }
+  }
+
+  @SuppressWarnings("unchecked")
+  private void insertIntoIndex(IndexWriter target) {
+    if (queue instanceof BatchingBlockingQueue) {
+      insertBatchesIntoIndex((BatchingBlockingQueue<IpSearchCityBean>) queue, target);
+      return;
+    }
+    if (queue instanceof ClosableQueue) {
+      insertUntilEnd((ClosableQueue<IpSearchCityBean>) queue, target);
+      return;
+    }
     try {
       IpSearchCityBean bean;
       boolean done = false;
       while (!done) {
         bean = queue.poll(timeout, TimeUnit.SECONDS);
         if (bean != null) {
-          addLocation(bean);
+          addLocation(target, bean);
         } else {
           log.info("Marking as complete.");
           done = true;
@@ -88,64 +320,129 @@ public class IndexIpAddressTask {
   }// while loop continues
 
   /**
-   * Adds IPSearch data to the index.
+   * Same as {@link #insertIntoIndex()}, taking whole batches from the queue
+   * until the reader closes it. No timeout applies, a stalled reader doesn't
+   * end the index early. If indexing fails the queue is failed too, so the
+   * reader stops instead of waiting for room.
+   */
+  private void insertBatchesIntoIndex(BatchingBlockingQueue<IpSearchCityBean> batches, IndexWriter target) {
+    try {
+      List<IpSearchCityBean> batch;
+      while ((batch = batches.takeBatchOrEnd()) != null) {
+        addLocations(target, batch);
+      }
+      log.info("Marking as complete.");
+    } catch (IOException e) {
+      batches.fail(e);
+      throw new IllegalStateException(e);
+    } catch (InterruptedException e) {
+      batches.fail(e);
+      throw new IllegalStateException(e);
+    }
+  }
+
+  /**
+   * Same as {@link #insertBatchesIntoIndex(BatchingBlockingQueue, IndexWriter)},
+   * one bean at a time.
+   */
+  private void insertUntilEnd(ClosableQueue<IpSearchCityBean> beans, IndexWriter target) {
+    try {
+      IpSearchCityBean bean;
+      while ((bean = beans.takeOrEnd()) != null) {
+        addLocation(target, bean);
+      }
+      log.info("Marking as complete.");
+    } catch (IOException e) {
+      beans.fail(e);
+      throw new IllegalStateException(e);
+    } catch (InterruptedException e) {
+      beans.fail(e);
+      throw new IllegalStateException(e);
+    }
+  }
+
+  /**
+   * Adds IPSearch data to the index. The document is filled from the bean by
+   * the template of the thread adding it, on a writer thread if the writer has
+   * any, and the bean is released to the pool once its document was added.
    * 
    * @param bean
    *          the bean it needs to index
    * @throws IOException
    */
   public void addLocation(IpSearchCityBean bean) throws IOException {
-    Document doc = new Document();
-    doc.add(new NumericField("ip_start", Field.Store.YES, true).setLongValue(bean.getIpStart()));
-    doc.add(new NumericField("ip_end", Field.Store.YES, true).setLongValue(bean.getIpEnd()));
-    doc.add(new NumericField("ip_start_a", Field.Store.NO, true).setLongValue((bean.getIpStart() / 16777216l) % 256));
-    doc.add(new NumericField("ip_start_b", Field.Store.NO, true).setLongValue((bean.getIpStart() / 65536) % 256));
-    doc.add(new NumericField("ip_start_c", Field.Store.NO, true).setLongValue((bean.getIpStart() / 256) % 256));
-    doc.add(new NumericField("ip_start_d", Field.Store.NO, true).setLongValue((bean.getIpStart()) % 256));
-    doc.add(new NumericField("ip_end_a", Field.Store.NO, true).setLongValue((bean.getIpEnd() / 16777216l) % 256));
-    doc.add(new NumericField("ip_end_b", Field.Store.NO, true).setLongValue((bean.getIpEnd() / 65536) % 256));
-    doc.add(new NumericField("ip_end_c", Field.Store.NO, true).setLongValue((bean.getIpEnd() / 256) % 256));
-    doc.add(new NumericField("ip_end_d", Field.Store.NO, true).setLongValue((bean.getIpEnd()) % 256));
-    doc.add(new Field(latField, NumericUtils.doubleToPrefixCoded(bean.getLat()), Field.Store.YES, Field.Index.NOT_ANALYZED));
-    doc.add(new Field(lngField, NumericUtils.doubleToPrefixCoded(bean.getLon()), Field.Store.YES, Field.Index.NOT_ANALYZED));
-    // some of these fields have a chance of being null
-    addToDoc(doc, "city", bean.getCity(), Field.Store.YES, Field.Index.ANALYZED);
-    addToDoc(doc, "zip_code", bean.getZipCode(), Field.Store.YES, Field.Index.ANALYZED);
-    addToDoc(doc, "country_code", bean.getCountryCode(), Field.Store.YES, Field.Index.ANALYZED);
-    addToDoc(doc, "country_name", bean.getCountryName(), Field.Store.YES, Field.Index.ANALYZED);
-    addToDoc(doc, "metro_code", bean.getMetroCode(), Field.Store.YES, Field.Index.ANALYZED);
-    addToDoc(doc, "region_code", bean.getRegionCode(), Field.Store.YES, Field.Index.ANALYZED);
-    addToDoc(doc, "region_name", bean.getRegionName(), Field.Store.YES, Field.Index.ANALYZED);
-
-    IProjector projector = new SinusoidalProjector();
-    int startTier = 5;
-    int endTier = 15;
-    for (; startTier <= endTier; startTier++) {
-      CartesianTierPlotter ctp;
-      ctp = new CartesianTierPlotter(startTier, projector, tierPrefix);
-      double boxId = ctp.getTierBoxId(bean.getLat(), bean.getLon());
-      doc.add(new Field(ctp.getTierFieldName(), NumericUtils.doubleToPrefixCoded(boxId), Field.Store.YES, Field.Index.NOT_ANALYZED_NO_NORMS));
-    }
-    writer.addDocument(doc);
-  }
-
-  private static void addToDoc(Document doc, String field, String value, Field.Store store, Index analyzed) {
-    if (!emptyString(value)) {
-      doc.add(new Field(field, value, store, analyzed));
-    }
-  }
-
-  private static boolean emptyString(String string) {
-    if (string != null && !string.trim().equals("")) {
-      return false;
+    addLocation(writer, bean);
+  }
+
+  private void addLocation(IndexWriter target, IpSearchCityBean bean) throws IOException {
+    if (ipdb != null) {
+      ipdb.add(bean);
+    }
+    if (!skipUnchanged(bean)) {
+      writeLocation(target, bean);
+    }
+  }
+
+  private void writeLocation(IndexWriter target, IpSearchCityBean bean) throws IOException {
+    if (target instanceof ThreadedIndexWriter) {
+      ((ThreadedIndexWriter) target).addDocument(documents, bean);
     } else {
-      return true;
+      try {
+        Term term = documents.term(bean);
+        if (term != null) {
+          target.updateDocument(term, documents.document(bean));
+        } else {
+          target.addDocument(documents.document(bean));
+        }
+      } finally {
+        documents.indexed(bean);
+      }
+    }
+  }
+
+  /**
+   * Same as {@link #addLocation(IpSearchCityBean)} for a whole batch, which a
+   * threaded writer hands to one of its threads as a single job so this thread
+   * goes back to taking batches right away.
+   * 
+   * @param beans
+   *          the batch, not changed afterwards
+   * @throws IOException
+   */
+  public void addLocations(List<IpSearchCityBean> beans) throws IOException {
+    addLocations(writer, beans);
+  }
+
+  private void addLocations(IndexWriter target, List<IpSearchCityBean> beans) throws IOException {
+    if (ipdb != null) {
+      for (int i = 0; i < beans.size(); i++) {
+        ipdb.add(beans.get(i));
+      }
+    }
+    if (ranges != null) {
+      List<IpSearchCityBean> changed = new ArrayList<IpSearchCityBean>();
+      for (int i = 0; i < beans.size(); i++) {
+        if (!skipUnchanged(beans.get(i))) {
+          changed.add(beans.get(i));
+        }
+      }
+      beans = changed;
+    }
+    if (target instanceof ThreadedIndexWriter) {
+      ((ThreadedIndexWriter) target).addDocuments(documents, beans);
+    } else {
+      for (int i = 0; i < beans.size(); i++) {
+        writeLocation(target, beans.get(i));
+      }
     }
   }
 
   public void commit() {
     log.info("committing..");
     try {
+      for (IndexWriter shard : shards) {
+        shard.commit();
+      }
       writer.commit();
     } catch (CorruptIndexException e) {
       throw new RuntimeException(e);
@@ -155,12 +452,21 @@ public class IndexIpAddressTask {
     }
   }
 
+  /**
+   * Finishes the shards, if any, merges the index and commits and closes the
+   * main writer. The location store and the ipdb file are written last.
+   */
   public void commitAndFinish() {
     log.info("committing..");
     try {
-      writer.commit();
       log.info("closing..");
-      writer.close();
+      manager.finishIndex();
+      if (store != null) {
+        store.write();
+      }
+      if (ipdb != null) {
+        ipdb.write();
+      }
       log.info("Write complete");
     } catch (CorruptIndexException e) {
       throw new RuntimeException(e);
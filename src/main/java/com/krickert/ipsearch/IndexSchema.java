@@ -0,0 +1,50 @@
+package com.krickert.ipsearch;
+
+import org.apache.lucene.util.NumericUtils;
+
+/**
+ * The named profiles of the fields every ip range document gets, picked with
+ * <i>ipsearch.index.schema</i>. The smaller profiles leave out what the
+ * searches they serve never read, which makes the index smaller and the build
+ * faster:
+ * <ul>
+ * <li>{@link #MINIMAL} indexes ip_start and ip_end with a single term per
+ * value, for lookups through the field cache. Everything else is only stored
+ * <li>{@link #LOOKUP} indexes ip_start and ip_end for fast range queries and
+ * the string fields without norms or term frequencies, the codes as a single
+ * term
+ * <li>{@link #SPATIAL} is {@link #LOOKUP} plus lat, lon and the cartesian tiers
+ * for radius searches
+ * <li>{@link #FULL} indexes everything, with the octet fields and the string
+ * fields analyzed with norms. This is the schema of the original index
+ * </ul>
+ * Every profile stores the same values, only what can be searched differs.
+ *
+ * @author krickert
+ *
+ */
+public enum IndexSchema {
+  MINIMAL(Integer.MAX_VALUE, false, false, false, false),
+  LOOKUP(NumericUtils.PRECISION_STEP_DEFAULT, false, false, true, false),
+  SPATIAL(NumericUtils.PRECISION_STEP_DEFAULT, false, true, true, false),
+  FULL(NumericUtils.PRECISION_STEP_DEFAULT, true, true, true, true);
+
+  /* the precision step of ip_start and ip_end, MAX_VALUE for a single term */
+  public final int ipPrecisionStep;
+  /* true to index the octets ip_start_a to ip_end_d */
+  public final boolean octets;
+  /* true to index lat, lon and the tier fields */
+  public final boolean spatial;
+  /* true to index the string fields */
+  public final boolean indexedStrings;
+  /* true to analyze every string field with norms and term frequencies */
+  public final boolean fullText;
+
+  private IndexSchema(int ipPrecisionStep, boolean octets, boolean spatial, boolean indexedStrings, boolean fullText) {
+    this.ipPrecisionStep = ipPrecisionStep;
+    this.octets = octets;
+    this.spatial = spatial;
+    this.indexedStrings = indexedStrings;
+    this.fullText = fullText;
+  }
+}
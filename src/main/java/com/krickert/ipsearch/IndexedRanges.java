@@ -0,0 +1,176 @@
+package com.krickert.ipsearch;
+
+import java.io.IOException;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import org.apache.lucene.index.IndexReader;
+import org.apache.lucene.index.Term;
+import org.apache.lucene.search.FieldCache;
+import org.apache.lucene.util.NumericUtils;
+
+/**
+ * The ip ranges already in the index with the signature of their row, to diff
+ * a new release of the ipinfodb file against. Every row of the new file is
+ * looked up by its ip_start: a range with the same signature is left alone,
+ * any other is updated or added. The ranges no row looked up are gone from the
+ * new file and have to be deleted.
+ *
+ * The ranges are kept in two sorted arrays rather than a map, the index holds
+ * millions of them. Looking up is thread safe.
+ *
+ * @author krickert
+ *
+ */
+public class IndexedRanges {
+  static final String IP_START_FIELD = "ip_start";
+  static final String SIGNATURE_FIELD = "signature";
+
+  private final long[] starts;
+  private final long[] signatures;
+  /* one bit per range, set once a row looked it up */
+  private final AtomicLongArray seen;
+
+  private IndexedRanges(long[] starts, long[] signatures) {
+    this.starts = starts;
+    this.signatures = signatures;
+    this.seen = new AtomicLongArray((starts.length + 63) >>> 6);
+  }
+
+  /**
+   * Reads the ip_start and signature of every document of the index. A
+   * document indexed before rows had signatures gets 0, so its row counts as
+   * changed.
+   */
+  public static IndexedRanges load(IndexReader reader) throws IOException {
+    long[] docStarts = FieldCache.DEFAULT.getLongs(reader, IP_START_FIELD, FieldCache.NUMERIC_UTILS_LONG_PARSER);
+    long[] docSignatures = FieldCache.DEFAULT.getLongs(reader, SIGNATURE_FIELD, FieldCache.NUMERIC_UTILS_LONG_PARSER);
+    int count = reader.numDocs();
+    long[] starts = new long[count];
+    long[] signatures = new long[count];
+    int n = 0;
+    for (int doc = 0; doc < reader.maxDoc() && n < count; doc++) {
+      if (!reader.isDeleted(doc)) {
+        starts[n] = docStarts[doc];
+        signatures[n] = docSignatures[doc];
+        n++;
+      }
+    }
+    return of(starts, signatures);
+  }
+
+  /**
+   * @return the ranges, sorted by their start in place
+   */
+  static IndexedRanges of(long[] starts, long[] signatures) {
+    if (starts.length != signatures.length) {
+      throw new IllegalArgumentException(starts.length + " ranges but " + signatures.length + " signatures");
+    }
+    sort(starts, signatures, 0, starts.length - 1);
+    return new IndexedRanges(starts, signatures);
+  }
+
+  /**
+   * @return the term of the document of the range starting at the address,
+   *         the full precision term of the numeric ip_start field
+   */
+  public static Term term(long ipStart) {
+    return new Term(IP_START_FIELD, NumericUtils.longToPrefixCoded(ipStart));
+  }
+
+  public int size() {
+    return starts.length;
+  }
+
+  /**
+   * Looks up the range of a row and marks it as seen.
+   *
+   * @return true if the range is indexed with the same signature, so its
+   *         document doesn't need to be updated
+   */
+  public boolean unchanged(long ipStart, long signature) {
+    int range = find(ipStart);
+    if (range < 0) {
+      return false;
+    }
+    markSeen(range);
+    return signatures[range] == signature;
+  }
+
+  /**
+   * @return the ip_start of every range no row looked up, in order
+   */
+  public long[] unseen() {
+    int count = 0;
+    for (int i = 0; i < starts.length; i++) {
+      if (!isSeen(i)) {
+        count++;
+      }
+    }
+    long[] unseen = new long[count];
+    int n = 0;
+    for (int i = 0; i < starts.length; i++) {
+      if (!isSeen(i)) {
+        unseen[n++] = starts[i];
+      }
+    }
+    return unseen;
+  }
+
+  private int find(long ipStart) {
+    int range = Ranges.floor(starts, ipStart);
+    return range >= 0 && starts[range] == ipStart ? range : -1;
+  }
+
+  private void markSeen(int range) {
+    int word = range >>> 6;
+    long bit = 1l << range;
+    long bits;
+    do {
+      bits = seen.get(word);
+      if ((bits & bit) != 0) {
+        return;
+      }
+    } while (!seen.compareAndSet(word, bits, bits | bit));
+  }
+
+  private boolean isSeen(int range) {
+    return (seen.get(range >>> 6) & (1l << range)) != 0;
+  }
+
+  /* sorts the ranges by start, moving their signatures along */
+  private static void sort(long[] starts, long[] signatures, int low, int high) {
+    while (low < high) {
+      long pivot = starts[(low + high) >>> 1];
+      int i = low;
+      int j = high;
+      while (i <= j) {
+        while (starts[i] < pivot) {
+          i++;
+        }
+        while (starts[j] > pivot) {
+          j--;
+        }
+        if (i <= j) {
+          swap(starts, i, j);
+          swap(signatures, i, j);
+          i++;
+          j--;
+        }
+      }
+      // recurse into the smaller half, loop over the larger one
+      if (j - low < high - i) {
+        sort(starts, signatures, low, j);
+        low = i;
+      } else {
+        sort(starts, signatures, i, high);
+        high = j;
+      }
+    }
+  }
+
+  private static void swap(long[] values, int i, int j) {
+    long value = values[i];
+    values[i] = values[j];
+    values[j] = value;
+  }
+}
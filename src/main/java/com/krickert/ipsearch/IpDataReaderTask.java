@@ -2,38 +2,40 @@ package com.krickert.ipsearch;
 
 import static com.google.common.base.Preconditions.checkNotNull;
 
-import java.io.FileInputStream;
-import java.io.FileNotFoundException;
+import java.io.Flushable;
 import java.io.IOException;
-import java.io.InputStream;
-import java.io.InputStreamReader;
-import java.io.Reader;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.List;
 import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
-import java.util.zip.ZipEntry;
-import java.util.zip.ZipInputStream;
+import java.util.concurrent.Future;
 
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
-import org.supercsv.cellprocessor.Optional;
-import org.supercsv.cellprocessor.ParseDouble;
-import org.supercsv.cellprocessor.constraint.LMinMax;
-import org.supercsv.cellprocessor.constraint.StrMinMax;
-import org.supercsv.cellprocessor.ift.CellProcessor;
-import org.supercsv.io.CsvBeanReader;
-import org.supercsv.io.ICsvBeanReader;
+import org.supercsv.io.ByteTokenizer;
 import org.supercsv.prefs.CsvPreference;
 
+import com.krickert.concurrent.ClosableQueue;
+import com.krickert.ipsearch.city.IpInfoDbRowParser;
 import com.krickert.ipsearch.city.IpSearchCityBean;
+import com.krickert.ipsearch.city.IpSearchCityBeanPool;
+import com.krickert.ipsearch.city.SymbolTable;
 
 /**
  * This portion of the application will take in the indexer and start outputting
  * the data into a concurrent queue for processing by multiple threads into a
  * single index writer. <br>
  * This reader will read the data in a Zip format and use the SuperCSV api to
- * read the data "fast" and put it into a bean for reading <br>
+ * read the data "fast" and put it into a bean for reading. The rows are
+ * tokenized straight from the inflated bytes by a {@link ByteTokenizer}, and
+ * an {@link IpInfoDbRowParser} validates and converts every row in one pass
+ * over its byte slices, so no line Strings, char copies or boxed values are
+ * made for a row. <br>
  * The data is expected to be in the table_full format from the csv offered on
  * the website. As of the time of this writing this file is over 400 megabytes
  * long and has over 4047599 entries in them. This means an average of 103.6
@@ -53,7 +55,7 @@ import com.krickert.ipsearch.city.IpSearchCityBean;
  * 
  * <br>
  * You can find out minimums and maximums by looking at the data below and
- * matching it to the processor array. <br>
+ * matching it to {@link IpInfoDbRowParser#cellProcessors(SymbolTable)}. <br>
  * 
  * 
  * @author krickert
@@ -61,21 +63,20 @@ import com.krickert.ipsearch.city.IpSearchCityBean;
  */
 public class IpDataReaderTask {
   private static final Log log = LogFactory.getLog(IpDataReaderTask.class);
-  /* the processors were figured out by analyzing the data within */
-  private static final CellProcessor[] processors = { new LMinMax(0l, 4278190080l), new StrMinMax(2l, 2l),
-      new Optional(new StrMinMax(4l, 50l)), new StrMinMax(0l, 2l), new StrMinMax(0l, 50l), new StrMinMax(0l, 34l), new StrMinMax(0l, 6l),
-      new ParseDouble(), new ParseDouble(), null };
-
-  /*
-   * the column mapping file used to reflect between the processors above and
-   * the data in the file.
-   */
-  private static final String[] columnMapping = { "ipStart", "countryCode", "countryName", "regionCode", "regionName", "city", "zipCode",
-      "lat", "lon", "metroCode" };
+
+  private static final CsvPreference preference = CsvPreference.EXCEL_NORTH_EUROPE_PREFERENCE;
+  /* more chunks than threads so a slow chunk doesn't hold up the others */
+  private static final int CHUNKS_PER_THREAD = 4;
+  /* the last range of the file runs to the end of the address space */
+  private static final long MAX_IP = 0xffffffffl;
 
   public final String zipFileName;
   public final String fileInZip;
+  public final ZipEntrySource source;
   public final BlockingQueue<IpSearchCityBean> queue;
+  public final IpSearchCityBeanPool pool;
+  public final SymbolTable symbols;
+  public final int parallelism;
 
   /**
    * This is a thread that's meant to be run on a single queue and a single file
@@ -92,10 +93,110 @@ public class IpDataReaderTask {
    *          from the file off to
    */
   public IpDataReaderTask(String zipFileName, String fileInZip, BlockingQueue<IpSearchCityBean> queue) {
+    this(zipFileName, fileInZip, queue, new IpSearchCityBeanPool(0));
+  }
+
+  /**
+   * Same as above, but the beans sent to the queue are taken from a pool so the
+   * consumer can hand them back for reuse once it is done with them.
+   * 
+   * @param pool
+   *          the pool the beans are acquired from
+   */
+  public IpDataReaderTask(String zipFileName, String fileInZip, BlockingQueue<IpSearchCityBean> queue, IpSearchCityBeanPool pool) {
+    this(zipFileName, fileInZip, queue, pool, new SymbolTable());
+  }
+
+  /**
+   * Same as above, interning the string columns into a symbol table that can
+   * be shared with the later stages.
+   * 
+   * @param symbols
+   *          the table holding the canonical instance of every string value
+   */
+  public IpDataReaderTask(String zipFileName, String fileInZip, BlockingQueue<IpSearchCityBean> queue, IpSearchCityBeanPool pool,
+      SymbolTable symbols) {
+    this(zipFileName, fileInZip, queue, pool, symbols, 1);
+  }
+
+  /**
+   * Same as above, parsing the file on several threads.
+   * 
+   * @param parallelism
+   *          the number of threads parsing the file. With more than one thread
+   *          the whole file is mapped or inflated into memory first and the
+   *          rows reach the queue out of order
+   */
+  public IpDataReaderTask(String zipFileName, String fileInZip, BlockingQueue<IpSearchCityBean> queue, IpSearchCityBeanPool pool,
+      SymbolTable symbols, int parallelism) {
+    this(new ZipEntrySource(zipFileName, fileInZip), queue, pool, symbols, parallelism);
+  }
+
+  /**
+   * Same as above, reading the csv file through a source that decides how the
+   * zip entry is inflated.
+   * 
+   * @param source
+   *          the csv file in the zip
+   */
+  public IpDataReaderTask(ZipEntrySource source, BlockingQueue<IpSearchCityBean> queue, IpSearchCityBeanPool pool, SymbolTable symbols,
+      int parallelism) {
     super();
-    this.zipFileName = checkNotNull(zipFileName);
-    this.fileInZip = checkNotNull(fileInZip);
+    if (parallelism < 1) {
+      throw new IllegalArgumentException("parallelism must be at least 1, is " + parallelism);
+    }
+    this.parallelism = parallelism;
+    this.source = checkNotNull(source);
+    this.zipFileName = source.zipFileName;
+    this.fileInZip = source.fileInZip;
     this.queue = checkNotNull(queue);
+    this.pool = checkNotNull(pool);
+    this.symbols = checkNotNull(symbols);
+  }
+
+  /**
+   * @return the position after the next line terminator at or after start, or
+   *         end if there is none
+   */
+  static int nextLine(ByteBuffer data, int start, int end) {
+    for (int i = start; i < end; i++) {
+      if (data.get(i) == '\n') {
+        return i + 1;
+      }
+    }
+    return end;
+  }
+
+  /**
+   * Splits the data between start and end into about <code>chunks</code>
+   * pieces of the same size, each ending after a line terminator. The ip data
+   * has no quoted line breaks, so a line always is a whole row.
+   * 
+   * @return the boundaries, chunk i going from bounds[i] to bounds[i+1]
+   */
+  static int[] chunkBounds(ByteBuffer data, int start, int end, int chunks) {
+    int[] bounds = new int[chunks + 1];
+    int count = 0;
+    bounds[count++] = start;
+    long size = end - start;
+    for (int i = 1; i < chunks; i++) {
+      int bound = nextLine(data, Math.max(start + (int) (size * i / chunks), bounds[count - 1]), end);
+      if (bound > bounds[count - 1] && bound < end) {
+        bounds[count++] = bound;
+      }
+    }
+    bounds[count++] = end;
+    return Arrays.copyOf(bounds, count);
+  }
+
+  /**
+   * @return a view of the data from start to end, shared by the tokenizers of
+   *         several threads without touching each other's position
+   */
+  static ByteBuffer slice(ByteBuffer data, int start, int end) {
+    ByteBuffer slice = data.duplicate();
+    slice.limit(end).position(start);
+    return slice;
   }
 
   public ExecutorService fireAndForget() {
@@ -111,10 +212,33 @@ public class IpDataReaderTask {
     return queue;
   }
 
+  /**
+   * The rows parsed from one run of the file. Every row but the last one was
+   * queued already, the last one waits for the first ip address of the rows
+   * after it to know its ipEnd.
+   */
+  private static class ParsedRows {
+    long firstIpStart = -1l;
+    IpSearchCityBean last = null;
+    int count = 0;
+  }
+
   private class IpDataReaderThread implements Runnable {
     @Override
     public void run() {
-      this.queueIpEntries();
+      try {
+        if (parallelism > 1) {
+          this.queueIpEntriesInParallel();
+        } else {
+          this.queueIpEntries();
+        }
+      } catch (RuntimeException e) {
+        failQueue(e);
+        throw e;
+      } catch (Error e) {
+        failQueue(e);
+        throw e;
+      }
     }
 
     /**
@@ -123,41 +247,30 @@ public class IpDataReaderTask {
      * threads.
      */
     public void queueIpEntries() {
-      InputStream fileStream = null;
-
-      fileStream = getZipFile(fileStream);
-
-      ZipInputStream zip = findFileInZip(fileStream);
-      Reader fr = null;
-      ICsvBeanReader inFile = null;
-      IpSearchCityBean previousRow = null;
-      IpSearchCityBean currentRow;
+      IpInfoDbRowParser inFile = null;
 
       try {
-        fr = new InputStreamReader(zip);
-        inFile = new CsvBeanReader(fr, CsvPreference.EXCEL_NORTH_EUROPE_PREFERENCE);
+        ByteTokenizer tokenizer;
+        if (source.isMapped()) {
+          tokenizer = new ByteTokenizer(source.map(), preference);
+        } else {
+          tokenizer = new ByteTokenizer(source.openStream(), preference);
+        }
+        inFile = new IpInfoDbRowParser(tokenizer, symbols);
 
-        final String[] header = inFile.getCSVHeader(true);
+        final String[] header = inFile.readHeader();
         log.info("The following header was parsed: " + Arrays.toString(header));
 
-        int counter = 0;
-        while ((currentRow = inFile.read(IpSearchCityBean.class, columnMapping, processors)) != null) {
-          if (counter++ % 50000 == 0 && counter > 0) {
-            log.info((counter - 1) + " number of records parsed.");
-          }
-          if (previousRow != null) {
-            previousRow.setIpEnd(currentRow.getIpStart().longValue() - 1l);
-            queue.put(previousRow);
-          }
-          previousRow = currentRow;// KEANU REEVES: Woahhhh
-        }
-        previousRow.setIpEnd(256l ^ 4l);
-        queue.add(previousRow);
+        ParsedRows rows = readRows(inFile, "");
+        log.info(rows.count + " records parsed with " + symbols.size() + " distinct string values.");
+        queueLast(rows.last, MAX_IP);
+        endQueue();
       } catch (IOException e) {
         throw new IllegalStateException("The zip file opened but an IO exception was thrown while reading the zip file.", e);
       } catch (InterruptedException e) {
         // from the queue offering
         log.error("queue offering interrupted.", e);
+        failQueue(e);
       } finally {
         if (inFile != null) {
           try {
@@ -165,49 +278,164 @@ public class IpDataReaderTask {
           } catch (IOException e) {
             log.fatal(e);
           }
-        }// infile null end
-        if (fr != null) {
-          try {
-            fr.close();
-          } catch (IOException e) {
-            log.warn("failed to close file reader from zip file.", e);
-          }
         }
       }
       log.info("\n*******************\n** IpData all in queue.  Terminating process\n**\n******************");
 
     }
 
-    private ZipInputStream findFileInZip(InputStream fileStream) {
-      ZipInputStream zip = new ZipInputStream(fileStream);
+    /**
+     * Same as {@link #queueIpEntries()}, but the whole file is mapped or
+     * inflated into memory and split into line aligned chunks that are parsed on
+     * <code>parallelism</code> threads. Only the last row of every chunk needs
+     * the next chunk to know its ipEnd, those are stitched once all the chunks
+     * are parsed. The rows reach the queue in no particular order.
+     */
+    public void queueIpEntriesInParallel() {
+      ByteBuffer data;
+      try {
+        data = source.map();
+      } catch (IOException e) {
+        throw new IllegalStateException("The zip file opened but an IO exception was thrown while reading the zip file.", e);
+      }
+
+      ExecutorService executor = Executors.newFixedThreadPool(parallelism);
       try {
-        boolean searchingForFile = true;
-        while (searchingForFile) {
-          ZipEntry entry = zip.getNextEntry();
-          if (entry == null) {
-            log.error("The zip file is valid but does not match the ${ipsearch.fileinzip} entry from the project.properties file");
-            zip.close();
-            throw new IllegalArgumentException("Couldn't find file " + fileInZip + " in zip archive " + zipFileName);
-          } else if (entry.getName().equals(fileInZip)) {
-            searchingForFile = false;
+        int headerEnd = nextLine(data, data.position(), data.limit());
+        IpInfoDbRowParser headerReader = new IpInfoDbRowParser(new ByteTokenizer(slice(data, data.position(), headerEnd), preference),
+            symbols);
+        log.info("The following header was parsed: " + Arrays.toString(headerReader.readHeader()));
+
+        int[] bounds = chunkBounds(data, headerEnd, data.limit(), parallelism * CHUNKS_PER_THREAD);
+        List<Future<ParsedRows>> chunks = new ArrayList<Future<ParsedRows>>(bounds.length - 1);
+        for (int i = 0; i < bounds.length - 1; i++) {
+          chunks.add(executor.submit(new ChunkParser(data, bounds[i], bounds[i + 1], "chunk " + i + ": ")));
+        }
+
+        // stitch the last row of each chunk to the first row of the next
+        // chunk that has rows
+        int count = 0;
+        IpSearchCityBean pending = null;
+        for (Future<ParsedRows> chunk : chunks) {
+          ParsedRows rows = chunk.get();
+          if (rows.count > 0) {
+            queueLast(pending, rows.firstIpStart - 1l);
+            pending = rows.last;
+            count += rows.count;
           }
         }
+        queueLast(pending, MAX_IP);
+        endQueue();
+        log.info(count + " records parsed in " + chunks.size() + " chunks with " + symbols.size() + " distinct string values.");
       } catch (IOException e) {
-        log.fatal("zip file appears to be empty.", e);
-        throw new IllegalArgumentException("problem opening up the zip file");
+        throw new IllegalStateException("An IO exception was thrown while parsing the inflated file.", e);
+      } catch (ExecutionException e) {
+        throw new IllegalStateException("Parsing a chunk of the file failed.", e.getCause());
+      } catch (InterruptedException e) {
+        log.error("queue offering interrupted.", e);
+        failQueue(e);
+      } finally {
+        executor.shutdownNow();
       }
-      return zip;
+      log.info("\n*******************\n** IpData all in queue.  Terminating process\n**\n******************");
     }
 
-    private InputStream getZipFile(InputStream fileStream) {
-      try {
-        fileStream = new FileInputStream(zipFileName);
-      } catch (FileNotFoundException e) {
-        log.fatal("The file we were supposed to download does not exist: [" + zipFileName + "]", e);
-        throw new IllegalStateException("File check occurred after downloading/starting application and is no longer there.", e);
+    /**
+     * Parses the rows of one chunk of the inflated file.
+     */
+    private class ChunkParser implements Callable<ParsedRows> {
+      private final ByteBuffer data;
+      private final int start;
+      private final int end;
+      private final String name;
+
+      ChunkParser(ByteBuffer data, int start, int end, String name) {
+        this.data = data;
+        this.start = start;
+        this.end = end;
+        this.name = name;
+      }
+
+      @Override
+      public ParsedRows call() throws IOException, InterruptedException {
+        IpInfoDbRowParser inFile = new IpInfoDbRowParser(new ByteTokenizer(slice(data, start, end), preference), symbols);
+        try {
+          ParsedRows rows = readRows(inFile, name);
+          flushQueue();
+          return rows;
+        } finally {
+          inFile.close();
+        }
       }
-      return fileStream;
     }
 
+    /**
+     * Reads all the rows, sending every row to the queue once the row after it
+     * gave it its ipEnd.
+     * 
+     * @return the rows read, the last row is not queued
+     */
+    private ParsedRows readRows(IpInfoDbRowParser inFile, String name) throws IOException, InterruptedException {
+      ParsedRows rows = new ParsedRows();
+      IpSearchCityBean previousRow = null;
+      IpSearchCityBean currentRow;
+      IpSearchCityBean nextRow = pool.acquire();
+      while ((currentRow = inFile.readInto(nextRow)) != null) {
+        if (rows.count++ % 50000 == 0 && rows.count > 0) {
+          log.info(name + (rows.count - 1) + " number of records parsed.");
+        }
+        if (previousRow != null) {
+          previousRow.setIpEnd(currentRow.ipStart() - 1l);
+          queue.put(previousRow);
+        } else {
+          rows.firstIpStart = currentRow.ipStart();
+        }
+        previousRow = currentRow;// KEANU REEVES: Woahhhh
+        nextRow = pool.acquire();
+      }
+      // the bean acquired for the line after the last one was never filled
+      pool.release(nextRow);
+      rows.last = previousRow;
+      return rows;
+    }
+
+    /**
+     * Hands over the rows a batching queue holds back for the calling thread.
+     */
+    private void flushQueue() throws IOException {
+      if (queue instanceof Flushable) {
+        ((Flushable) queue).flush();
+      }
+    }
+
+    /**
+     * Flushes the rows of the calling thread and, with a {@link ClosableQueue},
+     * tells the indexer no more rows are coming.
+     */
+    private void endQueue() throws IOException, InterruptedException {
+      flushQueue();
+      if (queue instanceof ClosableQueue) {
+        ((ClosableQueue<IpSearchCityBean>) queue).close();
+      }
+    }
+
+    /**
+     * Tells the indexer the rows will never be complete, so it stops instead of
+     * waiting for the end of the queue.
+     */
+    private void failQueue(Throwable cause) {
+      if (queue instanceof ClosableQueue) {
+        ((ClosableQueue<IpSearchCityBean>) queue).fail(cause);
+      }
+    }
+
+    private void queueLast(IpSearchCityBean row, long ipEnd) throws InterruptedException {
+      if (row != null) {
+        row.setIpEnd(ipEnd);
+        queue.put(row);
+      }
+    }
+
+
   }
 }
\ No newline at end of file
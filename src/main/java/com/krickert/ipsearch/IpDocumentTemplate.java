@@ -0,0 +1,275 @@
+package com.krickert.ipsearch;
+
+import org.apache.lucene.document.Document;
+import org.apache.lucene.document.Field;
+import org.apache.lucene.document.NumericField;
+import org.apache.lucene.util.NumericUtils;
+
+import com.krickert.ipsearch.city.IpSearchCityBean;
+
+/**
+ * One document with all the fields of an ip range, filled again for every
+ * bean instead of building a new document. The fields and their token streams
+ * are made once, filling only resets their values. A template is not thread
+ * safe, every thread adding documents uses one of its own. Which fields the
+ * document has and how they are indexed depends on its {@link IndexSchema}.
+ *
+ * The lat, lon and tier fields are only set again when the location changes,
+ * which the rows sorted by ip address rarely do from one row to the next, and
+ * their values come from the {@link TierEncoder} of the template. An empty
+ * string field is taken out of the document and put back once a later bean
+ * has a value for it.
+ *
+ * With a {@link LocationStoreWriter} the values of the location aren't stored
+ * in the document, only the id the writer gives the location. The fields are
+ * indexed as the schema says, and left out if the schema doesn't index them.
+ *
+ * @author krickert
+ *
+ */
+class IpDocumentTemplate {
+  static final String latField = "lat";
+  static final String lngField = "lon";
+
+  private static final String[] stringFields = { "city", "zip_code", "country_code", "country_name", "metro_code", "region_code",
+      "region_name" };
+  /* the string fields holding codes rather than names, a single term each */
+  private static final boolean[] codeFields = { false, true, true, false, true, true, false };
+
+  private final Document doc = new Document();
+  private final IndexSchema schema;
+  private final NumericField ipStart;
+  private final NumericField ipEnd;
+  /* the signature of the row, a single term to diff a new release against, null if not indexed */
+  private final NumericField signature;
+  private final NumericField[] ipStartOctets;
+  private final NumericField[] ipEndOctets;
+  private final Field lat;
+  private final Field lon;
+  private final TierEncoder encoder;
+  private final LocationStoreWriter store;
+  private final NumericField locationId;
+  /* the location of the last bean, compared by identity since the values are interned */
+  private final String[] lastValues = new String[stringFields.length];
+  private int lastLocationId = -1;
+  private double lastLocationLat;
+  private double lastLocationLon;
+  private final Field[] tiers;
+  private final Field[] strings = new Field[stringFields.length];
+  /* true if the string field is in the document */
+  private final boolean[] present = new boolean[stringFields.length];
+  private double lastLat = Double.NaN;
+  private double lastLon = Double.NaN;
+
+  /**
+   * @param schema
+   *          the fields of the document
+   * @param encoder
+   *          the encoder of the tier range, used by this template only
+   * @param store
+   *          the store of the locations, null to store them in the document
+   * @param signatures
+   *          true to index the signature of every row, which an incremental
+   *          refresh diffs the new rows against. It costs a distinct term
+   *          per document, which an index never refreshed doesn't need
+   */
+  IpDocumentTemplate(IndexSchema schema, TierEncoder encoder, LocationStoreWriter store, boolean signatures) {
+    this.schema = schema;
+    this.encoder = encoder;
+    this.store = store;
+    Field.Store stored = store == null ? Field.Store.YES : Field.Store.NO;
+    ipStart = new NumericField("ip_start", schema.ipPrecisionStep, Field.Store.YES, true);
+    ipEnd = new NumericField("ip_end", schema.ipPrecisionStep, Field.Store.YES, true);
+    doc.add(ipStart);
+    doc.add(ipEnd);
+    if (signatures) {
+      signature = new NumericField(IndexedRanges.SIGNATURE_FIELD, Integer.MAX_VALUE, Field.Store.NO, true);
+      doc.add(signature);
+    } else {
+      signature = null;
+    }
+    if (store != null) {
+      locationId = new NumericField("location_id", Integer.MAX_VALUE, Field.Store.YES, true);
+      doc.add(locationId);
+    } else {
+      locationId = null;
+    }
+    if (schema.octets) {
+      ipStartOctets = octetFields("ip_start_");
+      ipEndOctets = octetFields("ip_end_");
+    } else {
+      ipStartOctets = null;
+      ipEndOctets = null;
+    }
+    if (schema.spatial || store == null) {
+      Field.Index spatialIndex = schema.spatial ? Field.Index.NOT_ANALYZED : Field.Index.NO;
+      lat = new Field(latField, "", stored, spatialIndex);
+      lon = new Field(lngField, "", stored, spatialIndex);
+      doc.add(lat);
+      doc.add(lon);
+    } else {
+      lat = null;
+      lon = null;
+    }
+    String[] tierFields = schema.spatial ? encoder.getFieldNames() : new String[0];
+    tiers = new Field[tierFields.length];
+    for (int i = 0; i < tiers.length; i++) {
+      tiers[i] = new Field(tierFields[i], "", stored, Field.Index.NOT_ANALYZED_NO_NORMS);
+      doc.add(tiers[i]);
+    }
+    if (schema.indexedStrings || store == null) {
+      for (int i = 0; i < stringFields.length; i++) {
+        strings[i] = new Field(stringFields[i], "", stored, stringIndex(schema, i));
+        if (schema.indexedStrings && !schema.fullText) {
+          strings[i].setOmitTermFreqAndPositions(true);
+        }
+      }
+    }
+  }
+
+  /**
+   * Same as above, indexing the signatures.
+   */
+  IpDocumentTemplate(IndexSchema schema, TierEncoder encoder, LocationStoreWriter store) {
+    this(schema, encoder, store, true);
+  }
+
+  /**
+   * Same as above, storing the locations in the document.
+   */
+  IpDocumentTemplate(IndexSchema schema, TierEncoder encoder) {
+    this(schema, encoder, null);
+  }
+
+  /**
+   * Same as above, with the full schema and the tiers 5 to 15.
+   */
+  IpDocumentTemplate() {
+    this(IndexSchema.FULL, new TierEncoder());
+  }
+
+  private static Field.Index stringIndex(IndexSchema schema, int field) {
+    if (!schema.indexedStrings) {
+      return Field.Index.NO;
+    } else if (schema.fullText) {
+      return Field.Index.ANALYZED;
+    } else if (codeFields[field]) {
+      return Field.Index.NOT_ANALYZED_NO_NORMS;
+    } else {
+      return Field.Index.ANALYZED_NO_NORMS;
+    }
+  }
+
+  /* the fields of the octets a, b, c and d of an address */
+  private NumericField[] octetFields(String prefix) {
+    NumericField[] octets = new NumericField[4];
+    for (int i = 0; i < 4; i++) {
+      octets[i] = new NumericField(prefix + (char) ('a' + i), Field.Store.NO, true);
+      doc.add(octets[i]);
+    }
+    return octets;
+  }
+
+  /**
+   * @return the document holding the values of the bean, valid until the next
+   *         call
+   */
+  Document fill(IpSearchCityBean bean) {
+    ipStart.setLongValue(bean.ipStart());
+    ipEnd.setLongValue(bean.ipEnd());
+    if (signature != null) {
+      signature.setLongValue(bean.signature());
+    }
+    if (schema.octets) {
+      setOctets(ipStartOctets, bean.ipStart());
+      setOctets(ipEndOctets, bean.ipEnd());
+    }
+    if (store != null) {
+      locationId.setIntValue(locationId(bean));
+    }
+    if (lat != null && (bean.lat() != lastLat || bean.lon() != lastLon)) {
+      if (schema.spatial) {
+        TierEncoder.Location location = encoder.encode(bean.lat(), bean.lon());
+        lat.setValue(location.latCode);
+        lon.setValue(location.lonCode);
+        for (int i = 0; i < tiers.length; i++) {
+          tiers[i].setValue(location.tierCodes[i]);
+        }
+      } else {
+        lat.setValue(NumericUtils.doubleToPrefixCoded(bean.lat()));
+        lon.setValue(NumericUtils.doubleToPrefixCoded(bean.lon()));
+      }
+      lastLat = bean.lat();
+      lastLon = bean.lon();
+    }
+    // some of these fields have a chance of being null
+    if (strings[0] != null) {
+      for (int i = 0; i < strings.length; i++) {
+        setString(i, stringValue(bean, i));
+      }
+    }
+    return doc;
+  }
+
+  /* the id of the location of the bean, asking the store only when it changed */
+  private int locationId(IpSearchCityBean bean) {
+    boolean same = lastLocationId >= 0 && bean.lat() == lastLocationLat && bean.lon() == lastLocationLon;
+    for (int i = 0; same && i < lastValues.length; i++) {
+      same = lastValues[i] == stringValue(bean, i);
+    }
+    if (!same) {
+      lastLocationId = store.locationId(bean);
+      for (int i = 0; i < lastValues.length; i++) {
+        lastValues[i] = stringValue(bean, i);
+      }
+      lastLocationLat = bean.lat();
+      lastLocationLon = bean.lon();
+    }
+    return lastLocationId;
+  }
+
+  private static void setOctets(NumericField[] octets, long ip) {
+    octets[0].setLongValue((ip / 16777216l) % 256);
+    octets[1].setLongValue((ip / 65536) % 256);
+    octets[2].setLongValue((ip / 256) % 256);
+    octets[3].setLongValue(ip % 256);
+  }
+
+  private static String stringValue(IpSearchCityBean bean, int field) {
+    switch (field) {
+    case 0:
+      return bean.getCity();
+    case 1:
+      return bean.getZipCode();
+    case 2:
+      return bean.getCountryCode();
+    case 3:
+      return bean.getCountryName();
+    case 4:
+      return bean.getMetroCode();
+    case 5:
+      return bean.getRegionCode();
+    default:
+      return bean.getRegionName();
+    }
+  }
+
+  private void setString(int field, String value) {
+    if (emptyString(value)) {
+      if (present[field]) {
+        doc.removeField(stringFields[field]);
+        present[field] = false;
+      }
+    } else {
+      strings[field].setValue(value);
+      if (!present[field]) {
+        doc.add(strings[field]);
+        present[field] = true;
+      }
+    }
+  }
+
+  private static boolean emptyString(String string) {
+    return string == null || string.trim().length() == 0;
+  }
+}
@@ -0,0 +1,270 @@
+package com.krickert.ipsearch;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.apache.lucene.document.Document;
+import org.apache.lucene.index.IndexReader;
+import org.apache.lucene.index.Term;
+import org.apache.lucene.index.TermDocs;
+import org.apache.lucene.index.TermEnum;
+import org.apache.lucene.store.Directory;
+import org.apache.lucene.store.FSDirectory;
+import org.apache.lucene.util.NumericUtils;
+
+import com.krickert.ipsearch.city.IpSearchCityBean;
+import com.krickert.lucene.IndexVersions;
+import com.krickert.lucene.IndexWriterManager;
+
+/**
+ * Finds the ip range of an IPv4 address in the built index and returns its
+ * values as an {@link IpSearchCityBean}.
+ *
+ * The ranges don't overlap, so the range of an address is the one with the
+ * greatest ip_start not above it. When opened the locator walks the full
+ * precision ip_start terms of the index, which come sorted, into an array of
+ * starts and the document of each. A lookup is then a single binary search
+ * for ip_start <= address, a check against the ip_end of that range and a read
+ * of the stored fields of its document, or of its location in the
+ * {@link LocationStore} if the index has one.
+ *
+ * A locator is thread safe: the arrays never change once it's open and every
+ * lookup shares the same read only reader, so one locator should serve the
+ * whole JVM.
+ *
+ * @author krickert
+ *
+ */
+public class IpLocator implements Locator, Closeable {
+  private static final Log log = LogFactory.getLog(IpLocator.class);
+  private static final long MAX_IP = 0xffffffffl;
+
+  private final IndexReader reader;
+  private final LocationStore store;
+  /* the start, end and document of every range, sorted by start */
+  private final long[] starts;
+  private final long[] ends;
+  private final int[] docs;
+
+  /**
+   * @param directory
+   *          the directory of the index
+   * @param store
+   *          the store of the locations of the index, null if the documents
+   *          store them
+   */
+  public IpLocator(Directory directory, LocationStore store) throws IOException {
+    this(IndexReader.open(checkNotNull(directory), true), store);
+  }
+
+  /**
+   * Same as above, over a reader the locator closes once closed itself.
+   */
+  public IpLocator(IndexReader reader, LocationStore store) throws IOException {
+    this.reader = checkNotNull(reader);
+    this.store = store;
+    int[] docsByStart = new int[reader.numDocs()];
+    long[] sortedStarts = new long[docsByStart.length];
+    int count = readTerms(IndexedRanges.IP_START_FIELD, sortedStarts, docsByStart);
+    long[] endByDoc = new long[reader.maxDoc()];
+    int[] endDocs = new int[reader.numDocs()];
+    long[] endValues = new long[endDocs.length];
+    int endCount = readTerms("ip_end", endValues, endDocs);
+    for (int i = 0; i < endCount; i++) {
+      endByDoc[endDocs[i]] = endValues[i];
+    }
+    this.starts = Arrays.copyOf(sortedStarts, count);
+    this.docs = Arrays.copyOf(docsByStart, count);
+    this.ends = new long[count];
+    for (int i = 0; i < count; i++) {
+      ends[i] = endByDoc[docs[i]];
+    }
+    log.info("Opened a locator of " + count + " ranges");
+  }
+
+  /**
+   * Opens the published version of the index in the root directory, or the
+   * index in the root itself if no version was published, with its location
+   * store and the shards left unmerged in it if there are.
+   */
+  public static IpLocator open(File indexRoot) throws IOException {
+    File dir = new IndexVersions(indexRoot, 1).current();
+    if (dir == null) {
+      dir = indexRoot;
+    }
+    File storeFile = new File(dir, LocationStore.FILE_NAME);
+    LocationStore store = storeFile.isFile() ? new LocationStore(storeFile) : null;
+    return new IpLocator(IndexWriterManager.openReader(FSDirectory.open(dir), dir), store);
+  }
+
+  /**
+   * Reads the full precision terms of a numeric long field with the document
+   * of each, in the order of the terms which is the order of the values.
+   *
+   * @return the number of values read
+   */
+  private int readTerms(String field, long[] values, int[] valueDocs) throws IOException {
+    int count = 0;
+    TermEnum terms = reader.terms(new Term(field, ""));
+    TermDocs termDocs = reader.termDocs();
+    try {
+      do {
+        Term term = terms.term();
+        // the terms of the lower precisions follow the full precision ones
+        if (term == null || !term.field().equals(field) || term.text().length() == 0
+            || term.text().charAt(0) != NumericUtils.SHIFT_START_LONG) {
+          break;
+        }
+        long value = NumericUtils.prefixCodedToLong(term.text());
+        termDocs.seek(term);
+        while (termDocs.next() && count < values.length) {
+          values[count] = value;
+          valueDocs[count] = termDocs.doc();
+          count++;
+        }
+      } while (terms.next());
+    } finally {
+      termDocs.close();
+      terms.close();
+    }
+    return count;
+  }
+
+  /**
+   * @return the number of ranges
+   */
+  public int size() {
+    return starts.length;
+  }
+
+  /**
+   * @param address
+   *          a dotted quad IPv4 address like 209.254.26.152
+   * @return the range of the address, null if no range holds it
+   * @throws IllegalArgumentException
+   *           if the address isn't a dotted quad
+   */
+  public IpSearchCityBean locate(String address) throws IOException {
+    return locate(toLong(address));
+  }
+
+  /**
+   * @param ip
+   *          an IPv4 address as a number, the way ipinfodb writes it
+   * @return the range of the address, null if no range holds it
+   */
+  @Override
+  public IpSearchCityBean locate(long ip) throws IOException {
+    int range = find(ip);
+    if (range < 0) {
+      return null;
+    }
+    return bean(docs[range]);
+  }
+
+  /**
+   * @return the range of a document of the index, its values taken from the
+   *         location store if the index has one
+   */
+  IpSearchCityBean bean(int docId) throws IOException {
+    Document doc = reader.document(docId);
+    IpSearchCityBean bean = new IpSearchCityBean();
+    bean.setIpStart(Long.parseLong(doc.get(IndexedRanges.IP_START_FIELD)));
+    bean.setIpEnd(Long.parseLong(doc.get("ip_end")));
+    String locationId = doc.get("location_id");
+    if (store != null && locationId != null) {
+      LocationStore.Location location = store.get(Integer.parseInt(locationId));
+      bean.setCity(location.getCity());
+      bean.setZipCode(location.getZipCode());
+      bean.setCountryCode(location.getCountryCode());
+      bean.setCountryName(location.getCountryName());
+      bean.setMetroCode(location.getMetroCode());
+      bean.setRegionCode(location.getRegionCode());
+      bean.setRegionName(location.getRegionName());
+      bean.setLat(location.lat);
+      bean.setLon(location.lon);
+    } else {
+      bean.setCity(doc.get("city"));
+      bean.setZipCode(doc.get("zip_code"));
+      bean.setCountryCode(doc.get("country_code"));
+      bean.setCountryName(doc.get("country_name"));
+      bean.setMetroCode(doc.get("metro_code"));
+      bean.setRegionCode(doc.get("region_code"));
+      bean.setRegionName(doc.get("region_name"));
+      // a minimal index keeps no coordinates
+      String lat = doc.get(IpDocumentTemplate.latField);
+      String lon = doc.get(IpDocumentTemplate.lngField);
+      if (lat != null && lon != null) {
+        bean.setLat(NumericUtils.prefixCodedToDouble(lat));
+        bean.setLon(NumericUtils.prefixCodedToDouble(lon));
+      }
+    }
+    return bean;
+  }
+
+  /**
+   * @return the reader every lookup shares
+   */
+  IndexReader getReader() {
+    return reader;
+  }
+
+  /**
+   * @return the range with the greatest start not above the address if the
+   *         address is within it, -1 otherwise
+   */
+  private int find(long ip) {
+    int range = Ranges.floor(starts, ip);
+    return range >= 0 && ip <= ends[range] ? range : -1;
+  }
+
+  /**
+   * @return the address as a number, the way ipinfodb writes it
+   * @throws IllegalArgumentException
+   *           if the address isn't a dotted quad
+   */
+  public static long toLong(String address) {
+    long ip = 0;
+    int octets = 0;
+    int octet = -1;
+    for (int i = 0; i <= address.length(); i++) {
+      char c = i < address.length() ? address.charAt(i) : '.';
+      if (c == '.') {
+        if (octet < 0 || ++octets > 4) {
+          throw new IllegalArgumentException("not a dotted quad IPv4 address: " + address);
+        }
+        ip = (ip << 8) | octet;
+        octet = -1;
+      } else if (c >= '0' && c <= '9') {
+        octet = (octet < 0 ? 0 : octet * 10) + (c - '0');
+        if (octet > 255) {
+          throw new IllegalArgumentException("not a dotted quad IPv4 address: " + address);
+        }
+      } else {
+        throw new IllegalArgumentException("not a dotted quad IPv4 address: " + address);
+      }
+    }
+    if (octets != 4 || ip > MAX_IP) {
+      throw new IllegalArgumentException("not a dotted quad IPv4 address: " + address);
+    }
+    return ip;
+  }
+
+  /**
+   * @return the dotted quad of an address
+   */
+  public static String toDottedQuad(long ip) {
+    return ((ip >>> 24) & 0xff) + "." + ((ip >>> 16) & 0xff) + "." + ((ip >>> 8) & 0xff) + "." + (ip & 0xff);
+  }
+
+  @Override
+  public void close() throws IOException {
+    reader.close();
+  }
+}
@@ -0,0 +1,243 @@
+package com.krickert.ipsearch;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+
+import com.krickert.io.Files;
+import com.krickert.ipsearch.city.IpSearchCityBean;
+import com.krickert.lucene.IndexVersions;
+
+/**
+ * The ranges of the index and their locations in one memory mapped file, the
+ * .ipdb the indexer writes next to the index. Opening it maps the file and
+ * reads the header, nothing else: every lookup reads the mapping, so the data
+ * stays in the page cache instead of the heap and every JVM of the host maps
+ * the same physical copy.
+ *
+ * <pre>
+ * header   int magic, format, range count, location count, string count, block size, longest string, unused
+ *          long offset of the ranges, the locations, the block index and the strings
+ * ranges   sorted by start: int start, int end (both unsigned), int location id
+ * location 7 string ids (-1 for none), lat and lon as doubles
+ * blocks   int offset of every block of strings from the start of the strings
+ * strings  sorted, front coded in blocks: the first string of a block as a
+ *          vint length and its bytes, every other one as the vint length of
+ *          the prefix it shares with the one before, the vint length of the
+ *          rest and the bytes of the rest, all UTF-8
+ * </pre>
+ *
+ * The columns of a location are in the order of {@link LocationStore#COLUMNS}.
+ * A file is thread safe once opened.
+ *
+ * @author krickert
+ *
+ */
+public class IpdbFile implements Locator {
+  public static final String FILE_NAME = "ranges.ipdb";
+
+  static final int MAGIC = 0x49504442;
+  static final int FORMAT = 1;
+  static final int HEADER_SIZE = 64;
+  static final int RANGE_SIZE = 12;
+  static final int LOCATION_SIZE = LocationStore.COLUMNS.length * 4 + 16;
+  static final int BLOCK_SIZE = 16;
+
+  private final MappedByteBuffer buffer;
+  private final int size;
+  private final int locationCount;
+  private final int stringCount;
+  private final int blockSize;
+  private final int maxLength;
+  private final int rangesOffset;
+  private final int locationsOffset;
+  private final int blockIndexOffset;
+  private final int stringsOffset;
+
+  /**
+   * Maps the file.
+   *
+   * @throws IOException
+   *           if the file can't be read or isn't an ipdb file
+   */
+  public IpdbFile(File file) throws IOException {
+    buffer = Files.map(file);
+    if (buffer.capacity() < HEADER_SIZE || buffer.getInt(0) != MAGIC) {
+      throw new IOException(file + " is not an ipdb file");
+    }
+    if (buffer.getInt(4) != FORMAT) {
+      throw new IOException(file + " has the unknown format " + buffer.getInt(4));
+    }
+    size = buffer.getInt(8);
+    locationCount = buffer.getInt(12);
+    stringCount = buffer.getInt(16);
+    blockSize = buffer.getInt(20);
+    maxLength = buffer.getInt(24);
+    rangesOffset = (int) buffer.getLong(32);
+    locationsOffset = (int) buffer.getLong(40);
+    blockIndexOffset = (int) buffer.getLong(48);
+    stringsOffset = (int) buffer.getLong(56);
+    if (locationsOffset != rangesOffset + (long) size * RANGE_SIZE || stringsOffset > buffer.capacity()) {
+      throw new IOException(file + " is truncated");
+    }
+  }
+
+  /**
+   * Opens the file of the published version of the index in the root
+   * directory, or of the index in the root itself if no version was published.
+   */
+  public static IpdbFile open(File indexRoot) throws IOException {
+    File dir = new IndexVersions(indexRoot, 1).current();
+    return new IpdbFile(new File(dir == null ? indexRoot : dir, FILE_NAME));
+  }
+
+  /**
+   * @return the number of ranges
+   */
+  public int size() {
+    return size;
+  }
+
+  /**
+   * @return the number of locations
+   */
+  public int locationCount() {
+    return locationCount;
+  }
+
+  /**
+   * @return the index of the range holding the address, -1 if no range holds
+   *         it
+   */
+  public int range(long ip) {
+    int range = Ranges.floor(this, ip);
+    return range >= 0 && ip <= end(range) ? range : -1;
+  }
+
+  public long start(int range) {
+    return buffer.getInt(rangesOffset + range * RANGE_SIZE) & 0xffffffffl;
+  }
+
+  public long end(int range) {
+    return buffer.getInt(rangesOffset + range * RANGE_SIZE + 4) & 0xffffffffl;
+  }
+
+  public int locationIdOf(int range) {
+    return buffer.getInt(rangesOffset + range * RANGE_SIZE + 8);
+  }
+
+  /**
+   * @return the id of the location of the address, -1 if no range holds it
+   */
+  public int locationId(long ip) {
+    int range = range(ip);
+    return range < 0 ? -1 : locationIdOf(range);
+  }
+
+  /**
+   * @return the value of a column of the location, null if it has none
+   */
+  public String get(int locationId, int column) {
+    return string(buffer.getInt(location(locationId) + column * 4));
+  }
+
+  public double lat(int locationId) {
+    return buffer.getDouble(location(locationId) + LocationStore.COLUMNS.length * 4);
+  }
+
+  public double lon(int locationId) {
+    return buffer.getDouble(location(locationId) + LocationStore.COLUMNS.length * 4 + 8);
+  }
+
+  private int location(int id) {
+    if (id < 0 || id >= locationCount) {
+      throw new IndexOutOfBoundsException("no location " + id + " in a file of " + locationCount);
+    }
+    return locationsOffset + id * LOCATION_SIZE;
+  }
+
+  /**
+   * Decodes a string of the dictionary, walking its block from the first
+   * string.
+   */
+  private String string(int id) {
+    if (id < 0) {
+      return null;
+    }
+    if (id >= stringCount) {
+      throw new IndexOutOfBoundsException("no string " + id + " in a file of " + stringCount);
+    }
+    byte[] bytes = new byte[maxLength];
+    int[] position = { stringsOffset + buffer.getInt(blockIndexOffset + (id / blockSize) * 4) };
+    int length = readVInt(position);
+    read(position, bytes, 0, length);
+    for (int i = id % blockSize; i > 0; i--) {
+      int shared = readVInt(position);
+      int rest = readVInt(position);
+      read(position, bytes, shared, rest);
+      length = shared + rest;
+    }
+    return new String(bytes, 0, length, LocationStore.UTF8);
+  }
+
+  private int readVInt(int[] position) {
+    byte b = buffer.get(position[0]++);
+    int value = b & 0x7f;
+    for (int shift = 7; (b & 0x80) != 0; shift += 7) {
+      b = buffer.get(position[0]++);
+      value |= (b & 0x7f) << shift;
+    }
+    return value;
+  }
+
+  private void read(int[] position, byte[] bytes, int offset, int length) {
+    for (int i = 0; i < length; i++) {
+      bytes[offset + i] = buffer.get(position[0]++);
+    }
+  }
+
+  /**
+   * @param ip
+   *          an IPv4 address as a number, the way ipinfodb writes it
+   * @return the range of the address, null if no range holds it
+   */
+  @Override
+  public IpSearchCityBean locate(long ip) {
+    IpSearchCityBean bean = new IpSearchCityBean();
+    return locate(ip, bean) ? bean : null;
+  }
+
+  /**
+   * @param address
+   *          a dotted quad IPv4 address like 209.254.26.152
+   * @return the range of the address, null if no range holds it
+   */
+  public IpSearchCityBean locate(String address) {
+    return locate(IpLocator.toLong(address));
+  }
+
+  /**
+   * Same as {@link #locate(long)}, filling a bean the caller reuses.
+   *
+   * @return false if no range holds the address, the bean is left as it was
+   */
+  public boolean locate(long ip, IpSearchCityBean bean) {
+    int range = range(ip);
+    if (range < 0) {
+      return false;
+    }
+    int id = locationIdOf(range);
+    bean.setIpStart(start(range));
+    bean.setIpEnd(end(range));
+    bean.setCity(get(id, LocationStore.CITY));
+    bean.setZipCode(get(id, LocationStore.ZIP_CODE));
+    bean.setCountryCode(get(id, LocationStore.COUNTRY_CODE));
+    bean.setCountryName(get(id, LocationStore.COUNTRY_NAME));
+    bean.setMetroCode(get(id, LocationStore.METRO_CODE));
+    bean.setRegionCode(get(id, LocationStore.REGION_CODE));
+    bean.setRegionName(get(id, LocationStore.REGION_NAME));
+    bean.setLat(lat(id));
+    bean.setLon(lon(id));
+    return true;
+  }
+}
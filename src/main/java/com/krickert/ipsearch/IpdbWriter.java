@@ -0,0 +1,278 @@
+package com.krickert.ipsearch;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeSet;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+import com.krickert.io.Files;
+import com.krickert.ipsearch.city.IpSearchCityBean;
+
+/**
+ * Collects every range while the index is built and writes them into an
+ * {@link IpdbFile} next to it once it's done, so a lookup service can map that
+ * one file instead of opening the index or parsing the csv file again.
+ *
+ * The rows reach the indexer in no particular order, so the ranges are sorted
+ * when written. The locations get their ids from a {@link LocationStoreWriter},
+ * the one of the index if it keeps a location store, so a location has the
+ * same id in both.
+ *
+ * Adding a range is thread safe. Every thread adding ranges fills arrays of
+ * its own, merged when the file is written, and remembers the location of the
+ * last range it added: the rows of a location mostly come one after the other
+ * and share the values the {@link com.krickert.ipsearch.city.SymbolTable}
+ * interned, so the id is only asked of the {@link LocationStoreWriter} when the
+ * location changes.
+ *
+ * @author krickert
+ *
+ */
+public class IpdbWriter {
+  private static final Log log = LogFactory.getLog(IpdbWriter.class);
+
+  /**
+   * The ranges added by one thread. Only that thread adds to it, the lock is
+   * there for the thread writing the file.
+   */
+  private static final class Part {
+    long[] starts = new long[1024];
+    long[] ends = new long[1024];
+    int[] locationIds = new int[1024];
+    int size = 0;
+    /* the location of the last range added */
+    final String[] lastValues = new String[LocationStore.COLUMNS.length];
+    double lastLat;
+    double lastLon;
+    int lastLocationId = -1;
+
+    synchronized void add(long start, long end, int locationId) {
+      if (size == starts.length) {
+        starts = Arrays.copyOf(starts, size * 2);
+        ends = Arrays.copyOf(ends, size * 2);
+        locationIds = Arrays.copyOf(locationIds, size * 2);
+      }
+      starts[size] = start;
+      ends[size] = end;
+      locationIds[size] = locationId;
+      size++;
+    }
+  }
+
+  private final File file;
+  private final boolean enabled;
+  private final LocationStoreWriter locations;
+  /* guarded by itself */
+  private final List<Part> parts = new ArrayList<Part>();
+  private final ThreadLocal<Part> part = new ThreadLocal<Part>() {
+    @Override
+    protected Part initialValue() {
+      Part part = new Part();
+      synchronized (parts) {
+        parts.add(part);
+      }
+      return part;
+    }
+  };
+
+  /**
+   * @param dir
+   *          the directory of the index, which the file is written into
+   * @param enabled
+   *          false to collect nothing and write no file
+   * @param locations
+   *          the writer handing out the location ids
+   */
+  public IpdbWriter(File dir, boolean enabled, LocationStoreWriter locations) {
+    this.file = new File(dir, IpdbFile.FILE_NAME);
+    this.enabled = enabled;
+    this.locations = checkNotNull(locations);
+  }
+
+  public boolean isEnabled() {
+    return enabled;
+  }
+
+  public File getFile() {
+    return file;
+  }
+
+  /**
+   * Adds the range of a bean, whose ipEnd has to be set.
+   */
+  public void add(IpSearchCityBean bean) {
+    Part part = this.part.get();
+    part.add(bean.ipStart(), bean.ipEnd(), locationId(part, bean));
+  }
+
+  /* the id of the location of the bean, asking the locations only when it changed */
+  private int locationId(Part part, IpSearchCityBean bean) {
+    String[] values = part.lastValues;
+    boolean same = part.lastLocationId >= 0 && bean.lat() == part.lastLat && bean.lon() == part.lastLon;
+    for (int column = 0; same && column < values.length; column++) {
+      same = values[column] == LocationStoreWriter.column(bean, column);
+    }
+    if (!same) {
+      part.lastLocationId = locations.locationId(bean);
+      for (int column = 0; column < values.length; column++) {
+        values[column] = LocationStoreWriter.column(bean, column);
+      }
+      part.lastLat = bean.lat();
+      part.lastLon = bean.lon();
+    }
+    return part.lastLocationId;
+  }
+
+  /**
+   * @return the number of ranges
+   */
+  public int size() {
+    int size = 0;
+    synchronized (parts) {
+      for (Part part : parts) {
+        synchronized (part) {
+          size += part.size;
+        }
+      }
+    }
+    return size;
+  }
+
+  /**
+   * Writes the ranges and their locations into the file, replacing the one
+   * there.
+   */
+  public synchronized void write() throws IOException {
+    int size = size();
+    long[] starts = new long[size];
+    long[] ends = new long[size];
+    int[] locationIds = new int[size];
+    int merged = 0;
+    synchronized (parts) {
+      for (Part part : parts) {
+        synchronized (part) {
+          int count = Math.min(part.size, size - merged);
+          System.arraycopy(part.starts, 0, starts, merged, count);
+          System.arraycopy(part.ends, 0, ends, merged, count);
+          System.arraycopy(part.locationIds, 0, locationIds, merged, count);
+          merged += count;
+        }
+      }
+    }
+    // the ip addresses fit in 32 bits, the positions in 31
+    long[] order = new long[size];
+    for (int i = 0; i < size; i++) {
+      order[i] = starts[i] << 31 | i;
+    }
+    Arrays.sort(order);
+
+    int locationCount = locations.size();
+    LocationStore.Location[] table = new LocationStore.Location[locationCount];
+    TreeSet<String> distinct = new TreeSet<String>();
+    for (int id = 0; id < locationCount; id++) {
+      table[id] = locations.location(id);
+      for (String value : table[id].values) {
+        if (value != null) {
+          distinct.add(value);
+        }
+      }
+    }
+    Map<String, Integer> stringIds = new HashMap<String, Integer>();
+    List<byte[]> strings = new ArrayList<byte[]>(distinct.size());
+    int maxLength = 0;
+    for (String value : distinct) {
+      stringIds.put(value, strings.size());
+      byte[] bytes = value.getBytes(LocationStore.UTF8);
+      strings.add(bytes);
+      maxLength = Math.max(maxLength, bytes.length);
+    }
+
+    // front code the sorted strings in blocks
+    int blocks = (strings.size() + IpdbFile.BLOCK_SIZE - 1) / IpdbFile.BLOCK_SIZE;
+    int[] blockOffsets = new int[blocks];
+    ByteArrayOutputStream coded = new ByteArrayOutputStream();
+    byte[] previous = null;
+    for (int i = 0; i < strings.size(); i++) {
+      byte[] bytes = strings.get(i);
+      if (i % IpdbFile.BLOCK_SIZE == 0) {
+        blockOffsets[i / IpdbFile.BLOCK_SIZE] = coded.size();
+        writeVInt(coded, bytes.length);
+        coded.write(bytes, 0, bytes.length);
+      } else {
+        int shared = 0;
+        while (shared < previous.length && shared < bytes.length && previous[shared] == bytes[shared]) {
+          shared++;
+        }
+        writeVInt(coded, shared);
+        writeVInt(coded, bytes.length - shared);
+        coded.write(bytes, shared, bytes.length - shared);
+      }
+      previous = bytes;
+    }
+
+    long rangesOffset = IpdbFile.HEADER_SIZE;
+    long locationsOffset = rangesOffset + (long) size * IpdbFile.RANGE_SIZE;
+    long blockIndexOffset = locationsOffset + (long) locationCount * IpdbFile.LOCATION_SIZE;
+    long stringsOffset = blockIndexOffset + blocks * 4l;
+
+    File next = new File(file.getPath() + ".tmp");
+    DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(next), 64 * 1024));
+    try {
+      out.writeInt(IpdbFile.MAGIC);
+      out.writeInt(IpdbFile.FORMAT);
+      out.writeInt(size);
+      out.writeInt(locationCount);
+      out.writeInt(strings.size());
+      out.writeInt(IpdbFile.BLOCK_SIZE);
+      out.writeInt(maxLength);
+      out.writeInt(0);
+      out.writeLong(rangesOffset);
+      out.writeLong(locationsOffset);
+      out.writeLong(blockIndexOffset);
+      out.writeLong(stringsOffset);
+      for (long key : order) {
+        int i = (int) (key & Integer.MAX_VALUE);
+        out.writeInt((int) starts[i]);
+        out.writeInt((int) ends[i]);
+        out.writeInt(locationIds[i]);
+      }
+      for (LocationStore.Location location : table) {
+        for (String value : location.values) {
+          out.writeInt(value == null ? -1 : stringIds.get(value));
+        }
+        out.writeDouble(location.lat);
+        out.writeDouble(location.lon);
+      }
+      for (int offset : blockOffsets) {
+        out.writeInt(offset);
+      }
+      coded.writeTo(out);
+    } finally {
+      out.close();
+    }
+    Files.replace(next, file);
+    log.info("Wrote " + size + " ranges, " + locationCount + " locations and " + strings.size() + " strings to " + file + ", "
+        + file.length() + " bytes");
+  }
+
+  private static void writeVInt(ByteArrayOutputStream out, int value) {
+    while ((value & ~0x7f) != 0) {
+      out.write((value & 0x7f) | 0x80);
+      value >>>= 7;
+    }
+    out.write(value);
+  }
+}
@@ -0,0 +1,191 @@
+package com.krickert.ipsearch;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.charset.Charset;
+
+import com.krickert.io.Files;
+
+/**
+ * The attributes of every location of the index, kept next to it in a memory
+ * mapped file instead of as stored fields of every document. An ip range
+ * document stores only the id of its location, and reading the location of a
+ * hit is one read at a fixed offset of the mapping.
+ *
+ * Thousands of ranges share a location, and the locations share a small set
+ * of strings, so the strings are dictionary encoded: every distinct value is
+ * kept once and a location holds the id of each of its values.
+ *
+ * <pre>
+ * int    magic, format version, string count, location count
+ * int    the end offset of every string in the string bytes
+ * byte   the string bytes, UTF-8
+ * record of every location: 7 string ids (-1 for none), lat and lon as doubles
+ * </pre>
+ *
+ * The columns are in the order of {@link #COLUMNS}. A store is thread safe once
+ * opened.
+ *
+ * @author krickert
+ *
+ */
+public class LocationStore {
+  public static final String FILE_NAME = "locations.dat";
+  /* the string columns of a location, by their index field name */
+  public static final String[] COLUMNS = { "city", "zip_code", "country_code", "country_name", "metro_code", "region_code", "region_name" };
+  public static final int CITY = 0;
+  public static final int ZIP_CODE = 1;
+  public static final int COUNTRY_CODE = 2;
+  public static final int COUNTRY_NAME = 3;
+  public static final int METRO_CODE = 4;
+  public static final int REGION_CODE = 5;
+  public static final int REGION_NAME = 6;
+
+  static final int MAGIC = 0x49504c53;
+  static final int FORMAT = 1;
+  static final int RECORD_SIZE = COLUMNS.length * 4 + 16;
+  static final Charset UTF8 = Charset.forName("UTF-8");
+
+  /**
+   * The attributes of a location.
+   */
+  public static final class Location {
+    public final int id;
+    /* the value of every column, null if the location has none */
+    public final String[] values;
+    public final double lat;
+    public final double lon;
+
+    Location(int id, String[] values, double lat, double lon) {
+      this.id = id;
+      this.values = values;
+      this.lat = lat;
+      this.lon = lon;
+    }
+
+    public String get(int column) {
+      return values[column];
+    }
+
+    public String getCity() {
+      return values[CITY];
+    }
+
+    public String getZipCode() {
+      return values[ZIP_CODE];
+    }
+
+    public String getCountryCode() {
+      return values[COUNTRY_CODE];
+    }
+
+    public String getCountryName() {
+      return values[COUNTRY_NAME];
+    }
+
+    public String getMetroCode() {
+      return values[METRO_CODE];
+    }
+
+    public String getRegionCode() {
+      return values[REGION_CODE];
+    }
+
+    public String getRegionName() {
+      return values[REGION_NAME];
+    }
+  }
+
+  private final MappedByteBuffer buffer;
+  /* the decoded dictionary, small enough to keep on the heap */
+  private final String[] strings;
+  private final int size;
+  private final int recordsStart;
+
+  /**
+   * Maps the store file.
+   *
+   * @throws IOException
+   *           if the file can't be read or isn't a location store
+   */
+  public LocationStore(File file) throws IOException {
+    buffer = Files.map(file);
+    if (buffer.capacity() < 16 || buffer.getInt(0) != MAGIC) {
+      throw new IOException(file + " is not a location store");
+    }
+    if (buffer.getInt(4) != FORMAT) {
+      throw new IOException(file + " has the unknown format " + buffer.getInt(4));
+    }
+    int stringCount = buffer.getInt(8);
+    size = buffer.getInt(12);
+    int bytesStart = 16 + stringCount * 4;
+    strings = new String[stringCount];
+    byte[] bytes = new byte[256];
+    int start = 0;
+    for (int i = 0; i < stringCount; i++) {
+      int end = buffer.getInt(16 + i * 4);
+      int length = end - start;
+      if (bytes.length < length) {
+        bytes = new byte[length];
+      }
+      for (int b = 0; b < length; b++) {
+        bytes[b] = buffer.get(bytesStart + start + b);
+      }
+      strings[i] = new String(bytes, 0, length, UTF8);
+      start = end;
+    }
+    recordsStart = bytesStart + start;
+    if (buffer.capacity() < recordsStart + (long) size * RECORD_SIZE) {
+      throw new IOException(file + " is truncated");
+    }
+  }
+
+  /**
+   * @return the number of locations
+   */
+  public int size() {
+    return size;
+  }
+
+  /**
+   * @return the location of the id
+   * @throws IndexOutOfBoundsException
+   *           if there's no location of that id
+   */
+  public Location get(int id) {
+    int record = record(id);
+    String[] values = new String[COLUMNS.length];
+    for (int column = 0; column < values.length; column++) {
+      values[column] = string(buffer.getInt(record + column * 4));
+    }
+    return new Location(id, values, buffer.getDouble(record + COLUMNS.length * 4), buffer.getDouble(record + COLUMNS.length * 4 + 8));
+  }
+
+  /**
+   * @return the value of a single column of the location, without reading
+   *         the others
+   */
+  public String get(int id, int column) {
+    return string(buffer.getInt(record(id) + column * 4));
+  }
+
+  public double lat(int id) {
+    return buffer.getDouble(record(id) + COLUMNS.length * 4);
+  }
+
+  public double lon(int id) {
+    return buffer.getDouble(record(id) + COLUMNS.length * 4 + 8);
+  }
+
+  private int record(int id) {
+    if (id < 0 || id >= size) {
+      throw new IndexOutOfBoundsException("no location " + id + " in a store of " + size);
+    }
+    return recordsStart + id * RECORD_SIZE;
+  }
+
+  private String string(int stringId) {
+    return stringId < 0 ? null : strings[stringId];
+  }
+}
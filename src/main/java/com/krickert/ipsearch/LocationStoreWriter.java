@@ -0,0 +1,224 @@
+package com.krickert.ipsearch;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+import com.krickert.io.Files;
+import com.krickert.ipsearch.city.IpSearchCityBean;
+
+/**
+ * Hands out the id of every distinct location while the index is built and
+ * writes them into a {@link LocationStore} file once it's done. Ids are given
+ * in the order locations are first seen, starting at 0. If the directory holds
+ * a store already, as an index refreshed incrementally does, its locations
+ * keep their ids.
+ *
+ * Handing out ids is thread safe. An empty or blank value counts as none, as
+ * it does for the fields of the index.
+ *
+ * @author krickert
+ *
+ */
+public class LocationStoreWriter {
+  private static final Log log = LogFactory.getLog(LocationStoreWriter.class);
+
+  /**
+   * The values of a location, the key of its id.
+   */
+  private static final class Key {
+    final String[] values;
+    final double lat;
+    final double lon;
+    final int hash;
+
+    Key(String[] values, double lat, double lon) {
+      this.values = values;
+      this.lat = lat;
+      this.lon = lon;
+      long bits = Double.doubleToLongBits(lat) * 31 + Double.doubleToLongBits(lon);
+      this.hash = Arrays.hashCode(values) * 31 + (int) (bits ^ (bits >>> 32));
+    }
+
+    @Override
+    public int hashCode() {
+      return hash;
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+      if (!(obj instanceof Key)) {
+        return false;
+      }
+      Key other = (Key) obj;
+      return hash == other.hash && Double.doubleToLongBits(lat) == Double.doubleToLongBits(other.lat)
+          && Double.doubleToLongBits(lon) == Double.doubleToLongBits(other.lon) && Arrays.equals(values, other.values);
+    }
+  }
+
+  private final File file;
+  private final boolean enabled;
+  /* guarded by this */
+  private final Map<Key, Integer> ids = new HashMap<Key, Integer>();
+  private final List<Key> locations = new ArrayList<Key>();
+
+  /**
+   * @param dir
+   *          the directory of the index, which the store is written into
+   * @param enabled
+   *          false to keep every value in the index as stored fields and
+   *          write no store
+   */
+  public LocationStoreWriter(File dir, boolean enabled) throws IOException {
+    this.file = new File(dir, LocationStore.FILE_NAME);
+    this.enabled = enabled;
+    if (enabled && file.isFile()) {
+      LocationStore existing = new LocationStore(file);
+      for (int id = 0; id < existing.size(); id++) {
+        LocationStore.Location location = existing.get(id);
+        add(new Key(location.values, location.lat, location.lon));
+      }
+      log.info("Keeping the " + existing.size() + " locations of " + file);
+    }
+  }
+
+  public boolean isEnabled() {
+    return enabled;
+  }
+
+  public File getFile() {
+    return file;
+  }
+
+  /**
+   * @return the id of the location of the bean, a new one if no bean had that
+   *         location before
+   */
+  public int locationId(IpSearchCityBean bean) {
+    String[] values = new String[LocationStore.COLUMNS.length];
+    for (int column = 0; column < values.length; column++) {
+      values[column] = value(column(bean, column));
+    }
+    Key key = new Key(values, bean.lat(), bean.lon());
+    synchronized (this) {
+      Integer id = ids.get(key);
+      return id != null ? id : add(key);
+    }
+  }
+
+  /**
+   * @return the value of a column of {@link LocationStore#COLUMNS} in the bean
+   */
+  static String column(IpSearchCityBean bean, int column) {
+    switch (column) {
+    case LocationStore.CITY:
+      return bean.getCity();
+    case LocationStore.ZIP_CODE:
+      return bean.getZipCode();
+    case LocationStore.COUNTRY_CODE:
+      return bean.getCountryCode();
+    case LocationStore.COUNTRY_NAME:
+      return bean.getCountryName();
+    case LocationStore.METRO_CODE:
+      return bean.getMetroCode();
+    case LocationStore.REGION_CODE:
+      return bean.getRegionCode();
+    case LocationStore.REGION_NAME:
+      return bean.getRegionName();
+    default:
+      throw new IndexOutOfBoundsException("no column " + column);
+    }
+  }
+
+  private static String value(String value) {
+    return value == null || value.trim().length() == 0 ? null : value;
+  }
+
+  private synchronized int add(Key key) {
+    int id = locations.size();
+    ids.put(key, id);
+    locations.add(key);
+    return id;
+  }
+
+  /**
+   * @return the number of locations
+   */
+  public synchronized int size() {
+    return locations.size();
+  }
+
+  /**
+   * @return the location of an id handed out before
+   */
+  synchronized LocationStore.Location location(int id) {
+    Key key = locations.get(id);
+    return new LocationStore.Location(id, key.values, key.lat, key.lon);
+  }
+
+  /**
+   * Writes every location into the store file, replacing the one there.
+   */
+  public synchronized void write() throws IOException {
+    Map<String, Integer> stringIds = new HashMap<String, Integer>();
+    List<byte[]> strings = new ArrayList<byte[]>();
+    int[][] records = new int[locations.size()][];
+    for (int id = 0; id < records.length; id++) {
+      String[] values = locations.get(id).values;
+      records[id] = new int[values.length];
+      for (int column = 0; column < values.length; column++) {
+        String value = values[column];
+        if (value == null) {
+          records[id][column] = -1;
+          continue;
+        }
+        Integer stringId = stringIds.get(value);
+        if (stringId == null) {
+          stringId = strings.size();
+          stringIds.put(value, stringId);
+          strings.add(value.getBytes(LocationStore.UTF8));
+        }
+        records[id][column] = stringId;
+      }
+    }
+
+    File next = new File(file.getPath() + ".tmp");
+    DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(next), 64 * 1024));
+    try {
+      out.writeInt(LocationStore.MAGIC);
+      out.writeInt(LocationStore.FORMAT);
+      out.writeInt(strings.size());
+      out.writeInt(records.length);
+      int end = 0;
+      for (byte[] string : strings) {
+        end += string.length;
+        out.writeInt(end);
+      }
+      for (byte[] string : strings) {
+        out.write(string);
+      }
+      for (int id = 0; id < records.length; id++) {
+        for (int column = 0; column < records[id].length; column++) {
+          out.writeInt(records[id][column]);
+        }
+        Key location = locations.get(id);
+        out.writeDouble(location.lat);
+        out.writeDouble(location.lon);
+      }
+    } finally {
+      out.close();
+    }
+    Files.replace(next, file);
+    log.info("Wrote " + records.length + " locations and " + strings.size() + " strings to " + file);
+  }
+}
@@ -0,0 +1,22 @@
+package com.krickert.ipsearch;
+
+import java.io.IOException;
+
+import com.krickert.ipsearch.city.IpSearchCityBean;
+
+/**
+ * Finds the ip range holding an IPv4 address.
+ * 
+ * @author krickert
+ * 
+ */
+public interface Locator {
+
+  /**
+   * @param ip
+   *          an IPv4 address as a number, the way ipinfodb writes it
+   * @return the range of the address with its ipStart and ipEnd set, null if
+   *         no range holds it
+   */
+  IpSearchCityBean locate(long ip) throws IOException;
+}
@@ -0,0 +1,379 @@
+package com.krickert.ipsearch;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.apache.lucene.index.IndexReader;
+import org.apache.lucene.index.Term;
+import org.apache.lucene.search.BooleanClause;
+import org.apache.lucene.search.BooleanQuery;
+import org.apache.lucene.search.Collector;
+import org.apache.lucene.search.FieldCache;
+import org.apache.lucene.search.IndexSearcher;
+import org.apache.lucene.search.Scorer;
+import org.apache.lucene.search.TermQuery;
+import org.apache.lucene.spatial.tier.projections.CartesianTierPlotter;
+import org.apache.lucene.spatial.tier.projections.SinusoidalProjector;
+import org.apache.lucene.util.NumericUtils;
+
+import com.krickert.ipsearch.city.IpSearchCityBean;
+
+/**
+ * Finds the ip ranges located within a radius of a point or of an ip address,
+ * nearest first: "who's near me online?".
+ *
+ * A search picks the tier whose boxes best fit the radius, finds the boxes of
+ * that tier covering the bounding box of the circle and matches the documents
+ * in those boxes, optionally of one country and region only. Every match is
+ * then measured against the point and the nearest ones within the radius are
+ * kept. The coordinates of every document are read once into the field cache
+ * when the search is opened, and the tier plotters are made once too, which
+ * the projector they share makes safe to use from any thread.
+ *
+ * A search shares the reader of its {@link IpLocator}, which also finds the
+ * point of an address, and is thread safe. Every search reports its latency,
+ * and the totals are kept for monitoring.
+ *
+ * @author krickert
+ *
+ */
+public class NearbySearch implements Closeable {
+  private static final Log log = LogFactory.getLog(NearbySearch.class);
+  public static final double EARTH_RADIUS_MILES = 3958.76;
+  private static final double MILES_PER_DEGREE = 69.04;
+  /* the most points sampled for the boxes of a search before a coarser tier is taken */
+  private static final int MAX_SAMPLES = 4096;
+
+  /**
+   * A range found by a search.
+   */
+  public static final class Hit {
+    public final IpSearchCityBean bean;
+    public final double miles;
+
+    Hit(IpSearchCityBean bean, double miles) {
+      this.bean = bean;
+      this.miles = miles;
+    }
+
+    @Override
+    public String toString() {
+      return String.format("%.2f miles: %s", miles, bean);
+    }
+  }
+
+  /**
+   * The hits of a search, nearest first.
+   */
+  public static final class Result {
+    public final List<Hit> hits;
+    /* the documents in the boxes searched, before measuring their distance */
+    public final int candidates;
+    public final long nanos;
+
+    Result(List<Hit> hits, int candidates, long nanos) {
+      this.hits = hits;
+      this.candidates = candidates;
+      this.nanos = nanos;
+    }
+
+    public double millis() {
+      return nanos / 1e6;
+    }
+  }
+
+  /**
+   * The document of a match and its distance.
+   */
+  private static final class Candidate {
+    final int doc;
+    final double miles;
+
+    Candidate(int doc, double miles) {
+      this.doc = doc;
+      this.miles = miles;
+    }
+  }
+
+  /* the farthest first, to drop it when a nearer one comes */
+  private static final Comparator<Candidate> FARTHEST_FIRST = new Comparator<Candidate>() {
+    @Override
+    public int compare(Candidate a, Candidate b) {
+      return Double.compare(b.miles, a.miles);
+    }
+  };
+
+  private final IpLocator locator;
+  private final IndexSearcher searcher;
+  private final CartesianTierPlotter[] plotters;
+  private final int startTier;
+  private final double[] lats;
+  private final double[] lons;
+  private final AtomicLong searches = new AtomicLong();
+  private final AtomicLong totalNanos = new AtomicLong();
+  private final AtomicLong maxNanos = new AtomicLong();
+
+  /**
+   * @param locator
+   *          the locator of the index, whose reader is shared
+   * @param startTier
+   *          the first tier of the index, 5 by default
+   * @param endTier
+   *          the last tier of the index, 15 by default
+   * @throws IllegalStateException
+   *           if the index has no tiers, it wasn't built with a spatial schema
+   */
+  public NearbySearch(IpLocator locator, int startTier, int endTier) throws IOException {
+    if (startTier < 0 || endTier < startTier) {
+      throw new IllegalArgumentException("not a valid tier range: " + startTier + " to " + endTier);
+    }
+    this.locator = checkNotNull(locator);
+    IndexReader reader = locator.getReader();
+    SinusoidalProjector projector = new SinusoidalProjector();
+    this.startTier = startTier;
+    this.plotters = new CartesianTierPlotter[endTier - startTier + 1];
+    for (int i = 0; i < plotters.length; i++) {
+      plotters[i] = new CartesianTierPlotter(startTier + i, projector, TierEncoder.DEFAULT_TIER_PREFIX);
+    }
+    if (!reader.getFieldNames(IndexReader.FieldOption.INDEXED).contains(plotters[0].getTierFieldName())) {
+      throw new IllegalStateException("The index has no " + plotters[0].getTierFieldName() + " field, it needs a spatial schema");
+    }
+    this.searcher = new IndexSearcher(reader);
+    this.lats = FieldCache.DEFAULT.getDoubles(reader, IpDocumentTemplate.latField, FieldCache.NUMERIC_UTILS_DOUBLE_PARSER);
+    this.lons = FieldCache.DEFAULT.getDoubles(reader, IpDocumentTemplate.lngField, FieldCache.NUMERIC_UTILS_DOUBLE_PARSER);
+    log.info("Opened a nearby search of tiers " + startTier + " to " + endTier + " over " + reader.numDocs() + " ranges");
+  }
+
+  /**
+   * Same as above, with the tiers 5 to 15.
+   */
+  public NearbySearch(IpLocator locator) throws IOException {
+    this(locator, TierEncoder.DEFAULT_START_TIER, TierEncoder.DEFAULT_END_TIER);
+  }
+
+  /**
+   * Opens the published version of the index in the root directory, see
+   * {@link IpLocator#open(File)}.
+   */
+  public static NearbySearch open(File indexRoot) throws IOException {
+    return new NearbySearch(IpLocator.open(indexRoot));
+  }
+
+  /**
+   * Same as {@link #search(double, double, double, String, String, int)}
+   * around the location of an address.
+   *
+   * @param address
+   *          a dotted quad IPv4 address like 209.254.26.152
+   * @return the hits, none if no range holds the address
+   */
+  public Result search(String address, double miles, String countryCode, String regionCode, int count) throws IOException {
+    IpSearchCityBean origin = locator.locate(IpLocator.toLong(address));
+    if (origin == null) {
+      return new Result(Collections.<Hit> emptyList(), 0, 0);
+    }
+    return search(origin.lat(), origin.lon(), miles, countryCode, regionCode, count);
+  }
+
+  /**
+   * @param lat
+   *          the latitude of the point
+   * @param lon
+   *          the longitude of the point
+   * @param miles
+   *          the radius
+   * @param countryCode
+   *          the country of the ranges, null for any
+   * @param regionCode
+   *          the region of the ranges, null for any
+   * @param count
+   *          the most hits returned
+   * @return the nearest hits within the radius, nearest first
+   */
+  public Result search(double lat, double lon, double miles, String countryCode, String regionCode, int count) throws IOException {
+    if (miles <= 0 || count < 1) {
+      throw new IllegalArgumentException("a search needs a radius and a count, not " + miles + " and " + count);
+    }
+    long started = System.nanoTime();
+    BooleanQuery query = new BooleanQuery();
+    query.add(boxes(lat, lon, miles), BooleanClause.Occur.MUST);
+    if (countryCode != null) {
+      query.add(new TermQuery(new Term("country_code", countryCode)), BooleanClause.Occur.MUST);
+    }
+    if (regionCode != null) {
+      query.add(new TermQuery(new Term("region_code", regionCode)), BooleanClause.Occur.MUST);
+    }
+    NearestCollector nearest = new NearestCollector(lat, lon, miles, count);
+    searcher.search(query, nearest);
+
+    List<Candidate> kept = new ArrayList<Candidate>(nearest.queue);
+    Collections.sort(kept, Collections.reverseOrder(FARTHEST_FIRST));
+    List<Hit> hits = new ArrayList<Hit>(kept.size());
+    for (Candidate candidate : kept) {
+      hits.add(new Hit(locator.bean(candidate.doc), candidate.miles));
+    }
+    long nanos = System.nanoTime() - started;
+    record(nanos);
+    if (log.isDebugEnabled()) {
+      log.debug(String.format("%d hits of %d candidates within %.1f miles of %f,%f in %.3f ms", hits.size(), nearest.candidates, miles,
+          lat, lon, nanos / 1e6));
+    }
+    return new Result(hits, nearest.candidates, nanos);
+  }
+
+  /**
+   * @return the query of the boxes of the best fitting tier covering the
+   *         bounding box of the circle
+   */
+  private BooleanQuery boxes(double lat, double lon, double miles) {
+    int tier = Math.max(startTier, Math.min(startTier + plotters.length - 1, plotters[0].bestFit(miles)));
+    double latRadius = miles / MILES_PER_DEGREE;
+    double lonRadius = Math.min(180, miles / (MILES_PER_DEGREE * Math.max(0.01, Math.cos(Math.toRadians(Math.min(89.9, Math.abs(lat)
+        + latRadius))))));
+    // coarser tiers until the box side, halved so no box is stepped over, is sampled few enough times
+    double step = 90d / (1 << tier);
+    while (tier > startTier && (2 * latRadius / step + 2) * (2 * lonRadius / step + 2) > MAX_SAMPLES) {
+      tier--;
+      step = 90d / (1 << tier);
+    }
+    CartesianTierPlotter plotter = plotters[tier - startTier];
+    Set<Double> ids = new HashSet<Double>();
+    double minLat = Math.max(-90, lat - latRadius);
+    double maxLat = Math.min(90, lat + latRadius);
+    for (double sampleLat = minLat;; sampleLat = Math.min(maxLat, sampleLat + step)) {
+      for (double sampleLon = lon - lonRadius;; sampleLon = Math.min(lon + lonRadius, sampleLon + step)) {
+        ids.add(plotter.getTierBoxId(sampleLat, wrap(sampleLon)));
+        if (sampleLon >= lon + lonRadius) {
+          break;
+        }
+      }
+      if (sampleLat >= maxLat) {
+        break;
+      }
+    }
+    BooleanQuery boxes = new BooleanQuery();
+    String field = plotter.getTierFieldName();
+    for (Double id : ids) {
+      boxes.add(new TermQuery(new Term(field, NumericUtils.doubleToPrefixCoded(id))), BooleanClause.Occur.SHOULD);
+    }
+    return boxes;
+  }
+
+  private static double wrap(double lon) {
+    return lon >= 180 ? lon - 360 : lon < -180 ? lon + 360 : lon;
+  }
+
+  /**
+   * @return the great circle distance between two points in miles
+   */
+  static double miles(double lat1, double lon1, double lat2, double lon2) {
+    double dLat = Math.toRadians(lat2 - lat1);
+    double dLon = Math.toRadians(lon2 - lon1);
+    double a = Math.sin(dLat / 2) * Math.sin(dLat / 2) + Math.cos(Math.toRadians(lat1)) * Math.cos(Math.toRadians(lat2))
+        * Math.sin(dLon / 2) * Math.sin(dLon / 2);
+    return 2 * EARTH_RADIUS_MILES * Math.asin(Math.min(1, Math.sqrt(a)));
+  }
+
+  /**
+   * Keeps the nearest matches within the radius.
+   */
+  private final class NearestCollector extends Collector {
+    final double lat;
+    final double lon;
+    final double miles;
+    final int count;
+    final PriorityQueue<Candidate> queue;
+    int candidates = 0;
+    int docBase = 0;
+
+    NearestCollector(double lat, double lon, double miles, int count) {
+      this.lat = lat;
+      this.lon = lon;
+      this.miles = miles;
+      this.count = count;
+      this.queue = new PriorityQueue<Candidate>(Math.min(count, 1024) + 1, FARTHEST_FIRST);
+    }
+
+    @Override
+    public void setScorer(Scorer scorer) {
+      // the distance orders the hits, not the score
+    }
+
+    @Override
+    public void collect(int doc) {
+      candidates++;
+      int id = docBase + doc;
+      double distance = miles(lat, lon, lats[id], lons[id]);
+      if (distance > miles || (queue.size() == count && distance >= queue.peek().miles)) {
+        return;
+      }
+      queue.add(new Candidate(id, distance));
+      if (queue.size() > count) {
+        queue.poll();
+      }
+    }
+
+    @Override
+    public void setNextReader(IndexReader reader, int docBase) {
+      this.docBase = docBase;
+    }
+
+    @Override
+    public boolean acceptsDocsOutOfOrder() {
+      return true;
+    }
+  }
+
+  private void record(long nanos) {
+    searches.incrementAndGet();
+    totalNanos.addAndGet(nanos);
+    long max;
+    while ((max = maxNanos.get()) < nanos && !maxNanos.compareAndSet(max, nanos)) {
+      // another search raised it meanwhile
+    }
+  }
+
+  /**
+   * @return the number of searches done
+   */
+  public long getSearches() {
+    return searches.get();
+  }
+
+  /**
+   * @return the mean latency of the searches in milliseconds
+   */
+  public double getMeanMillis() {
+    long count = searches.get();
+    return count == 0 ? 0 : totalNanos.get() / 1e6 / count;
+  }
+
+  /**
+   * @return the latency of the slowest search in milliseconds
+   */
+  public double getMaxMillis() {
+    return maxNanos.get() / 1e6;
+  }
+
+  /**
+   * Closes the locator and the reader shared with it.
+   */
+  @Override
+  public void close() throws IOException {
+    searcher.close();
+    locator.close();
+  }
+}
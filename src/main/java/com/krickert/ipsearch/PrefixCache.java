@@ -0,0 +1,364 @@
+package com.krickert.ipsearch;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+
+import java.io.IOException;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+import com.krickert.ipsearch.city.IpSearchCityBean;
+
+/**
+ * Caches the ranges a {@link Locator} finds by the network prefix of the
+ * address, since most of the traffic comes from a few thousand networks. A
+ * range is only cached for a prefix when the whole prefix lies within it, so
+ * every address of a cached prefix is in that range and a hit is exact. The
+ * prefixes of networks split between ranges always go to the locator.
+ *
+ * The cache is a set associative array: a prefix hashes to a set of
+ * {@link #WAYS} slots, which are evicted by CLOCK. A hit marks its entry
+ * referenced, a miss sweeps the hand of the set over its slots, clearing the
+ * marks until it finds an entry that wasn't referenced since the last sweep,
+ * and replaces that one. Slots are read and replaced without locks; two misses
+ * racing on a set may replace entries the other would have kept, which only
+ * costs another miss. A hit allocates nothing. The counters are striped over
+ * the threads, so the hits of many threads don't contend on one counter.
+ *
+ * A cached range is a read only copy of the bean the locator returned, shared
+ * by every caller of its prefix: its setters throw
+ * {@link UnsupportedOperationException}.
+ *
+ * @author krickert
+ *
+ */
+public class PrefixCache implements Locator {
+  /** The slots of a set. */
+  public static final int WAYS = 8;
+
+  /**
+   * The range of a prefix.
+   */
+  private static final class Entry {
+    final long prefix;
+    final IpSearchCityBean bean;
+    /* set by a hit, cleared by the hand passing it */
+    volatile boolean referenced;
+
+    Entry(long prefix, IpSearchCityBean bean) {
+      this.prefix = prefix;
+      this.bean = bean;
+    }
+  }
+
+  /**
+   * A count kept in a cell per stripe of threads, each cell on a cache line of
+   * its own, and summed when read.
+   */
+  private static final class Counter {
+    /* the longs between two cells */
+    private static final int PAD = 8;
+    private static final int STRIPES = Integer.highestOneBit(Runtime.getRuntime().availableProcessors() * 2 - 1);
+    private final AtomicLongArray cells = new AtomicLongArray(STRIPES * PAD);
+
+    void increment() {
+      cells.incrementAndGet((int) (Thread.currentThread().getId() & (STRIPES - 1)) * PAD);
+    }
+
+    long get() {
+      long sum = 0;
+      for (int i = 0; i < STRIPES; i++) {
+        sum += cells.get(i * PAD);
+      }
+      return sum;
+    }
+
+    @Override
+    public String toString() {
+      return Long.toString(get());
+    }
+  }
+
+  /**
+   * A copy of a range that can't be changed once made.
+   */
+  private static final class CachedBean extends IpSearchCityBean {
+    private final boolean frozen;
+
+    CachedBean(IpSearchCityBean bean) {
+      super.setIpStart(bean.ipStart());
+      super.setIpEnd(bean.ipEnd());
+      super.setCountryCode(bean.getCountryCode());
+      super.setCountryName(bean.getCountryName());
+      super.setRegionCode(bean.getRegionCode());
+      super.setRegionName(bean.getRegionName());
+      super.setCity(bean.getCity());
+      super.setZipCode(bean.getZipCode());
+      super.setLat(bean.lat());
+      super.setLon(bean.lon());
+      super.setMetroCode(bean.getMetroCode());
+      frozen = true;
+    }
+
+    private void check() {
+      if (frozen) {
+        throw new UnsupportedOperationException("a cached range is shared and can't be changed");
+      }
+    }
+
+    @Override
+    public void setIpStart(long ipStart) {
+      check();
+      super.setIpStart(ipStart);
+    }
+
+    @Override
+    public void setIpStart(Long ipStart) {
+      check();
+      super.setIpStart(ipStart);
+    }
+
+    @Override
+    public void setIpEnd(long ipEnd) {
+      check();
+      super.setIpEnd(ipEnd);
+    }
+
+    @Override
+    public void setIpEnd(Long ipEnd) {
+      check();
+      super.setIpEnd(ipEnd);
+    }
+
+    @Override
+    public void setCountryCode(String countryCode) {
+      check();
+      super.setCountryCode(countryCode);
+    }
+
+    @Override
+    public void setCountryName(String countryName) {
+      check();
+      super.setCountryName(countryName);
+    }
+
+    @Override
+    public void setRegionCode(String regionCode) {
+      check();
+      super.setRegionCode(regionCode);
+    }
+
+    @Override
+    public void setRegionName(String regionName) {
+      check();
+      super.setRegionName(regionName);
+    }
+
+    @Override
+    public void setCity(String city) {
+      check();
+      super.setCity(city);
+    }
+
+    @Override
+    public void setZipCode(String zipCode) {
+      check();
+      super.setZipCode(zipCode);
+    }
+
+    @Override
+    public void setLat(double lat) {
+      check();
+      super.setLat(lat);
+    }
+
+    @Override
+    public void setLat(Double lat) {
+      check();
+      super.setLat(lat);
+    }
+
+    @Override
+    public void setLon(double lon) {
+      check();
+      super.setLon(lon);
+    }
+
+    @Override
+    public void setLon(Double lon) {
+      check();
+      super.setLon(lon);
+    }
+
+    @Override
+    public void setMetroCode(String metroCode) {
+      check();
+      super.setMetroCode(metroCode);
+    }
+
+    @Override
+    public void clear() {
+      check();
+      super.clear();
+    }
+  }
+
+  private final Locator locator;
+  private final int prefixLength;
+  private final int shift;
+  private final AtomicReferenceArray<Entry> slots;
+  /* the clock hand of every set, racy on purpose */
+  private final int[] hands;
+  private final int setMask;
+  private final Counter hits = new Counter();
+  private final Counter misses = new Counter();
+  private final Counter evictions = new Counter();
+  private final Counter uncacheable = new Counter();
+
+  /**
+   * @param locator
+   *          the locator of the addresses that aren't cached
+   * @param prefixLength
+   *          the bits of the network prefix, 24 for the /24 networks
+   * @param capacity
+   *          the number of prefixes cached, rounded up to a power of two
+   *          multiple of {@link #WAYS}
+   */
+  public PrefixCache(Locator locator, int prefixLength, int capacity) {
+    if (prefixLength < 1 || prefixLength > 32) {
+      throw new IllegalArgumentException("prefix length must be between 1 and 32, is " + prefixLength);
+    }
+    if (capacity < 1) {
+      throw new IllegalArgumentException("capacity must be at least 1, is " + capacity);
+    }
+    this.locator = checkNotNull(locator);
+    this.prefixLength = prefixLength;
+    this.shift = 32 - prefixLength;
+    int sets = Integer.highestOneBit(Math.max(1, (capacity + WAYS - 1) / WAYS));
+    if (sets * WAYS < capacity) {
+      sets <<= 1;
+    }
+    this.slots = new AtomicReferenceArray<Entry>(sets * WAYS);
+    this.hands = new int[sets];
+    this.setMask = sets - 1;
+  }
+
+  /**
+   * Same as above, caching the /24 networks.
+   */
+  public PrefixCache(Locator locator, int capacity) {
+    this(locator, 24, capacity);
+  }
+
+  @Override
+  public IpSearchCityBean locate(long ip) throws IOException {
+    long prefix = ip >>> shift;
+    int set = set(prefix);
+    int first = set * WAYS;
+    for (int way = 0; way < WAYS; way++) {
+      Entry entry = slots.get(first + way);
+      if (entry != null && entry.prefix == prefix) {
+        if (!entry.referenced) {
+          entry.referenced = true;
+        }
+        hits.increment();
+        return entry.bean;
+      }
+    }
+    misses.increment();
+    IpSearchCityBean bean = locator.locate(ip);
+    if (bean != null) {
+      long start = prefix << shift;
+      long end = start | ((1l << shift) - 1);
+      if (bean.ipStart() <= start && end <= bean.ipEnd()) {
+        bean = new CachedBean(bean);
+        insert(set, new Entry(prefix, bean));
+      } else {
+        uncacheable.increment();
+      }
+    }
+    return bean;
+  }
+
+  private int set(long prefix) {
+    long hash = prefix * 0x9e3779b97f4a7c15l;
+    return (int) (hash >>> 32) & setMask;
+  }
+
+  /**
+   * Puts the entry in place of the first entry of the set the hand finds not
+   * referenced, unless another miss of the same prefix put it in already.
+   */
+  private void insert(int set, Entry entry) {
+    int first = set * WAYS;
+    for (int way = 0; way < WAYS; way++) {
+      Entry cached = slots.get(first + way);
+      if (cached != null && cached.prefix == entry.prefix) {
+        return;
+      }
+    }
+    int hand = hands[set];
+    // twice around the set at most, the first sweep clears every mark
+    for (int i = 0; i < WAYS * 2; i++) {
+      int slot = first + hand;
+      hand = (hand + 1) % WAYS;
+      Entry victim = slots.get(slot);
+      if (victim != null && victim.referenced) {
+        victim.referenced = false;
+        continue;
+      }
+      if (slots.compareAndSet(slot, victim, entry)) {
+        if (victim != null) {
+          evictions.increment();
+        }
+        break;
+      }
+    }
+    hands[set] = hand;
+  }
+
+  public int getPrefixLength() {
+    return prefixLength;
+  }
+
+  /**
+   * @return the number of prefixes the cache holds at most
+   */
+  public int capacity() {
+    return slots.length();
+  }
+
+  /**
+   * @return the lookups answered by the cache
+   */
+  public long getHits() {
+    return hits.get();
+  }
+
+  /**
+   * @return the lookups that went to the locator
+   */
+  public long getMisses() {
+    return misses.get();
+  }
+
+  /**
+   * @return the entries replaced by others
+   */
+  public long getEvictions() {
+    return evictions.get();
+  }
+
+  /**
+   * @return the misses whose prefix is split between ranges, which aren't
+   *         cached
+   */
+  public long getUncacheable() {
+    return uncacheable.get();
+  }
+
+  @Override
+  public String toString() {
+    return "PrefixCache /" + prefixLength + " of " + capacity() + ": " + hits + " hits, " + misses + " misses, " + evictions
+        + " evictions, " + uncacheable + " uncacheable";
+  }
+}
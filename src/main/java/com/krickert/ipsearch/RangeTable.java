@@ -0,0 +1,197 @@
+package com.krickert.ipsearch;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.supercsv.io.ByteTokenizer;
+import org.supercsv.prefs.CsvPreference;
+
+import com.krickert.ipsearch.city.IpInfoDbRowParser;
+import com.krickert.ipsearch.city.IpSearchCityBean;
+import com.krickert.ipsearch.city.SymbolTable;
+
+/**
+ * Finds the location of an IPv4 address without Lucene. A point lookup needs
+ * none of the index: the rows of the ip data are sorted, non overlapping
+ * ranges, each one ending where the next one starts. The table keeps the start
+ * of every range in a long[] and the id of its location in an int[], and a
+ * lookup is a binary search for the greatest start not above the address. It
+ * allocates nothing, and the values of the location are read from the
+ * {@link LocationStore} the ids were handed out for.
+ *
+ * Ranges next to each other with the same location are kept as one, so the
+ * table holds fewer ranges than the file has rows. The last range runs to the
+ * end of the address space. A table never changes once built and is thread
+ * safe.
+ *
+ * @author krickert
+ *
+ */
+public class RangeTable {
+  private static final Log log = LogFactory.getLog(RangeTable.class);
+  private static final CsvPreference preference = CsvPreference.EXCEL_NORTH_EUROPE_PREFERENCE;
+
+  /** The location of an address before the first range. */
+  public static final int NO_LOCATION = -1;
+
+  /**
+   * Collects the ranges in the order of the file.
+   */
+  public static class Builder {
+    private long[] starts = new long[1024];
+    private int[] locationIds = new int[1024];
+    private int size = 0;
+
+    /**
+     * @param ipStart
+     *          the start of the range, above the start of the range before
+     * @param locationId
+     *          the id of the location of the range
+     * @throws IllegalArgumentException
+     *           if the ranges don't come in order
+     */
+    public Builder add(long ipStart, int locationId) {
+      if (size > 0 && ipStart <= starts[size - 1]) {
+        throw new IllegalArgumentException("the range at " + ipStart + " comes after the range at " + starts[size - 1]);
+      }
+      if (size > 0 && locationIds[size - 1] == locationId) {
+        return this;
+      }
+      if (size == starts.length) {
+        starts = Arrays.copyOf(starts, size * 2);
+        locationIds = Arrays.copyOf(locationIds, size * 2);
+      }
+      starts[size] = ipStart;
+      locationIds[size] = locationId;
+      size++;
+      return this;
+    }
+
+    public RangeTable build() {
+      return new RangeTable(Arrays.copyOf(starts, size), Arrays.copyOf(locationIds, size));
+    }
+  }
+
+  private final long[] starts;
+  private final int[] locationIds;
+
+  private RangeTable(long[] starts, int[] locationIds) {
+    this.starts = starts;
+    this.locationIds = locationIds;
+  }
+
+  /**
+   * Reads the table from the ranges of an ipdb file. The indexer writes the
+   * file with the location ids of the {@link LocationStore} it writes next to
+   * it, so the ids of the table are the ones of that store and of the
+   * locations of the file, with no need to parse the csv file again.
+   */
+  public static RangeTable read(IpdbFile file) {
+    Builder builder = new Builder();
+    for (int range = 0; range < file.size(); range++) {
+      builder.add(file.start(range), file.locationIdOf(range));
+    }
+    RangeTable table = builder.build();
+    log.info("Read " + file.size() + " ranges of an ipdb file into a table of " + table.size() + " ranges");
+    return table;
+  }
+
+  /**
+   * Reads the table from the ipdb file of the published version of the index
+   * in the root directory.
+   */
+  public static RangeTable open(File indexRoot) throws IOException {
+    return read(IpdbFile.open(indexRoot));
+  }
+
+  /**
+   * Parses the csv file straight into a table, reusing a single bean for every
+   * row. The location of every row gets its id from the writer, which then
+   * holds every location the table refers to.
+   *
+   * The ids are handed out in the order the writer first sees the locations,
+   * so they only match the ids of a published store if the writer was opened
+   * on the directory of that store: it then starts with the locations of the
+   * store under their ids and only gives new ones to the locations the store
+   * doesn't have. A writer on any other directory gives ids of its own, to be
+   * read with the store it writes. {@link #read(IpdbFile)} reads the ids the
+   * indexer published instead.
+   *
+   * @param source
+   *          the csv file in the zip
+   * @param symbols
+   *          the table holding the canonical instance of every string value
+   * @param locations
+   *          the writer handing out the location ids
+   */
+  public static RangeTable read(ZipEntrySource source, SymbolTable symbols, LocationStoreWriter locations) throws IOException {
+    checkNotNull(locations);
+    ByteTokenizer tokenizer;
+    if (source.isMapped()) {
+      tokenizer = new ByteTokenizer(source.map(), preference);
+    } else {
+      tokenizer = new ByteTokenizer(source.openStream(), preference);
+    }
+    IpInfoDbRowParser parser = new IpInfoDbRowParser(tokenizer, symbols);
+    Builder builder = new Builder();
+    int rows = 0;
+    try {
+      parser.readHeader();
+      IpSearchCityBean bean = new IpSearchCityBean();
+      while (parser.readInto(bean) != null) {
+        builder.add(bean.ipStart(), locations.locationId(bean));
+        rows++;
+      }
+    } finally {
+      parser.close();
+    }
+    RangeTable table = builder.build();
+    log.info("Read " + rows + " rows into a table of " + table.size() + " ranges and " + locations.size() + " locations");
+    return table;
+  }
+
+  /**
+   * @return the number of ranges
+   */
+  public int size() {
+    return starts.length;
+  }
+
+  /**
+   * @param ip
+   *          an IPv4 address as a number, the way ipinfodb writes it
+   * @return the id of the location of the address, {@link #NO_LOCATION} if it
+   *         comes before the first range
+   */
+  public int locationId(long ip) {
+    int range = range(ip);
+    return range < 0 ? NO_LOCATION : locationIds[range];
+  }
+
+  /**
+   * @return the index of the range holding the address, -1 if it comes before
+   *         the first range
+   */
+  public int range(long ip) {
+    return Ranges.floor(starts, ip);
+  }
+
+  /**
+   * @return the first address of the range
+   */
+  public long start(int range) {
+    return starts[range];
+  }
+
+  /**
+   * @return the location id of the range
+   */
+  public int locationIdOf(int range) {
+    return locationIds[range];
+  }
+}
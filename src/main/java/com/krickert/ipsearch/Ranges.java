@@ -0,0 +1,52 @@
+package com.krickert.ipsearch;
+
+/**
+ * The search every reader of the ranges shares. The ranges don't overlap, so
+ * the range of an address is the one with the greatest start not above it.
+ *
+ * @author krickert
+ *
+ */
+final class Ranges {
+
+  private Ranges() {
+  }
+
+  /**
+   * @param starts
+   *          the starts of the ranges, sorted
+   * @return the index of the greatest start not above the address, -1 if every
+   *         start is above it
+   */
+  static int floor(long[] starts, long ip) {
+    int low = 0;
+    int high = starts.length - 1;
+    while (low <= high) {
+      int mid = (low + high) >>> 1;
+      if (starts[mid] <= ip) {
+        low = mid + 1;
+      } else {
+        high = mid - 1;
+      }
+    }
+    // high is the last range starting at or below the address
+    return high;
+  }
+
+  /**
+   * Same as above, over the starts of an ipdb file, read from its mapping.
+   */
+  static int floor(IpdbFile file, long ip) {
+    int low = 0;
+    int high = file.size() - 1;
+    while (low <= high) {
+      int mid = (low + high) >>> 1;
+      if (file.start(mid) <= ip) {
+        low = mid + 1;
+      } else {
+        high = mid - 1;
+      }
+    }
+    return high;
+  }
+}
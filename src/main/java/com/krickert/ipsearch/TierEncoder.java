@@ -0,0 +1,175 @@
+package com.krickert.ipsearch;
+
+import org.apache.lucene.spatial.tier.projections.CartesianTierPlotter;
+import org.apache.lucene.spatial.tier.projections.IProjector;
+import org.apache.lucene.spatial.tier.projections.SinusoidalProjector;
+import org.apache.lucene.util.NumericUtils;
+
+/**
+ * Encodes a location into the prefix coded lat, lon and cartesian tier values
+ * of its document. The plotters of the tier range are made once, and the
+ * projection of a location is computed once for all the tiers instead of once
+ * per tier: the plotters share a projector remembering the last coordinates it
+ * projected.
+ *
+ * The encodings are memoized by location in a small direct mapped cache, since
+ * thousands of consecutive ip ranges share the centroid of their city. An
+ * encoder is not thread safe, every thread encoding locations uses one of its
+ * own.
+ *
+ * @author krickert
+ *
+ */
+public class TierEncoder {
+  public static final int DEFAULT_START_TIER = 5;
+  public static final int DEFAULT_END_TIER = 15;
+  public static final String DEFAULT_TIER_PREFIX = "_localTier";
+  private static final int DEFAULT_CACHE_SIZE = 4096;
+
+  /**
+   * The encoded values of a location.
+   */
+  public static final class Location {
+    public final double lat;
+    public final double lon;
+    public final String latCode;
+    public final String lonCode;
+    /* the box id of every tier, from the start tier to the end tier */
+    public final String[] tierCodes;
+
+    Location(double lat, double lon, String latCode, String lonCode, String[] tierCodes) {
+      this.lat = lat;
+      this.lon = lon;
+      this.latCode = latCode;
+      this.lonCode = lonCode;
+      this.tierCodes = tierCodes;
+    }
+
+    boolean at(double lat, double lon) {
+      return Double.doubleToLongBits(this.lat) == Double.doubleToLongBits(lat)
+          && Double.doubleToLongBits(this.lon) == Double.doubleToLongBits(lon);
+    }
+  }
+
+  /**
+   * Projects through another projector, remembering the last coordinates so
+   * every plotter of a location gets them without projecting again.
+   */
+  private static final class LastProjection implements IProjector {
+    private final IProjector projector;
+    private double lat = Double.NaN;
+    private double lon = Double.NaN;
+    private double[] coords;
+
+    LastProjection(IProjector projector) {
+      this.projector = projector;
+    }
+
+    @Override
+    public double[] coords(double lat, double lon) {
+      if (coords == null || Double.doubleToLongBits(lat) != Double.doubleToLongBits(this.lat)
+          || Double.doubleToLongBits(lon) != Double.doubleToLongBits(this.lon)) {
+        coords = projector.coords(lat, lon);
+        this.lat = lat;
+        this.lon = lon;
+      }
+      return coords;
+    }
+
+    @Override
+    public String coordsAsString(double lat, double lon) {
+      return projector.coordsAsString(lat, lon);
+    }
+  }
+
+  public final int startTier;
+  public final int endTier;
+  private final CartesianTierPlotter[] plotters;
+  private final String[] fieldNames;
+  private final Location[] cache;
+  private final int mask;
+
+  /**
+   * @param startTier
+   *          the first tier encoded
+   * @param endTier
+   *          the last tier encoded
+   * @param tierPrefix
+   *          the prefix of the tier field names
+   * @param cacheSize
+   *          the number of locations memoized, rounded up to a power of two. 0
+   *          to encode every location again
+   */
+  public TierEncoder(int startTier, int endTier, String tierPrefix, int cacheSize) {
+    if (startTier < 0 || endTier < startTier) {
+      throw new IllegalArgumentException("not a valid tier range: " + startTier + " to " + endTier);
+    }
+    if (cacheSize < 0) {
+      throw new IllegalArgumentException("cache size must not be negative, is " + cacheSize);
+    }
+    this.startTier = startTier;
+    this.endTier = endTier;
+    IProjector projector = new LastProjection(new SinusoidalProjector());
+    this.plotters = new CartesianTierPlotter[endTier - startTier + 1];
+    this.fieldNames = new String[plotters.length];
+    for (int i = 0; i < plotters.length; i++) {
+      plotters[i] = new CartesianTierPlotter(startTier + i, projector, tierPrefix);
+      fieldNames[i] = plotters[i].getTierFieldName();
+    }
+    int size = cacheSize == 0 ? 0 : Integer.highestOneBit(cacheSize);
+    if (size < cacheSize) {
+      size <<= 1;
+    }
+    this.cache = new Location[size];
+    this.mask = size - 1;
+  }
+
+  /**
+   * Same as above, with the tiers 5 to 15 and their default prefix.
+   */
+  public TierEncoder() {
+    this(DEFAULT_START_TIER, DEFAULT_END_TIER, DEFAULT_TIER_PREFIX, DEFAULT_CACHE_SIZE);
+  }
+
+  /**
+   * @return the field name of every tier, from the start tier to the end tier
+   */
+  public String[] getFieldNames() {
+    return fieldNames.clone();
+  }
+
+  public int getTierCount() {
+    return plotters.length;
+  }
+
+  /**
+   * @return the encoded values of the location, shared with later calls for
+   *         the same location
+   */
+  public Location encode(double lat, double lon) {
+    if (cache.length == 0) {
+      return compute(lat, lon);
+    }
+    int slot = slot(lat, lon);
+    Location location = cache[slot];
+    if (location == null || !location.at(lat, lon)) {
+      location = compute(lat, lon);
+      cache[slot] = location;
+    }
+    return location;
+  }
+
+  private int slot(double lat, double lon) {
+    long bits = Double.doubleToLongBits(lat) * 31 + Double.doubleToLongBits(lon);
+    int hash = (int) (bits ^ (bits >>> 32));
+    return (hash ^ (hash >>> 16)) & mask;
+  }
+
+  private Location compute(double lat, double lon) {
+    String[] tierCodes = new String[plotters.length];
+    for (int i = 0; i < plotters.length; i++) {
+      tierCodes[i] = NumericUtils.doubleToPrefixCoded(plotters[i].getTierBoxId(lat, lon));
+    }
+    return new Location(lat, lon, NumericUtils.doubleToPrefixCoded(lat), NumericUtils.doubleToPrefixCoded(lon), tierCodes);
+  }
+}
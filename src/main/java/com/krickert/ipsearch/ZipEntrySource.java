@@ -0,0 +1,242 @@
+package com.krickert.ipsearch;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+import com.krickert.io.Files;
+import com.krickert.io.ReadAheadInputStream;
+
+/**
+ * Gives access to the csv file inside the downloaded zip. The entry is found
+ * through the central directory of the zip instead of walking every entry
+ * before it, and how it is inflated depends on the {@link Mode}:
+ * <ul>
+ * <li>{@link Mode#STREAM} inflates on the thread reading the data
+ * <li>{@link Mode#INFLATER} inflates on a thread of its own into a ring of
+ * large reusable buffers, so inflating overlaps with parsing
+ * <li>{@link Mode#CACHE} extracts the entry once into a cache file which is
+ * memory mapped. As long as the cache file is newer than the zip, e.g. with
+ * <i>ipsearch.should.download=false</i>, later builds don't inflate at all
+ * </ul>
+ *
+ * @author krickert
+ *
+ */
+public class ZipEntrySource {
+  private static final Log log = LogFactory.getLog(ZipEntrySource.class);
+
+  public enum Mode {
+    STREAM, INFLATER, CACHE
+  }
+
+  /* the ring of the inflater thread, 4 buffers of 8 megabytes */
+  private static final int INFLATER_BUFFERS = 4;
+  private static final int INFLATER_BUFFER_SIZE = 8 << 20;
+  private static final int COPY_BUFFER_SIZE = 1 << 16;
+
+  public final String zipFileName;
+  public final String fileInZip;
+  public final Mode mode;
+  private final File cacheFile;
+
+  /**
+   * @param zipFileName
+   *          the name of the zip file
+   * @param fileInZip
+   *          the path and name of the csv file in the zip file
+   * @param mode
+   *          how the entry is inflated
+   * @param cacheFileName
+   *          the file the entry is extracted to in {@link Mode#CACHE}, ignored
+   *          otherwise
+   */
+  public ZipEntrySource(String zipFileName, String fileInZip, Mode mode, String cacheFileName) {
+    this.zipFileName = checkNotNull(zipFileName);
+    this.fileInZip = checkNotNull(fileInZip);
+    this.mode = checkNotNull(mode);
+    if (mode == Mode.CACHE) {
+      this.cacheFile = new File(checkNotNull(cacheFileName));
+    } else {
+      this.cacheFile = null;
+    }
+  }
+
+  /**
+   * Same as above, streaming the entry with no cache file.
+   */
+  public ZipEntrySource(String zipFileName, String fileInZip) {
+    this(zipFileName, fileInZip, Mode.STREAM, null);
+  }
+
+  /**
+   * @return true if the data is best read through {@link #map()}
+   */
+  public boolean isMapped() {
+    return mode == Mode.CACHE;
+  }
+
+  /**
+   * Opens the csv data as a stream. In {@link Mode#CACHE} this reads the cache
+   * file, extracting it first if needed.
+   *
+   * @return the stream, which the caller must close
+   */
+  public InputStream openStream() throws IOException {
+    if (mode == Mode.CACHE) {
+      return new FileInputStream(extract());
+    }
+    InputStream entry = openEntry();
+    if (mode == Mode.INFLATER) {
+      return new ReadAheadInputStream(entry, INFLATER_BUFFERS, INFLATER_BUFFER_SIZE, "inflater " + fileInZip);
+    }
+    return entry;
+  }
+
+  /**
+   * Gets the whole csv data at once. In {@link Mode#CACHE} the cache file is
+   * memory mapped, otherwise the entry is inflated into the heap.
+   *
+   * @return the data from its position to its limit
+   */
+  public ByteBuffer map() throws IOException {
+    if (mode == Mode.CACHE) {
+      return Files.map(extract());
+    }
+    long size = entrySize();
+    InputStream in = openStream();
+    try {
+      return readFully(in, size);
+    } finally {
+      in.close();
+    }
+  }
+
+  /**
+   * Extracts the entry into the cache file unless the cache file is already
+   * newer than the zip and of the size of the entry.
+   *
+   * @return the cache file
+   */
+  File extract() throws IOException {
+    File zipFile = new File(zipFileName);
+    ZipFile zip = openZip();
+    try {
+      ZipEntry entry = findEntry(zip);
+      if (cacheFile.exists() && cacheFile.lastModified() >= zipFile.lastModified()
+          && (entry.getSize() < 0 || entry.getSize() == cacheFile.length())) {
+        log.info("Using the cache file " + cacheFile + " extracted from " + zipFileName + ", skipping inflating.");
+        return cacheFile;
+      }
+      log.info("Extracting " + fileInZip + " from " + zipFileName + " to the cache file " + cacheFile);
+      // extract next to the cache file and rename so a failed extraction
+      // never looks like a valid cache
+      File tmp = new File(cacheFile.getPath() + ".tmp");
+      InputStream in = zip.getInputStream(entry);
+      OutputStream out = new FileOutputStream(tmp);
+      try {
+        byte[] buffer = new byte[COPY_BUFFER_SIZE];
+        int n;
+        while ((n = in.read(buffer)) >= 0) {
+          out.write(buffer, 0, n);
+        }
+      } finally {
+        out.close();
+        in.close();
+      }
+      Files.replace(tmp, cacheFile);
+      return cacheFile;
+    } finally {
+      zip.close();
+    }
+  }
+
+  /**
+   * @return the stream of the inflated entry, closing the zip file once it is
+   *         closed
+   */
+  private InputStream openEntry() throws IOException {
+    final ZipFile zip = openZip();
+    try {
+      return new FilterInputStream(zip.getInputStream(findEntry(zip))) {
+        @Override
+        public void close() throws IOException {
+          try {
+            super.close();
+          } finally {
+            zip.close();
+          }
+        }
+      };
+    } catch (IllegalArgumentException e) {
+      zip.close();
+      throw e;
+    }
+  }
+
+  /**
+   * @return the inflated size of the entry, -1 if the zip doesn't tell
+   */
+  private long entrySize() throws IOException {
+    ZipFile zip = openZip();
+    try {
+      return findEntry(zip).getSize();
+    } finally {
+      zip.close();
+    }
+  }
+
+  private ZipFile openZip() {
+    try {
+      return new ZipFile(zipFileName);
+    } catch (IOException e) {
+      log.fatal("The file we were supposed to download does not exist or is not a zip file: [" + zipFileName + "]", e);
+      throw new IllegalStateException("File check occurred after downloading/starting application and is no longer there.", e);
+    }
+  }
+
+  private ZipEntry findEntry(ZipFile zip) {
+    ZipEntry entry = zip.getEntry(fileInZip);
+    if (entry == null) {
+      log.error("The zip file is valid but does not match the ${ipsearch.fileinzip} entry from the project.properties file");
+      throw new IllegalArgumentException("Couldn't find file " + fileInZip + " in zip archive " + zipFileName);
+    }
+    return entry;
+  }
+
+  /**
+   * Reads the whole stream into a heap buffer.
+   *
+   * @param size
+   *          the expected size of the data, -1 if unknown
+   */
+  static ByteBuffer readFully(InputStream in, long size) throws IOException {
+    if (size >= Integer.MAX_VALUE) {
+      throw new IllegalStateException("The entry is larger than 2GB and can't be read into memory, use the cache mode.");
+    }
+    // one byte more than expected so reaching the end doesn't grow the array
+    byte[] data = new byte[size < 0 ? 1 << 20 : (int) size + 1];
+    int length = 0;
+    int n;
+    while ((n = in.read(data, length, data.length - length)) >= 0) {
+      length += n;
+      if (length == data.length) {
+        data = Arrays.copyOf(data, data.length << 1);
+      }
+    }
+    return ByteBuffer.wrap(data, 0, length);
+  }
+}
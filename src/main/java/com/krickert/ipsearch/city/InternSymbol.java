@@ -0,0 +1,36 @@
+package com.krickert.ipsearch.city;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+
+import org.supercsv.cellprocessor.CellProcessorAdaptor;
+import org.supercsv.cellprocessor.ift.CellProcessor;
+import org.supercsv.cellprocessor.ift.StringCellProcessor;
+import org.supercsv.util.CSVContext;
+
+/**
+ * A cell processor replacing the String of a cell with its canonical instance
+ * from a {@link SymbolTable}. Chain it after the constraints of the column,
+ * e.g. <code>new StrMinMax(2l, 2l, new InternSymbol(symbols))</code>, so only
+ * valid values are added to the table.
+ *
+ * @author krickert
+ *
+ */
+public class InternSymbol extends CellProcessorAdaptor implements StringCellProcessor {
+  private final SymbolTable symbols;
+
+  public InternSymbol(SymbolTable symbols) {
+    super();
+    this.symbols = checkNotNull(symbols);
+  }
+
+  public InternSymbol(SymbolTable symbols, CellProcessor next) {
+    super(next);
+    this.symbols = checkNotNull(symbols);
+  }
+
+  @Override
+  public Object execute(Object value, CSVContext context) {
+    return next.execute(value == null ? null : symbols.intern(value.toString()), context);
+  }
+}
@@ -0,0 +1,211 @@
+package com.krickert.ipsearch.city;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+
+import java.io.IOException;
+import java.nio.charset.Charset;
+
+import org.supercsv.cellprocessor.Optional;
+import org.supercsv.cellprocessor.ParseDouble;
+import org.supercsv.cellprocessor.ParseFixedDouble;
+import org.supercsv.cellprocessor.ParseLongRange;
+import org.supercsv.cellprocessor.constraint.LMinMax;
+import org.supercsv.cellprocessor.constraint.StrMinMax;
+import org.supercsv.cellprocessor.ift.CellProcessor;
+import org.supercsv.exception.SuperCSVException;
+import org.supercsv.io.ByteTokenizer;
+import org.supercsv.util.ByteSlice;
+import org.supercsv.util.CSVContext;
+
+/**
+ * Parses the rows of the ipinfodb city file straight from the byte slices of a
+ * {@link ByteTokenizer} into an {@link IpSearchCityBean}. It does the work of
+ * the generic chain returned by {@link #cellProcessors(SymbolTable)} in one
+ * pass over the row: no line list, no CSVContext and no boxed values are made
+ * for a valid row, the numbers are parsed from the bytes by the primitive
+ * {@link ParseLongRange} and {@link ParseFixedDouble}, and a string column
+ * repeating the value of the row before it reuses that String without
+ * decoding. The constraints and the error messages are the same as the
+ * chain's.
+ *
+ * The column layout is fixed to the one of the file:
+ *
+ * <pre>
+ * "ip_start";"country_code";"country_name";"region_code";"region_name";"city";"zipcode";"latitude";"longitude";"metrocode"
+ * </pre>
+ *
+ * @author krickert
+ *
+ */
+public class IpInfoDbRowParser {
+  /* the bean property of every column, in the order of the file */
+  public static final String[] COLUMN_MAPPING = { "ipStart", "countryCode", "countryName", "regionCode", "regionName", "city", "zipCode",
+      "lat", "lon", "metroCode" };
+
+  private static final int COLUMNS = COLUMN_MAPPING.length;
+  private static final long IP_MIN = 0l;
+  private static final long IP_MAX = 4278190080l;
+  /* the minimum and maximum length of the string columns 1 to 6 */
+  private static final int[] MIN_LENGTH = { 0, 2, 4, 0, 0, 0, 0 };
+  private static final int[] MAX_LENGTH = { 0, 2, 50, 2, 50, 34, 6 };
+  private static final int COUNTRY_NAME = 2;
+  private static final int METRO_CODE = 9;
+
+  private final ByteTokenizer tokenizer;
+  private final SymbolTable symbols;
+  private final Charset charset;
+  /* the processor each rejected string cell is reported against */
+  private final CellProcessor[] processors;
+  private final ParseLongRange ipParser = new ParseLongRange(IP_MIN, IP_MAX);
+  private final ParseFixedDouble degreeParser = new ParseFixedDouble();
+  /* the view of the cell being parsed and its position, reused for every cell */
+  private final ByteSlice cell;
+  private final CSVContext context = new CSVContext();
+
+  /* the bytes and the interned value of the string columns of the last row */
+  private final byte[][] lastBytes = new byte[COLUMNS][];
+  private final int[] lastLength = new int[COLUMNS];
+  private final String[] lastValue = new String[COLUMNS];
+
+  /**
+   * @param tokenizer
+   *          the tokenizer over the rows of the file
+   * @param symbols
+   *          the table the string columns are interned into
+   */
+  public IpInfoDbRowParser(ByteTokenizer tokenizer, SymbolTable symbols) {
+    this.tokenizer = checkNotNull(tokenizer);
+    this.symbols = checkNotNull(symbols);
+    this.charset = tokenizer.getCharset();
+    this.processors = cellProcessors(symbols);
+    this.cell = new ByteSlice(charset);
+    for (int i = 0; i < COLUMNS; i++) {
+      lastBytes[i] = new byte[64];
+      lastLength[i] = -1;
+    }
+  }
+
+  /**
+   * The generic cell processors doing the same as this parser, for a
+   * CsvBeanReader mapping the columns with {@link #COLUMN_MAPPING}. The
+   * constraints were figured out by analyzing the data within. The string
+   * columns repeat the same few values millions of times, so they're interned
+   * into the symbol table once they passed their constraint.
+   */
+  public static CellProcessor[] cellProcessors(SymbolTable symbols) {
+    return new CellProcessor[] { new LMinMax(IP_MIN, IP_MAX), new StrMinMax(2l, 2l, new InternSymbol(symbols)),
+        new Optional(new StrMinMax(4l, 50l, new InternSymbol(symbols))), new StrMinMax(0l, 2l, new InternSymbol(symbols)),
+        new StrMinMax(0l, 50l, new InternSymbol(symbols)), new StrMinMax(0l, 34l, new InternSymbol(symbols)),
+        new StrMinMax(0l, 6l, new InternSymbol(symbols)), new ParseDouble(), new ParseDouble(), new InternSymbol(symbols) };
+  }
+
+  /**
+   * Reads the header row, which must be the first row of the file.
+   *
+   * @return the header, null if the file is empty
+   */
+  public String[] readHeader() throws IOException {
+    if (tokenizer.getLineNumber() != 0) {
+      throw new SuperCSVException("CSV header can only be fetched as the first line of the file");
+    }
+    if (!tokenizer.readRow()) {
+      return null;
+    }
+    String[] header = new String[tokenizer.getColumnCount()];
+    for (int i = 0; i < header.length; i++) {
+      header[i] = tokenizer.getString(i);
+    }
+    return header;
+  }
+
+  /**
+   * Reads the next row into the bean. Every column is set, the ipEnd is left
+   * as it is.
+   *
+   * @return the bean, or null at the end of the file
+   * @throws SuperCSVException
+   *           if a cell breaks the constraints of its column
+   */
+  public IpSearchCityBean readInto(IpSearchCityBean bean) throws IOException {
+    if (!tokenizer.readRow()) {
+      return null;
+    }
+    context.lineNumber = tokenizer.getLineNumber();
+    context.columnNumber = 0;
+    if (tokenizer.getColumnCount() != COLUMNS) {
+      throw new SuperCSVException("The value array (size " + tokenizer.getColumnCount() + ")  must match the processors array (size "
+          + COLUMNS + "):" + " You are probably reading a CSV line with a different number of columns"
+          + " than the number of cellprocessors specified", context);
+    }
+    byte[] buf = tokenizer.getBuffer();
+    ByteSlice number = cell(buf, 0);
+    bean.setIpStart(ipParser.parseLong(number, 0, number.length(), context));
+    bean.setCountryCode(symbol(buf, 1));
+    bean.setCountryName(symbol(buf, COUNTRY_NAME));
+    bean.setRegionCode(symbol(buf, 3));
+    bean.setRegionName(symbol(buf, 4));
+    bean.setCity(symbol(buf, 5));
+    bean.setZipCode(symbol(buf, 6));
+    number = cell(buf, 7);
+    bean.setLat(degreeParser.parseDouble(number, 0, number.length(), context));
+    number = cell(buf, 8);
+    bean.setLon(degreeParser.parseDouble(number, 0, number.length(), context));
+    bean.setMetroCode(symbol(buf, METRO_CODE));
+    return bean;
+  }
+
+  public int getLineNumber() {
+    return tokenizer.getLineNumber();
+  }
+
+  public void close() throws IOException {
+    tokenizer.close();
+  }
+
+  /**
+   * @return the view of the cell, with the context pointing at it
+   */
+  private ByteSlice cell(byte[] buf, int column) {
+    context.columnNumber = column;
+    return cell.set(buf, tokenizer.getOffset(column), tokenizer.getLength(column));
+  }
+
+  /**
+   * Same as StrMinMax followed by InternSymbol, or Optional for the country
+   * name. A value equal to the one of the last row is taken over as is, it
+   * passed the constraint already.
+   */
+  private String symbol(byte[] buf, int column) {
+    int offset = tokenizer.getOffset(column);
+    int length = tokenizer.getLength(column);
+    if (column == COUNTRY_NAME && length == 0) {
+      return null;
+    }
+    if (length == lastLength[column] && sameBytes(buf, offset, lastBytes[column], length)) {
+      return lastValue[column];
+    }
+    String value = new String(buf, offset, length, charset);
+    if (column != METRO_CODE && (value.length() < MIN_LENGTH[column] || value.length() > MAX_LENGTH[column])) {
+      context.columnNumber = column;
+      throw new SuperCSVException("Entry \"" + value + "\" on line " + context.lineNumber + " column " + context.columnNumber
+          + " is not within the string sizes " + MIN_LENGTH[column] + " - " + MAX_LENGTH[column], context, processors[column]);
+    }
+    value = symbols.intern(value);
+    if (lastBytes[column].length < length) {
+      lastBytes[column] = new byte[Math.max(length, lastBytes[column].length << 1)];
+    }
+    System.arraycopy(buf, offset, lastBytes[column], 0, length);
+    lastLength[column] = length;
+    lastValue[column] = value;
+    return value;
+  }
+
+  private static boolean sameBytes(byte[] buf, int offset, byte[] last, int length) {
+    for (int i = 0; i < length; i++) {
+      if (buf[offset + i] != last[i]) {
+        return false;
+      }
+    }
+    return true;
+  }
+}
@@ -24,39 +24,75 @@ package com.krickert.ipsearch.city;
  * "3523140848";"US";"United States";"17";"Illinois";"Chicago";"60657";"41.9373";"-87.6551";"602"
  * </pre>
  * 
+ * The ip addresses and coordinates are kept in primitive fields so a row does
+ * not allocate boxed values; use the primitive accessors such as
+ * {@link #ipStart()} on hot paths. The boxed getters and setters remain for
+ * the bean conventions SuperCSV and older callers rely on; a boxed setter
+ * given null sets 0, the value of a cleared bean, since a primitive can't hold
+ * null. A bean can be {@link #clear() cleared} and reused through an
+ * {@link IpSearchCityBeanPool}.
+ * 
  * @author krickert
  * 
  */
 public class IpSearchCityBean {
+  private static final long FNV_OFFSET = 0xcbf29ce484222325l;
+  private static final long FNV_PRIME = 0x100000001b3l;
 
-  private Long ipStart;// minlen 1 max len 10 max value 4278190080
-  private Long ipEnd;// the next ip address in a row.
+  private long ipStart;// minlen 1 max len 10 max value 4278190080
+  private long ipEnd;// the next ip address in a row.
   private String countryCode;// max length 2 required
   private String countryName;// min length 4 max length 32 required
   private String regionCode;// max length 2 optional
   private String regionName;// min length 2 max length 41 optional
   private String city; // min length 1 max length 34 optional
   private String zipCode;// min length 2 max length 6 optional
-  private Double lat;// min max required
-  private Double lon;// min max required
+  private double lat;// min max required
+  private double lon;// min max required
   private String metroCode;// a length 3 optional
 
+  public long ipStart() {
+    return ipStart;
+  }
+
   public Long getIpStart() {
     return ipStart;
   }
 
-  public void setIpStart(Long ipStart) {
+  public void setIpStart(long ipStart) {
     this.ipStart = ipStart;
   }
 
+  /**
+   * @param ipStart
+   *          the value, or null for none, which sets 0 as a cleared bean
+   *          has
+   */
+  public void setIpStart(Long ipStart) {
+    this.ipStart = ipStart == null ? 0l : ipStart;
+  }
+
+  public long ipEnd() {
+    return ipEnd;
+  }
+
   public Long getIpEnd() {
     return ipEnd;
   }
 
-  public void setIpEnd(Long ipEnd) {
+  public void setIpEnd(long ipEnd) {
     this.ipEnd = ipEnd;
   }
 
+  /**
+   * @param ipEnd
+   *          the value, or null for none, which sets 0 as a cleared bean
+   *          has
+   */
+  public void setIpEnd(Long ipEnd) {
+    this.ipEnd = ipEnd == null ? 0l : ipEnd;
+  }
+
   public String getCountryCode() {
     return countryCode;
   }
@@ -105,22 +141,48 @@ public class IpSearchCityBean {
     this.zipCode = zipCode;
   }
 
+  public double lat() {
+    return lat;
+  }
+
   public Double getLat() {
     return lat;
   }
 
-  public void setLat(Double lat) {
+  public void setLat(double lat) {
     this.lat = lat;
   }
 
+  /**
+   * @param lat
+   *          the value, or null for none, which sets 0 as a cleared bean
+   *          has
+   */
+  public void setLat(Double lat) {
+    this.lat = lat == null ? 0d : lat;
+  }
+
+  public double lon() {
+    return lon;
+  }
+
   public Double getLon() {
     return lon;
   }
 
-  public void setLon(Double lon) {
+  public void setLon(double lon) {
     this.lon = lon;
   }
 
+  /**
+   * @param lon
+   *          the value, or null for none, which sets 0 as a cleared bean
+   *          has
+   */
+  public void setLon(Double lon) {
+    this.lon = lon == null ? 0d : lon;
+  }
+
   public String getMetroCode() {
     return metroCode;
   }
@@ -129,6 +191,60 @@ public class IpSearchCityBean {
     this.metroCode = metroCode;
   }
 
+  /**
+   * Resets every field so the bean can be filled with the next row.
+   */
+  public void clear() {
+    ipStart = 0l;
+    ipEnd = 0l;
+    countryCode = null;
+    countryName = null;
+    regionCode = null;
+    regionName = null;
+    city = null;
+    zipCode = null;
+    lat = 0d;
+    lon = 0d;
+    metroCode = null;
+  }
+
+  /**
+   * @return a 64 bit FNV-1a hash of every value of the row, which tells an
+   *         indexed row from a changed one without reading it back
+   */
+  public long signature() {
+    long hash = FNV_OFFSET;
+    hash = hash(hash, ipStart);
+    hash = hash(hash, ipEnd);
+    hash = hash(hash, countryCode);
+    hash = hash(hash, countryName);
+    hash = hash(hash, regionCode);
+    hash = hash(hash, regionName);
+    hash = hash(hash, city);
+    hash = hash(hash, zipCode);
+    hash = hash(hash, Double.doubleToLongBits(lat));
+    hash = hash(hash, Double.doubleToLongBits(lon));
+    return hash(hash, metroCode);
+  }
+
+  private static long hash(long hash, long value) {
+    for (int i = 0; i < 64; i += 8) {
+      hash = (hash ^ ((value >>> i) & 0xff)) * FNV_PRIME;
+    }
+    return hash;
+  }
+
+  private static long hash(long hash, String value) {
+    if (value == null) {
+      return (hash ^ 0xff) * FNV_PRIME;
+    }
+    for (int i = 0; i < value.length(); i++) {
+      hash = (hash ^ value.charAt(i)) * FNV_PRIME;
+    }
+    // ends the value so "ab","c" differs from "a","bc"
+    return (hash ^ 0xfe) * FNV_PRIME;
+  }
+
   @Override
   public String toString() {
     StringBuilder builder = new StringBuilder();
@@ -0,0 +1,99 @@
+package com.krickert.ipsearch.city;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+
+import java.util.List;
+
+import org.supercsv.exception.SuperCSVException;
+import org.supercsv.util.BeanBinder;
+
+/**
+ * Binds a processed csv row to an {@link IpSearchCityBean} by calling the set
+ * methods directly. The name mapping is resolved to a column id once when the
+ * binder is made, so filling a bean is a switch per column instead of a
+ * reflective lookup and invoke per cell.
+ *
+ * @author krickert
+ *
+ */
+public class IpSearchCityBeanBinder implements BeanBinder<IpSearchCityBean> {
+  private static final String[] PROPERTIES = { "ipStart", "ipEnd", "countryCode", "countryName", "regionCode", "regionName", "city",
+      "zipCode", "lat", "lon", "metroCode" };
+  private static final int IGNORED = -1;
+
+  private final int[] columns;
+
+  /**
+   * @param nameMapping
+   *          the bean property of each column, null for a column that is
+   *          ignored. Same as the name mapping given to the CsvBeanReader.
+   */
+  public IpSearchCityBeanBinder(String... nameMapping) {
+    checkNotNull(nameMapping);
+    columns = new int[nameMapping.length];
+    for (int i = 0; i < nameMapping.length; i++) {
+      columns[i] = propertyId(nameMapping[i]);
+    }
+  }
+
+  private static int propertyId(String name) {
+    if (name == null) {
+      return IGNORED;
+    }
+    for (int id = 0; id < PROPERTIES.length; id++) {
+      if (PROPERTIES[id].equals(name)) {
+        return id;
+      }
+    }
+    throw new IllegalArgumentException("IpSearchCityBean has no property named " + name);
+  }
+
+  @Override
+  public void bind(IpSearchCityBean bean, List<? extends Object> values) throws SuperCSVException {
+    for (int i = 0; i < columns.length; i++) {
+      Object value = values.get(i);
+      try {
+        switch (columns[i]) {
+        case IGNORED:
+          break;
+        case 0:
+          bean.setIpStart((Long) value);
+          break;
+        case 1:
+          bean.setIpEnd((Long) value);
+          break;
+        case 2:
+          bean.setCountryCode((String) value);
+          break;
+        case 3:
+          bean.setCountryName((String) value);
+          break;
+        case 4:
+          bean.setRegionCode((String) value);
+          break;
+        case 5:
+          bean.setRegionName((String) value);
+          break;
+        case 6:
+          bean.setCity((String) value);
+          break;
+        case 7:
+          bean.setZipCode((String) value);
+          break;
+        case 8:
+          bean.setLat((Double) value);
+          break;
+        case 9:
+          bean.setLon((Double) value);
+          break;
+        case 10:
+          bean.setMetroCode((String) value);
+          break;
+        }
+      } catch (ClassCastException e) {
+        throw new SuperCSVException("Property " + PROPERTIES[columns[i]] + " does not accept input \"" + value + "\" of type "
+            + value.getClass().getName(), null, e);
+      }
+    }
+  }
+}
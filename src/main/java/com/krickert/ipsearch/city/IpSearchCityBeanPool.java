@@ -0,0 +1,114 @@
+package com.krickert.ipsearch.city;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import com.krickert.concurrent.RingBufferQueue;
+
+/**
+ * A free list of {@link IpSearchCityBean} instances so the same beans travel
+ * from the reader to the indexer and back instead of being garbage collected
+ * after every row. The reader acquires a bean for each row and the indexer
+ * releases it once the document was built from it.
+ *
+ * Every thread keeps a free list of its own, so acquiring and releasing a bean
+ * takes no lock and touches nothing shared. A thread that released a full
+ * batch of beans hands the batch over a lock-free {@link RingBufferQueue}, and
+ * a thread that ran out takes a whole batch from it, so the beans the indexer
+ * threads release find their way back to the reader at one handoff per
+ * {@link #BATCH} rows.
+ *
+ * The pool never blocks: acquiring from an empty pool creates a new bean and
+ * releasing into a full pool drops the batch. The capacity bounds the beans
+ * handed between threads, every thread holds up to a batch more. Sizing it a
+ * little above the capacity of the reader queue means no bean is created once
+ * the pipeline is full. A capacity of 0 turns recycling off.
+ *
+ * @author krickert
+ *
+ */
+public class IpSearchCityBeanPool {
+  /** The beans a thread frees before handing them to the other threads. */
+  public static final int BATCH = 64;
+
+  private final int capacity;
+  private final int batchSize;
+  private final RingBufferQueue<List<IpSearchCityBean>> batches;
+  /* the beans of the batches in the ring, changed once per batch */
+  private final AtomicInteger pooled = new AtomicInteger();
+  private final ThreadLocal<List<IpSearchCityBean>> local = new ThreadLocal<List<IpSearchCityBean>>() {
+    @Override
+    protected List<IpSearchCityBean> initialValue() {
+      return new ArrayList<IpSearchCityBean>(batchSize);
+    }
+  };
+
+  /**
+   * @param capacity
+   *          the maximum number of free beans held for reuse, 0 disables
+   *          recycling
+   */
+  public IpSearchCityBeanPool(int capacity) {
+    if (capacity < 0) {
+      throw new IllegalArgumentException("capacity must be >= 0, is " + capacity);
+    }
+    this.capacity = capacity;
+    this.batchSize = Math.max(1, Math.min(BATCH, capacity));
+    this.batches = capacity == 0 ? null : new RingBufferQueue<List<IpSearchCityBean>>(Math.max(1, capacity / batchSize));
+  }
+
+  /**
+   * @return a cleared bean from the pool or a new one if none is free
+   */
+  public IpSearchCityBean acquire() {
+    if (batches == null) {
+      return new IpSearchCityBean();
+    }
+    List<IpSearchCityBean> free = local.get();
+    if (free.isEmpty()) {
+      List<IpSearchCityBean> batch = batches.poll();
+      if (batch == null) {
+        return new IpSearchCityBean();
+      }
+      pooled.addAndGet(-batch.size());
+      // the batch becomes the free list of this thread
+      free = batch;
+      local.set(free);
+    }
+    return free.remove(free.size() - 1);
+  }
+
+  /**
+   * Clears the bean and returns it to the pool. The caller must not use the
+   * bean afterwards.
+   *
+   * @param bean
+   *          the bean that is no longer used
+   */
+  public void release(IpSearchCityBean bean) {
+    if (batches == null || bean == null) {
+      return;
+    }
+    bean.clear();
+    List<IpSearchCityBean> free = local.get();
+    free.add(bean);
+    if (free.size() >= batchSize) {
+      if (pooled.get() + free.size() <= capacity && batches.offer(free)) {
+        pooled.addAndGet(free.size());
+        local.set(new ArrayList<IpSearchCityBean>(batchSize));
+      } else {
+        // the pool is full, the beans go to the garbage collector
+        free.clear();
+      }
+    }
+  }
+
+  /**
+   * @return the number of beans free for reuse by the calling thread, its own
+   *         and the ones handed between threads
+   */
+  public int available() {
+    return batches == null ? 0 : pooled.get() + local.get().size();
+  }
+}
@@ -0,0 +1,98 @@
+package com.krickert.ipsearch.city;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Maps every distinct value of the low cardinality columns (country, region,
+ * city, zip and metro code) to one canonical String and a small int id. The
+ * ip data repeats these values millions of times, so interning them while
+ * parsing leaves a single instance of each value on the heap instead of one per
+ * row, and lets later stages compare ids instead of strings.
+ *
+ * Lookups of known values don't lock. Adding a new value takes a lock, which is
+ * rare since the number of distinct values is small compared to the number of
+ * rows. Ids are handed out in the order values are first seen, starting at 0.
+ *
+ * @author krickert
+ *
+ */
+public class SymbolTable {
+
+  /**
+   * A canonical value and its id.
+   */
+  public static final class Symbol {
+    public final String value;
+    public final int id;
+
+    Symbol(String value, int id) {
+      this.value = value;
+      this.id = id;
+    }
+
+    @Override
+    public String toString() {
+      return id + ":" + value;
+    }
+  }
+
+  private final ConcurrentMap<String, Symbol> symbols = new ConcurrentHashMap<String, Symbol>(4096);
+  /* the values by id, only changed while holding the lock on this list */
+  private final List<String> values = new ArrayList<String>(4096);
+
+  /**
+   * @return the symbol of the value, adding it if it wasn't seen before
+   */
+  public Symbol symbol(String value) {
+    Symbol symbol = symbols.get(checkNotNull(value));
+    if (symbol == null) {
+      synchronized (values) {
+        symbol = symbols.get(value);
+        if (symbol == null) {
+          symbol = new Symbol(value, values.size());
+          values.add(value);
+          symbols.put(value, symbol);
+        }
+      }
+    }
+    return symbol;
+  }
+
+  /**
+   * @return the canonical instance of the value, null for null
+   */
+  public String intern(String value) {
+    return value == null ? null : symbol(value).value;
+  }
+
+  /**
+   * @return the id of the value or -1 if the value is null or not in the table
+   */
+  public int id(String value) {
+    Symbol symbol = value == null ? null : symbols.get(value);
+    return symbol == null ? -1 : symbol.id;
+  }
+
+  /**
+   * @return the value with the id
+   * @throws IndexOutOfBoundsException
+   *           if no value has the id
+   */
+  public String value(int id) {
+    synchronized (values) {
+      return values.get(id);
+    }
+  }
+
+  /**
+   * @return the number of distinct values in the table
+   */
+  public int size() {
+    return symbols.size();
+  }
+}
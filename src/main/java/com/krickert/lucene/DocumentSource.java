@@ -0,0 +1,33 @@
+package com.krickert.lucene;
+
+import org.apache.lucene.document.Document;
+import org.apache.lucene.index.Term;
+
+/**
+ * Builds the document of a value on the thread that adds it to the index, so
+ * every writer thread can fill a document and fields of its own again and
+ * again instead of the producer making a new document per value.
+ * 
+ * @author krickert
+ * 
+ */
+public interface DocumentSource<T> {
+
+  /**
+   * @return the document of the value, which may be reused once the writer
+   *         added it and this is called again on the same thread
+   */
+  Document document(T value);
+
+  /**
+   * @return the term of the document the one of the value replaces, or null
+   *         to add it without replacing any
+   */
+  Term term(T value);
+
+  /**
+   * Called once the document of the value was added to the index, or failed
+   * to be, so the value can be recycled.
+   */
+  void indexed(T value);
+}
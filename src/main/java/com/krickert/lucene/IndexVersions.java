@@ -0,0 +1,268 @@
+package com.krickert.lucene;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.Charset;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.List;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+import com.krickert.io.Files;
+
+/**
+ * The versions of an index kept in a root directory, each in a directory of
+ * its own, with a pointer file naming the version readers should open.
+ *
+ * A build writes into a new staging version nobody reads yet. Once it's
+ * verified it's published by writing the pointer to a temporary file and
+ * renaming it over the old one, which readers see either before or after but
+ * never half done. A failed build leaves the published version alone and is
+ * deleted by the next publish. The last few published versions are kept, so
+ * going back to the one before is only another rename of the pointer.
+ *
+ * <pre>
+ * ipindex/CURRENT           the name of the published version
+ * ipindex/v20101018093000   a version
+ * </pre>
+ *
+ * @author krickert
+ *
+ */
+public class IndexVersions {
+  private static final Log log = LogFactory.getLog(IndexVersions.class);
+  public static final String POINTER_FILE = "CURRENT";
+  /* marks a version that was published once */
+  private static final String PUBLISHED_FILE = "PUBLISHED";
+  private static final String VERSION_PREFIX = "v";
+  private static final Charset UTF8 = Charset.forName("UTF-8");
+
+  private final File root;
+  private final int keep;
+  private final boolean seedFromCurrent;
+  private File staging;
+
+  /**
+   * @param root
+   *          the directory holding the versions and the pointer file
+   * @param keep
+   *          the number of published versions kept, at least 1
+   * @param seedFromCurrent
+   *          true to start the staging version as a copy of the published
+   *          one, for an index refreshed incrementally
+   */
+  public IndexVersions(File root, int keep, boolean seedFromCurrent) {
+    if (keep < 1) {
+      throw new IllegalArgumentException("at least one version must be kept, not " + keep);
+    }
+    this.root = root;
+    this.keep = keep;
+    this.seedFromCurrent = seedFromCurrent;
+  }
+
+  /**
+   * Same as above, starting every staging version empty.
+   */
+  public IndexVersions(File root, int keep) {
+    this(root, keep, false);
+  }
+
+  public File getRoot() {
+    return root;
+  }
+
+  /**
+   * @return the directory of the version being built, made on the first call
+   */
+  public synchronized File getStagingDir() throws IOException {
+    if (staging == null) {
+      File dir = newVersionDir();
+      if (!dir.mkdirs()) {
+        throw new IOException("Could not create the staging directory " + dir);
+      }
+      File current = current();
+      if (seedFromCurrent && current != null) {
+        log.info("Seeding " + dir + " from " + current);
+        copyFiles(current, dir);
+      }
+      staging = dir;
+    }
+    return staging;
+  }
+
+  private File newVersionDir() {
+    String name = VERSION_PREFIX + new SimpleDateFormat("yyyyMMddHHmmssSSS").format(new Date());
+    File dir = new File(root, name);
+    // two versions within the same millisecond
+    for (int i = 1; dir.exists(); i++) {
+      dir = new File(root, name + "-" + i);
+    }
+    return dir;
+  }
+
+  /**
+   * @return the directory of the published version, null if none was
+   *         published yet
+   */
+  public File current() throws IOException {
+    File pointer = new File(root, POINTER_FILE);
+    if (!pointer.isFile()) {
+      return null;
+    }
+    InputStream in = new FileInputStream(pointer);
+    try {
+      String name = new BufferedReader(new InputStreamReader(in, UTF8)).readLine();
+      if (name == null || name.trim().length() == 0) {
+        throw new IOException("The pointer file " + pointer + " is empty");
+      }
+      return new File(root, name.trim());
+    } finally {
+      in.close();
+    }
+  }
+
+  /**
+   * Points readers at the staging version and drops the versions beyond the
+   * ones kept.
+   */
+  public synchronized void publish() throws IOException {
+    if (staging == null) {
+      throw new IllegalStateException("Nothing was staged to publish");
+    }
+    new FileOutputStream(new File(staging, PUBLISHED_FILE)).close();
+    point(staging);
+    log.info("Published " + staging);
+    staging = null;
+    prune();
+  }
+
+  /**
+   * Points readers back at the version published before the current one,
+   * which is kept published.
+   *
+   * @return the version now published
+   */
+  public synchronized File rollback() throws IOException {
+    File current = current();
+    List<File> versions = publishedVersions();
+    int index = current == null ? -1 : versions.indexOf(current);
+    if (index < 1) {
+      throw new IllegalStateException("There's no version before " + current + " to roll back to");
+    }
+    File previous = versions.get(index - 1);
+    point(previous);
+    log.info("Rolled back from " + current + " to " + previous);
+    return previous;
+  }
+
+  private void point(File version) throws IOException {
+    File pointer = new File(root, POINTER_FILE);
+    File next = new File(root, POINTER_FILE + ".tmp");
+    FileOutputStream out = new FileOutputStream(next);
+    try {
+      Writer writer = new OutputStreamWriter(out, UTF8);
+      writer.write(version.getName());
+      writer.write('\n');
+      writer.flush();
+      out.getFD().sync();
+    } finally {
+      out.close();
+    }
+    Files.replace(next, pointer);
+  }
+
+  /**
+   * @return every version directory, oldest first
+   */
+  public List<File> versions() {
+    File[] dirs = root.listFiles();
+    List<File> versions = new ArrayList<File>();
+    if (dirs != null) {
+      Arrays.sort(dirs);
+      for (File dir : dirs) {
+        if (dir.isDirectory() && dir.getName().startsWith(VERSION_PREFIX)) {
+          versions.add(dir);
+        }
+      }
+    }
+    return versions;
+  }
+
+  private List<File> publishedVersions() {
+    List<File> published = new ArrayList<File>();
+    for (File version : versions()) {
+      if (new File(version, PUBLISHED_FILE).isFile()) {
+        published.add(version);
+      }
+    }
+    return published;
+  }
+
+  /**
+   * Deletes the versions never published, which are failed builds, and the
+   * published ones beyond the current one and the ones kept before it.
+   */
+  private void prune() throws IOException {
+    File current = current();
+    List<File> published = publishedVersions();
+    int index = published.indexOf(current);
+    for (File version : versions()) {
+      int i = published.indexOf(version);
+      if (i < 0 || i > index || i <= index - keep) {
+        log.info("Deleting the index version " + version);
+        delete(version);
+      }
+    }
+  }
+
+  private static void delete(File file) {
+    File[] children = file.listFiles();
+    if (children != null) {
+      for (File child : children) {
+        delete(child);
+      }
+    }
+    if (!file.delete()) {
+      log.warn("Could not delete " + file);
+    }
+  }
+
+  private static void copyFiles(File from, File to) throws IOException {
+    File[] files = from.listFiles();
+    if (files == null) {
+      throw new IOException("Could not list " + from);
+    }
+    byte[] buffer = new byte[64 * 1024];
+    for (File file : files) {
+      if (!file.isFile() || file.getName().equals(PUBLISHED_FILE)) {
+        continue;
+      }
+      InputStream in = new FileInputStream(file);
+      try {
+        OutputStream out = new FileOutputStream(new File(to, file.getName()));
+        try {
+          int read;
+          while ((read = in.read(buffer)) != -1) {
+            out.write(buffer, 0, read);
+          }
+        } finally {
+          out.close();
+        }
+      } finally {
+        in.close();
+      }
+    }
+  }
+}
@@ -2,13 +2,25 @@ package com.krickert.lucene;
 
 import static com.google.common.base.Preconditions.checkNotNull;
 
+import java.io.File;
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
 
 import org.apache.lucene.analysis.Analyzer;
+import org.apache.lucene.index.ConcurrentMergeScheduler;
 import org.apache.lucene.index.CorruptIndexException;
+import org.apache.lucene.index.IndexReader;
 import org.apache.lucene.index.IndexWriter;
 import org.apache.lucene.index.IndexWriter.MaxFieldLength;
+import org.apache.lucene.index.MultiReader;
 import org.apache.lucene.store.Directory;
+import org.apache.lucene.store.FSDirectory;
 import org.apache.lucene.store.LockObtainFailedException;
 
 /**
@@ -17,11 +29,41 @@ import org.apache.lucene.store.LockObtainFailedException;
  * Since the index writer has all these set methods to set the ram buffer sizes,
  * merge factor, or any other index methods
  * 
+ * It can also manage a set of shards: independent writers, each with a
+ * directory and a ram buffer of its own, so several threads index at once
+ * without sharing the flushes and merges of one writer. Once built the shards
+ * are either merged into the main index with
+ * {@link IndexWriter#addIndexesNoOptimize(Directory...)} or left as they are
+ * for a MultiSearcher. Shards left unmerged have to be built in the
+ * {@link #SHARDS_DIR} directory of the index, so they're published with it and
+ * {@link #openReader(Directory, File)} finds them.
+ * 
+ * Finishing the index merges it down to a few segments, so the searches right
+ * after a build don't have to visit the hundreds of segments a big merge
+ * factor leaves behind.
+ * 
  * @author krickert
  * 
  */
 public class IndexWriterManager {
+  private static final Log log = LogFactory.getLog(IndexWriterManager.class);
+  /* the smallest ram buffer a shard gets */
+  private static final int MIN_SHARD_RAM_BUFFER_MB = 16;
+  /** The directory of the shards within the directory of the index. */
+  public static final String SHARDS_DIR = "shards";
+
   private final IndexWriter writer;
+  private final List<IndexWriter> shardWriters = new ArrayList<IndexWriter>();
+  private final List<Directory> shardDirectories = new ArrayList<Directory>();
+  private final List<File> shardDirs = new ArrayList<File>();
+  private final boolean mergeShards;
+  private final boolean incremental;
+  private final boolean refreshable;
+  /* the segments the index is merged into when finished, 0 to not merge */
+  private int maxSegments = 0;
+  /* the same for an index refreshed incrementally */
+  private int incrementalMaxSegments = 0;
+  private boolean expungeDeletes = false;
 
   /**
    * Constructor that's made to create a new index writer to be used by the
@@ -50,10 +92,64 @@ public class IndexWriterManager {
    */
   public IndexWriterManager(Directory directory, Analyzer analyzer, int numThreads, int queueSize, int ramBufferSizeMb, int mergeFactor)
       throws CorruptIndexException, LockObtainFailedException, IOException {
+    this(directory, analyzer, numThreads, queueSize, ramBufferSizeMb, mergeFactor, false);
+  }
+
+  /**
+   * Same as above, choosing what happens once the queue of the writer threads
+   * is full.
+   * 
+   * @param callerRuns
+   *          true to have the thread adding a document index it itself, false
+   *          to have it wait for a writer thread to take a job
+   */
+  public IndexWriterManager(Directory directory, Analyzer analyzer, int numThreads, int queueSize, int ramBufferSizeMb, int mergeFactor,
+      boolean callerRuns) throws CorruptIndexException, LockObtainFailedException, IOException {
+    this(directory, analyzer, numThreads, queueSize, ramBufferSizeMb, mergeFactor, callerRuns, 1, null, false);
+  }
+
+  /**
+   * Same as above, with the documents indexed into a set of shards instead of
+   * the writer returned by {@link #getWriter()}. The ram buffer is split among
+   * the shards.
+   * 
+   * @param shards
+   *          the number of shards, each indexed by a thread of its own. 1 or
+   *          less to index into the main writer only
+   * @param shardDir
+   *          the directory holding the directory of every shard
+   * @param mergeShards
+   *          true to merge the shards into the main index once they're
+   *          built, false to leave them for a MultiSearcher
+   */
+  public IndexWriterManager(Directory directory, Analyzer analyzer, int numThreads, int queueSize, int ramBufferSizeMb, int mergeFactor,
+      boolean callerRuns, int shards, File shardDir, boolean mergeShards) throws CorruptIndexException, LockObtainFailedException,
+      IOException {
+    this(directory, analyzer, numThreads, queueSize, ramBufferSizeMb, mergeFactor, callerRuns, shards, shardDir, mergeShards, false);
+  }
+
+  /**
+   * Same as above, opening the index already in the directory to refresh it
+   * instead of creating a new one.
+   * 
+   * @param incremental
+   *          true to keep the documents of the index so only the changed
+   *          ranges are written. The index is created if there's none yet.
+   *          Can't be combined with shards
+   */
+  public IndexWriterManager(Directory directory, Analyzer analyzer, int numThreads, int queueSize, int ramBufferSizeMb, int mergeFactor,
+      boolean callerRuns, int shards, File shardDir, boolean mergeShards, boolean incremental) throws CorruptIndexException,
+      LockObtainFailedException, IOException {
 
     checkNotNull(directory);
+    if (incremental && shards > 1) {
+      throw new IllegalArgumentException("an index refreshed incrementally can't be built in " + shards + " shards");
+    }
 
-    this.writer = new ThreadedIndexWriter(directory, analyzer, true, numThreads, queueSize, MaxFieldLength.UNLIMITED);
+    boolean create = !incremental || !IndexReader.indexExists(directory);
+    this.incremental = !create;
+    this.refreshable = incremental;
+    this.writer = new ThreadedIndexWriter(directory, analyzer, create, numThreads, queueSize, MaxFieldLength.UNLIMITED, callerRuns);
     // NOTE: max buffered docs is going to get set to DISABLE_AUTO_FLUSH because
     // it will help maximize the performance for indexing
     writer.setMaxBufferedDocs(IndexWriter.DISABLE_AUTO_FLUSH);
@@ -63,13 +159,207 @@ public class IndexWriterManager {
     // The number of segments that are merged by add document. Don't go too
     // crazy.. them inodes get mad
     writer.setMergeFactor(mergeFactor);
+
+    if (shards > 1) {
+      checkNotNull(shardDir);
+      int shardBufferMb = Math.max(MIN_SHARD_RAM_BUFFER_MB, ramBufferSizeMb / shards);
+      for (int i = 0; i < shards; i++) {
+        File dir = new File(shardDir, "shard-" + i);
+        Directory shardDirectory = FSDirectory.open(dir);
+        IndexWriter shardWriter = new IndexWriter(shardDirectory, analyzer, true, MaxFieldLength.UNLIMITED);
+        shardWriter.setMaxBufferedDocs(IndexWriter.DISABLE_AUTO_FLUSH);
+        shardWriter.setRAMBufferSizeMB(shardBufferMb);
+        shardWriter.setMergeFactor(mergeFactor);
+        shardDirs.add(dir);
+        shardDirectories.add(shardDirectory);
+        shardWriters.add(shardWriter);
+      }
+    }
+    this.mergeShards = mergeShards;
+  }
+
+  /**
+   * Opens the index read only, with the shards left unmerged in its
+   * {@link #SHARDS_DIR} directory if it has any, as one reader.
+   * 
+   * @param directory
+   *          the directory of the main index
+   * @param indexDir
+   *          the file of that directory
+   */
+  public static IndexReader openReader(Directory directory, File indexDir) throws CorruptIndexException, IOException {
+    IndexReader main = IndexReader.open(directory, true);
+    File[] shards = new File(indexDir, SHARDS_DIR).listFiles();
+    if (shards == null || shards.length == 0) {
+      return main;
+    }
+    Arrays.sort(shards);
+    IndexReader[] readers = new IndexReader[shards.length + 1];
+    readers[0] = main;
+    try {
+      for (int i = 0; i < shards.length; i++) {
+        readers[i + 1] = IndexReader.open(FSDirectory.open(shards[i]), true);
+      }
+    } catch (IOException e) {
+      for (IndexReader reader : readers) {
+        if (reader != null) {
+          reader.close();
+        }
+      }
+      throw e;
+    }
+    return new MultiReader(readers);
   }
 
   public IndexWriter getWriter() {
     return writer;
   }
 
+  /**
+   * @param maxSegments
+   *          the number of segments the index is merged into once finished,
+   *          1 for a fully optimized index and 0 to leave the segments as
+   *          they are
+   */
+  public void setMaxSegments(int maxSegments) {
+    if (maxSegments < 0) {
+      throw new IllegalArgumentException("max segments must not be negative, is " + maxSegments);
+    }
+    this.maxSegments = maxSegments;
+  }
+
+  /**
+   * @param incrementalMaxSegments
+   *          the number of segments an index refreshed incrementally is
+   *          merged into once finished, 0 to leave its segments as they are
+   *          and only expunge the deletes if asked to. Fully merging a big
+   *          index rewrites all of it, which a refresh of a few ranges
+   *          shouldn't pay for
+   */
+  public void setIncrementalMaxSegments(int incrementalMaxSegments) {
+    if (incrementalMaxSegments < 0) {
+      throw new IllegalArgumentException("max segments must not be negative, is " + incrementalMaxSegments);
+    }
+    this.incrementalMaxSegments = incrementalMaxSegments;
+  }
+
+  /**
+   * @param mergeThreads
+   *          the number of threads merging segments at once
+   */
+  public void setMergeThreads(int mergeThreads) throws CorruptIndexException, IOException {
+    ConcurrentMergeScheduler scheduler = new ConcurrentMergeScheduler();
+    scheduler.setMaxThreadCount(mergeThreads);
+    writer.setMergeScheduler(scheduler);
+  }
+
+  /**
+   * @param expungeDeletes
+   *          true to merge away the documents an incremental refresh deleted
+   *          or replaced, unless the refreshed index is merged into
+   *          {@link #setIncrementalMaxSegments(int)} segments anyway
+   */
+  public void setExpungeDeletes(boolean expungeDeletes) {
+    this.expungeDeletes = expungeDeletes;
+  }
+
+  /**
+   * @return true if the writer opened an existing index to refresh
+   */
+  public boolean isIncremental() {
+    return incremental;
+  }
+
+  /**
+   * @return true if the index is built to be refreshed incrementally, whether
+   *         it's refreshed now or created because there was none yet
+   */
+  public boolean isRefreshable() {
+    return refreshable;
+  }
+
+  /**
+   * @return the writer of every shard, empty if the index isn't sharded
+   */
+  public List<IndexWriter> getShardWriters() {
+    return Collections.unmodifiableList(shardWriters);
+  }
+
+  /**
+   * @return the directory of every shard, empty if the index isn't sharded
+   */
+  public List<File> getShardDirs() {
+    return Collections.unmodifiableList(shardDirs);
+  }
+
+  /**
+   * Commits and closes the shard writers once every document was added to
+   * them. If the shards are merged they're added to the main index and
+   * deleted afterwards, the main writer still has to be committed.
+   */
+  public void finishShards() throws CorruptIndexException, IOException {
+    if (shardWriters.isEmpty()) {
+      return;
+    }
+    for (IndexWriter shardWriter : shardWriters) {
+      shardWriter.commit();
+      shardWriter.close();
+    }
+    if (mergeShards) {
+      log.info("merging " + shardDirectories.size() + " shards into the index");
+      writer.addIndexesNoOptimize(shardDirectories.toArray(new Directory[shardDirectories.size()]));
+    }
+    for (Directory shardDirectory : shardDirectories) {
+      if (mergeShards) {
+        for (String file : shardDirectory.listAll()) {
+          shardDirectory.deleteFile(file);
+        }
+      }
+      shardDirectory.close();
+    }
+    if (mergeShards) {
+      for (File dir : shardDirs) {
+        dir.delete();
+      }
+      shardDirs.get(0).getParentFile().delete();
+    }
+    shardWriters.clear();
+  }
+
+  /**
+   * Waits for every document to be added and merges the index as configured,
+   * logging how long the merge took. A new index is merged into the max
+   * segments. An index refreshed incrementally is merged into the incremental
+   * max segments if they're set, otherwise its deletes are expunged if asked
+   * to.
+   */
+  public void mergeIndex() throws CorruptIndexException, IOException {
+    if (writer instanceof ThreadedIndexWriter) {
+      ((ThreadedIndexWriter) writer).finishJobs();
+    }
+    long start = System.currentTimeMillis();
+    int segments = incremental ? incrementalMaxSegments : maxSegments;
+    if (segments > 0) {
+      log.info("merging the index into at most " + segments + " segments");
+      writer.optimize(segments, true);
+    } else if (expungeDeletes && incremental) {
+      log.info("expunging the deleted documents");
+      // the deletes of the refresh are still buffered and only segments with
+      // applied deletes are expunged, the commit applies them
+      writer.commit();
+      writer.expungeDeletes(true);
+    } else {
+      return;
+    }
+    log.info("merged the index in " + (System.currentTimeMillis() - start) + " ms");
+  }
+
+  /**
+   * Finishes the shards, merges the index and commits and closes it.
+   */
   public void finishIndex() throws CorruptIndexException, IOException {
+    finishShards();
+    mergeIndex();
     this.writer.commit();
     this.writer.close();
   }
@@ -1,10 +1,18 @@
 package com.krickert.lucene;
 
 import java.io.IOException;
+import java.util.List;
 import java.util.concurrent.ArrayBlockingQueue;
 import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.RejectedExecutionHandler;
 import java.util.concurrent.ThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
 
 import org.apache.lucene.analysis.Analyzer;
 import org.apache.lucene.document.Document;
@@ -13,9 +21,26 @@ import org.apache.lucene.index.IndexWriter;
 import org.apache.lucene.index.Term;
 import org.apache.lucene.store.Directory;
 
+/**
+ * An index writer adding the documents on a pool of writer threads.
+ * 
+ * A document that fails to be added on a writer thread doesn't stop the job it
+ * belongs to: the failure is recorded, the rest of the job is still added and
+ * every value is still handed back to its source. Once the jobs are finished
+ * the first failure is thrown, so an index missing documents is never
+ * committed as if it were complete.
+ * 
+ * @author krickert
+ * 
+ */
 public class ThreadedIndexWriter extends IndexWriter {
+  private static final Log log = LogFactory.getLog(ThreadedIndexWriter.class);
+
   private final ExecutorService threadPool;
   private final Analyzer defaultAnalyzer;
+  /* the first document that failed on a writer thread and the number that did */
+  private final AtomicReference<Exception> failure = new AtomicReference<Exception>();
+  private final AtomicInteger failures = new AtomicInteger();
 
   private class Job implements Runnable {
     Document doc;
@@ -36,18 +61,134 @@ public class ThreadedIndexWriter extends IndexWriter {
         } else {
           ThreadedIndexWriter.super.addDocument(doc, analyzer);
         }
-      } catch (IOException ioe) {
-        throw new RuntimeException(ioe);
+      } catch (IOException e) {
+        failed(e);
+      } catch (RuntimeException e) {
+        failed(e);
       }
     }
   }
 
+  /**
+   * Builds the document on the writer thread running the job.
+   */
+  private class SourceJob<T> implements Runnable {
+    final DocumentSource<T> source;
+    final T value;
+    final Analyzer analyzer;
+
+    public SourceJob(DocumentSource<T> source, T value, Analyzer analyzer) {
+      this.source = source;
+      this.value = value;
+      this.analyzer = analyzer;
+    }
+
+    @Override
+    public void run() {
+      addSourceDocument(source, value, analyzer);
+    }
+  }
+
+  /**
+   * Builds and adds the documents of a batch of values on the writer thread
+   * running the job, one after the other. A failed document doesn't keep the
+   * ones after it from being added.
+   */
+  private class BatchJob<T> implements Runnable {
+    final DocumentSource<T> source;
+    final List<T> values;
+    final Analyzer analyzer;
+
+    public BatchJob(DocumentSource<T> source, List<T> values, Analyzer analyzer) {
+      this.source = source;
+      this.values = values;
+      this.analyzer = analyzer;
+    }
+
+    @Override
+    public void run() {
+      for (int i = 0; i < values.size(); i++) {
+        addSourceDocument(source, values.get(i), analyzer);
+      }
+    }
+  }
+
+  /*
+   * adds the document of the value, replacing the one of its term if any, and
+   * hands the value back to the source whether it was added or not
+   */
+  private <T> void addSourceDocument(DocumentSource<T> source, T value, Analyzer analyzer) {
+    try {
+      Term term = source.term(value);
+      if (term != null) {
+        super.updateDocument(term, source.document(value), analyzer);
+      } else {
+        super.addDocument(source.document(value), analyzer);
+      }
+    } catch (IOException e) {
+      failed(e);
+    } catch (RuntimeException e) {
+      failed(e);
+    } finally {
+      source.indexed(value);
+    }
+  }
+
+  private void failed(Exception e) {
+    if (failures.getAndIncrement() == 0) {
+      log.error("A document failed to be added, the index will be failed once the jobs are finished", e);
+    }
+    failure.compareAndSet(null, e);
+  }
+
+  /**
+   * @return the number of documents that failed to be added on the writer
+   *         threads so far
+   */
+  public int getFailures() {
+    return failures.get();
+  }
+
+  /**
+   * Waits for room in the queue of the pool instead of running a job on the
+   * thread handing it over, so the producer goes back to its own work as soon
+   * as a writer thread takes a job.
+   */
+  static final class BlockingHandoff implements RejectedExecutionHandler {
+    @Override
+    public void rejectedExecution(Runnable job, ThreadPoolExecutor executor) {
+      if (executor.isShutdown()) {
+        throw new RejectedExecutionException("The writer is closed");
+      }
+      try {
+        executor.getQueue().put(job);
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        throw new RejectedExecutionException("interrupted while waiting for a writer thread", e);
+      }
+    }
+  }
+
+  /**
+   * Same as below, handing the jobs over with a blocking handoff.
+   */
   public ThreadedIndexWriter(Directory dir, Analyzer a, boolean create, int numThreads, int maxQueueSize, IndexWriter.MaxFieldLength mfl)
       throws CorruptIndexException, IOException {
+    this(dir, a, create, numThreads, maxQueueSize, mfl, false);
+  }
+
+  /**
+   * @param callerRuns
+   *          true to have the calling thread build and add a document itself
+   *          when the queue of the pool is full, false to have it wait for
+   *          room in the queue
+   */
+  public ThreadedIndexWriter(Directory dir, Analyzer a, boolean create, int numThreads, int maxQueueSize, IndexWriter.MaxFieldLength mfl,
+      boolean callerRuns) throws CorruptIndexException, IOException {
     super(dir, a, create, mfl);
     defaultAnalyzer = a;
     threadPool = new ThreadPoolExecutor(numThreads, numThreads, 0, TimeUnit.SECONDS, new ArrayBlockingQueue<Runnable>(maxQueueSize, false),
-        new ThreadPoolExecutor.CallerRunsPolicy());
+        callerRuns ? new ThreadPoolExecutor.CallerRunsPolicy() : new BlockingHandoff());
   }
 
   @Override
@@ -60,6 +201,27 @@ public class ThreadedIndexWriter extends IndexWriter {
     threadPool.execute(new Job(doc, null, a));
   }
 
+  /**
+   * Adds the document of the value, built by the source on the writer thread
+   * that adds it. When the queue is full the calling thread waits for room,
+   * or builds and adds it itself if the writer runs on the caller. If the
+   * source gives a term for the value the document replaces the one of the
+   * term.
+   */
+  public <T> void addDocument(DocumentSource<T> source, T value) {
+    threadPool.execute(new SourceJob<T>(source, value, defaultAnalyzer));
+  }
+
+  /**
+   * Same as above for a whole batch of values, handed over to a single writer
+   * thread as one job. The batch must not be changed afterwards.
+   */
+  public <T> void addDocuments(DocumentSource<T> source, List<T> values) {
+    if (!values.isEmpty()) {
+      threadPool.execute(new BatchJob<T>(source, values, defaultAnalyzer));
+    }
+  }
+
   @Override
   public void updateDocument(Term term, Document doc) {
     threadPool.execute(new Job(doc, term, defaultAnalyzer));
@@ -71,15 +233,33 @@ public class ThreadedIndexWriter extends IndexWriter {
     threadPool.execute(new Job(doc, term, a));
   }
 
+  /**
+   * Waits for the jobs and closes the writer, or rolls it back if a document
+   * failed to be added.
+   * 
+   * @throws IOException
+   *           if a document failed, with the first failure as the cause
+   */
   @Override
   public void close() throws CorruptIndexException, IOException {
     finish();
+    if (failures.get() > 0) {
+      super.rollback();
+      checkFailures();
+    }
     super.close();
   }
 
+  /**
+   * Same as {@link #close()}.
+   */
   @Override
   public void close(boolean doWait) throws CorruptIndexException, IOException {
     finish();
+    if (failures.get() > 0) {
+      super.rollback();
+      checkFailures();
+    }
     super.close(doWait);
   }
 
@@ -89,6 +269,26 @@ public class ThreadedIndexWriter extends IndexWriter {
     super.rollback();
   }
 
+  /**
+   * Waits for every document handed to the writer threads to be added. No
+   * documents can be added afterwards.
+   * 
+   * @throws IOException
+   *           if a document failed to be added, with the first failure as the
+   *           cause
+   */
+  public void finishJobs() throws IOException {
+    finish();
+    checkFailures();
+  }
+
+  private void checkFailures() throws IOException {
+    int failed = failures.get();
+    if (failed > 0) {
+      throw new IOException(failed + " documents failed to be added to the index", failure.get());
+    }
+  }
+
   private void finish() {
     threadPool.shutdown();
     while (true) {
@@ -0,0 +1,171 @@
+package com.krickert.concurrent;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import junit.framework.TestCase;
+
+import com.krickert.ipsearch.IpDataReaderTask;
+import com.krickert.ipsearch.city.IpSearchCityBean;
+import com.krickert.ipsearch.city.IpSearchCityBeanPool;
+import com.krickert.ipsearch.city.SymbolTable;
+
+public class BatchingBlockingQueueTest extends TestCase {
+
+  public void testElementsAreHandedOverInBatches() throws Exception {
+    BatchingBlockingQueue<Integer> queue = new BatchingBlockingQueue<Integer>(10, 3);
+    queue.put(1);
+    queue.put(2);
+    assertEquals(0, queue.size());
+    assertNull(queue.poll());
+    queue.put(3);
+    assertEquals(3, queue.size());
+    queue.put(4);
+    queue.flush();
+    assertEquals(4, queue.size());
+
+    assertEquals((Integer) 1, queue.poll());
+    assertEquals(Arrays.asList(2, 3), queue.pollBatch(1, TimeUnit.MILLISECONDS));
+    assertEquals(Arrays.asList(4), queue.pollBatch(1, TimeUnit.MILLISECONDS));
+    assertNull(queue.pollBatch(1, TimeUnit.MILLISECONDS));
+    assertEquals(0, queue.size());
+  }
+
+  public void testCapacityInWholeBatches() throws Exception {
+    BatchingBlockingQueue<Integer> queue = new BatchingBlockingQueue<Integer>(5, 2);
+    assertEquals(4, queue.remainingCapacity());
+    assertTrue(queue.offer(1));
+    assertTrue(queue.offer(2));
+    assertTrue(queue.offer(3));
+    assertTrue(queue.offer(4));
+    assertTrue(queue.offer(5));
+    assertFalse(queue.offer(6));
+    assertEquals(Arrays.asList(1, 2, 3, 4), new ArrayList<Integer>(queue));
+    assertEquals((Integer) 1, queue.take());
+    assertEquals((Integer) 1, (Integer) queue.drainTo(new ArrayList<Integer>(), 1));
+    assertTrue(queue.offer(6));
+    queue.flush();
+    List<Integer> rest = new ArrayList<Integer>();
+    queue.drainTo(rest);
+    assertEquals(Arrays.asList(3, 4, 5, 6), rest);
+  }
+
+  public void testEveryProducerThreadFlushes() throws Exception {
+    final BatchingBlockingQueue<Integer> queue = new BatchingBlockingQueue<Integer>(1000, 7);
+    List<Thread> producers = new ArrayList<Thread>();
+    for (int p = 0; p < 4; p++) {
+      final int first = p * 100;
+      Thread producer = new Thread() {
+        @Override
+        public void run() {
+          try {
+            for (int i = first; i < first + 100; i++) {
+              queue.put(i);
+            }
+            queue.flush();
+          } catch (Exception e) {
+            throw new IllegalStateException(e);
+          }
+        }
+      };
+      producer.start();
+      producers.add(producer);
+    }
+    boolean[] seen = new boolean[400];
+    for (int i = 0; i < 400; i++) {
+      seen[queue.poll(5, TimeUnit.SECONDS)] = true;
+    }
+    for (Thread producer : producers) {
+      producer.join();
+    }
+    for (boolean s : seen) {
+      assertTrue(s);
+    }
+    assertNull(queue.poll());
+  }
+
+  public void testReaderFlushesIntoTheQueue() {
+    for (int parallelism = 1; parallelism <= 2; parallelism++) {
+      BatchingBlockingQueue<IpSearchCityBean> queue = new BatchingBlockingQueue<IpSearchCityBean>(4000, 100);
+      new IpDataReaderTask("src/test/resources/ipsearch_test.zip", "ip_group_city.csv", queue, new IpSearchCityBeanPool(0),
+          new SymbolTable(), parallelism).fire();
+      assertEquals(1819, queue.size());
+      BlockingQueue<IpSearchCityBean> copy = new ArrayBlockingQueue<IpSearchCityBean>(1819);
+      queue.drainTo(copy);
+      assertEquals(1819, copy.size());
+    }
+  }
+
+  public void testCloseEndsTheStream() throws Exception {
+    for (boolean lockFree : new boolean[] { false, true }) {
+      BatchingBlockingQueue<Integer> queue = new BatchingBlockingQueue<Integer>(10, 3, lockFree);
+      queue.put(1);
+      queue.put(2);
+      queue.put(3);
+      queue.put(4);
+      queue.close();
+      assertEquals((Integer) 1, queue.takeOrEnd());
+      assertEquals(Arrays.asList(2, 3), queue.takeBatchOrEnd());
+      assertEquals(Arrays.asList(4), queue.takeBatchOrEnd());
+      assertNull(queue.takeBatchOrEnd());
+      // every consumer sees the end
+      assertNull(queue.takeOrEnd());
+      assertNull(queue.poll());
+      try {
+        queue.put(5);
+        queue.flush();
+        fail("put after close");
+      } catch (IllegalStateException e) {
+        // expected
+      }
+    }
+  }
+
+  public void testFailStopsTheConsumer() throws Exception {
+    for (boolean lockFree : new boolean[] { false, true }) {
+      final BatchingBlockingQueue<Integer> queue = new BatchingBlockingQueue<Integer>(10, 3, lockFree);
+      final Throwable[] thrown = new Throwable[1];
+      Thread consumer = new Thread() {
+        @Override
+        public void run() {
+          try {
+            queue.takeBatchOrEnd();
+          } catch (Throwable t) {
+            thrown[0] = t;
+          }
+        }
+      };
+      consumer.start();
+      Exception cause = new Exception("parsing failed");
+      queue.fail(cause);
+      consumer.join(5000);
+      assertTrue(thrown[0] instanceof IllegalStateException);
+      assertSame(cause, rootCause(thrown[0]));
+    }
+  }
+
+  private static Throwable rootCause(Throwable t) {
+    while (t.getCause() != null) {
+      t = t.getCause();
+    }
+    return t;
+  }
+
+  public void testReaderClosesTheQueue() throws Exception {
+    for (int parallelism = 1; parallelism <= 2; parallelism++) {
+      BatchingBlockingQueue<IpSearchCityBean> queue = new BatchingBlockingQueue<IpSearchCityBean>(4000, 100, true);
+      new IpDataReaderTask("src/test/resources/ipsearch_test.zip", "ip_group_city.csv", queue, new IpSearchCityBeanPool(0),
+          new SymbolTable(), parallelism).fire();
+      int count = 0;
+      List<IpSearchCityBean> batch;
+      while ((batch = queue.takeBatchOrEnd()) != null) {
+        count += batch.size();
+      }
+      assertEquals(1819, count);
+    }
+  }
+}
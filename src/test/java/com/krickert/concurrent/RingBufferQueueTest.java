@@ -0,0 +1,116 @@
+package com.krickert.concurrent;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+
+import junit.framework.TestCase;
+
+public class RingBufferQueueTest extends TestCase {
+
+  public void testCapacityIsRoundedToAPowerOfTwo() {
+    RingBufferQueue<Integer> queue = new RingBufferQueue<Integer>(3);
+    assertEquals(4, queue.remainingCapacity());
+    for (int i = 0; i < 4; i++) {
+      assertTrue(queue.offer(i));
+    }
+    assertFalse(queue.offer(4));
+    assertEquals(4, queue.size());
+    assertEquals(Arrays.asList(0, 1, 2, 3), new ArrayList<Integer>(queue));
+    assertEquals((Integer) 0, queue.peek());
+    assertEquals((Integer) 0, queue.poll());
+    assertTrue(queue.offer(4));
+    List<Integer> rest = new ArrayList<Integer>();
+    queue.drainTo(rest);
+    assertEquals(Arrays.asList(1, 2, 3, 4), rest);
+    assertNull(queue.poll());
+  }
+
+  public void testEveryElementIsTakenOnce() throws Exception {
+    final RingBufferQueue<Integer> queue = new RingBufferQueue<Integer>(64);
+    final int perProducer = 20000;
+    final int producers = 4;
+    final AtomicIntegerArray seen = new AtomicIntegerArray(perProducer * producers);
+    List<Thread> threads = new ArrayList<Thread>();
+    for (int p = 0; p < producers; p++) {
+      final int first = p * perProducer;
+      threads.add(new Thread() {
+        @Override
+        public void run() {
+          try {
+            for (int i = first; i < first + perProducer; i++) {
+              queue.put(i);
+            }
+          } catch (InterruptedException e) {
+            throw new IllegalStateException(e);
+          }
+        }
+      });
+    }
+    List<Thread> consumers = new ArrayList<Thread>();
+    for (int c = 0; c < 3; c++) {
+      consumers.add(new Thread() {
+        @Override
+        public void run() {
+          try {
+            Integer i;
+            while ((i = queue.takeOrEnd()) != null) {
+              seen.incrementAndGet(i);
+            }
+          } catch (InterruptedException e) {
+            throw new IllegalStateException(e);
+          }
+        }
+      });
+    }
+    for (Thread thread : threads) {
+      thread.start();
+    }
+    for (Thread consumer : consumers) {
+      consumer.start();
+    }
+    for (Thread thread : threads) {
+      thread.join();
+    }
+    queue.close();
+    for (Thread consumer : consumers) {
+      consumer.join(10000);
+      assertFalse(consumer.isAlive());
+    }
+    for (int i = 0; i < seen.length(); i++) {
+      assertEquals(1, seen.get(i));
+    }
+  }
+
+  public void testCloseAndFail() throws Exception {
+    RingBufferQueue<Integer> queue = new RingBufferQueue<Integer>(4);
+    queue.put(1);
+    queue.close();
+    assertTrue(queue.isClosed());
+    assertEquals((Integer) 1, queue.takeOrEnd());
+    assertNull(queue.takeOrEnd());
+    try {
+      queue.offer(2);
+      fail("offer after close");
+    } catch (IllegalStateException e) {
+      // expected
+    }
+
+    RingBufferQueue<Integer> failed = new RingBufferQueue<Integer>(4);
+    Exception cause = new Exception("indexing failed");
+    failed.fail(cause);
+    try {
+      failed.takeOrEnd();
+      fail("take after fail");
+    } catch (IllegalStateException e) {
+      assertSame(cause, e.getCause());
+    }
+    try {
+      failed.put(1);
+      fail("put after fail");
+    } catch (IllegalStateException e) {
+      assertSame(cause, e.getCause());
+    }
+  }
+}
@@ -0,0 +1,62 @@
+package com.krickert.ipsearch;
+
+import java.util.Random;
+
+import junit.framework.TestCase;
+
+public class BulkResolverTest extends TestCase {
+
+  private static RangeTable table(int ranges) {
+    RangeTable.Builder builder = new RangeTable.Builder();
+    for (int i = 0; i < ranges; i++) {
+      builder.add(1000l + i * 997l, i);
+    }
+    return builder.build();
+  }
+
+  public void testResolvesInThePositionsOfTheAddresses() {
+    RangeTable table = new RangeTable.Builder().add(100l, 0).add(200l, 1).add(300l, 2).build();
+    long[] ips = { 350l, 99l, 100l, 0xffffffffl, 250l, 199l, 0l, 200l };
+    int[] ids = new int[ips.length + 1];
+    ids[ips.length] = 42;
+    BulkResolver resolver = new BulkResolver(table);
+    resolver.resolve(ips, ips.length, ids);
+    assertEquals(2, ids[0]);
+    assertEquals(RangeTable.NO_LOCATION, ids[1]);
+    assertEquals(0, ids[2]);
+    assertEquals(2, ids[3]);
+    assertEquals(1, ids[4]);
+    assertEquals(0, ids[5]);
+    assertEquals(RangeTable.NO_LOCATION, ids[6]);
+    assertEquals(1, ids[7]);
+    assertEquals(42, ids[8]);
+    assertEquals(350l, ips[0]);
+    resolver.close();
+  }
+
+  public void testAgreesWithPointLookupsOnManyThreads() {
+    RangeTable table = table(5000);
+    long[] ips = new long[300000];
+    Random random = new Random(7);
+    for (int i = 0; i < ips.length; i++) {
+      ips[i] = random.nextInt(6000000);
+    }
+    int[] ids = new int[ips.length];
+    BulkResolver resolver = new BulkResolver(table, 4);
+    resolver.resolve(ips, ids);
+    for (int i = 0; i < ips.length; i++) {
+      assertEquals(table.locationId(ips[i]), ids[i]);
+    }
+    resolver.close();
+  }
+
+  public void testRejectsWhatIsNoAddress() {
+    BulkResolver resolver = new BulkResolver(table(10));
+    try {
+      resolver.resolve(new long[] { 1l, 0x100000000l }, new int[2]);
+      fail("expected the address to be rejected");
+    } catch (IllegalArgumentException e) {
+      // above 255.255.255.255
+    }
+  }
+}
@@ -1,12 +1,16 @@
 package com.krickert.ipsearch;
 
 import java.io.IOException;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.TreeMap;
 import java.util.concurrent.ArrayBlockingQueue;
 import java.util.concurrent.BlockingQueue;
 
 import junit.framework.TestCase;
 
 import org.apache.lucene.analysis.WhitespaceAnalyzer;
+import org.apache.lucene.document.Document;
 import org.apache.lucene.index.CorruptIndexException;
 import org.apache.lucene.index.IndexReader;
 import org.apache.lucene.index.IndexReader.FieldOption;
@@ -82,4 +86,51 @@ public class IndexIpAddressTaskTest extends TestCase {
     assertEquals(numResults, 15);
 
   }
+
+  public void testIncrementalRefreshWritesOnlyTheChangedRanges() throws IOException {
+    RAMDirectory directory = new RAMDirectory();
+    assertFalse(refresh(directory, row(100l, 199l, "Chicago"), row(200l, 299l, "Boston"), row(300l, 399l, "Denver")).isIncremental());
+    assertTrue(refresh(directory, row(100l, 199l, "Chicago"), row(200l, 299l, "Cambridge"), row(400l, 499l, "Austin")).isIncremental());
+
+    IndexReader reader = IndexReader.open(directory, true);
+    Map<String, String> cities = new TreeMap<String, String>();
+    for (int doc = 0; doc < reader.maxDoc(); doc++) {
+      if (!reader.isDeleted(doc)) {
+        Document document = reader.document(doc);
+        cities.put(document.get("ip_start"), document.get("city"));
+      }
+    }
+    // Chicago was left alone, Boston replaced, Denver deleted and Austin added
+    assertEquals(5, reader.maxDoc());
+    // the signatures a refresh diffs against are only indexed when refreshable
+    assertTrue(reader.getFieldNames(FieldOption.ALL).contains(IndexedRanges.SIGNATURE_FIELD));
+    reader.close();
+    Map<String, String> expected = new TreeMap<String, String>();
+    expected.put("100", "Chicago");
+    expected.put("200", "Cambridge");
+    expected.put("400", "Austin");
+    assertEquals(expected, cities);
+  }
+
+  private static IpSearchCityBean row(long ipStart, long ipEnd, String city) {
+    IpSearchCityBean bean = new IpSearchCityBean();
+    bean.setIpStart(ipStart);
+    bean.setIpEnd(ipEnd);
+    bean.setCountryCode("US");
+    bean.setCity(city);
+    bean.setLat(41.9288);
+    bean.setLon(-87.6315);
+    return bean;
+  }
+
+  /* builds or refreshes the index in the directory from the rows */
+  private static IndexWriterManager refresh(Directory directory, IpSearchCityBean... rows) throws IOException {
+    BlockingQueue<IpSearchCityBean> queue = new ArrayBlockingQueue<IpSearchCityBean>(rows.length);
+    queue.addAll(Arrays.asList(rows));
+    IndexWriterManager manager = new IndexWriterManager(directory, new WhitespaceAnalyzer(), 1, 10, 16, 10, false, 1, null, false, true);
+    IndexIpAddressTask task = new IndexIpAddressTask(manager, queue, 1);
+    task.insertIntoIndex();
+    task.commitAndFinish();
+    return manager;
+  }
 }
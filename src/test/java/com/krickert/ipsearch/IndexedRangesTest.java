@@ -0,0 +1,68 @@
+package com.krickert.ipsearch;
+
+import java.util.Arrays;
+
+import junit.framework.TestCase;
+
+import com.krickert.ipsearch.city.IpSearchCityBean;
+
+public class IndexedRangesTest extends TestCase {
+
+  private static IpSearchCityBean bean(long ipStart, String city) {
+    IpSearchCityBean bean = new IpSearchCityBean();
+    bean.setIpStart(ipStart);
+    bean.setIpEnd(ipStart + 87l);
+    bean.setCountryCode("US");
+    bean.setCity(city);
+    bean.setLat(41.9288);
+    bean.setLon(-87.6315);
+    return bean;
+  }
+
+  public void testSignatureChangesWithAnyValue() {
+    IpSearchCityBean bean = bean(3523140760l, "Chicago");
+    long signature = bean.signature();
+    assertEquals(signature, bean(3523140760l, "Chicago").signature());
+    assertTrue(signature != bean(3523140760l, "Chicag").signature());
+    bean.setLon(-87.6316);
+    assertTrue(signature != bean.signature());
+    IpSearchCityBean moved = bean(3523140760l, "Chicago");
+    moved.setIpEnd(3523140848l);
+    assertTrue(signature != moved.signature());
+  }
+
+  public void testDiffsRowsAgainstTheIndexedRanges() {
+    long[] starts = { 300l, 100l, 500l, 200l, 400l };
+    long[] signatures = new long[starts.length];
+    for (int i = 0; i < starts.length; i++) {
+      signatures[i] = bean(starts[i], "Chicago").signature();
+    }
+    IndexedRanges ranges = IndexedRanges.of(starts, signatures);
+    assertEquals(5, ranges.size());
+
+    assertTrue(ranges.unchanged(100l, bean(100l, "Chicago").signature()));
+    assertFalse(ranges.unchanged(200l, bean(200l, "Boston").signature()));
+    assertFalse(ranges.unchanged(250l, bean(250l, "Chicago").signature()));
+    assertTrue(ranges.unchanged(500l, bean(500l, "Chicago").signature()));
+    assertTrue(Arrays.equals(new long[] { 300l, 400l }, ranges.unseen()));
+  }
+
+  public void testSortsManyRanges() {
+    int count = 10000;
+    long[] starts = new long[count];
+    long[] signatures = new long[count];
+    for (int i = 0; i < count; i++) {
+      starts[i] = (i * 7919l) % count;
+      signatures[i] = starts[i] * 3;
+    }
+    IndexedRanges ranges = IndexedRanges.of(starts, signatures);
+    for (long start = 0; start < count; start += 2) {
+      assertTrue(ranges.unchanged(start, start * 3));
+    }
+    long[] unseen = ranges.unseen();
+    assertEquals(count / 2, unseen.length);
+    for (int i = 0; i < unseen.length; i++) {
+      assertEquals(i * 2l + 1, unseen[i]);
+    }
+  }
+}
@@ -0,0 +1,61 @@
+package com.krickert.ipsearch;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+import junit.framework.TestCase;
+
+import com.krickert.ipsearch.city.IpSearchCityBean;
+import com.krickert.ipsearch.city.IpSearchCityBeanPool;
+import com.krickert.ipsearch.city.SymbolTable;
+
+public class IpDataReaderTaskParallelTest extends TestCase {
+
+  public void testParallelParseMatchesSequentialParse() {
+    List<IpSearchCityBean> sequential = parse(1);
+    List<IpSearchCityBean> parallel = parse(3);
+    assertEquals(1819, sequential.size());
+    assertEquals(sequential.size(), parallel.size());
+    for (int i = 0; i < sequential.size(); i++) {
+      assertEquals(sequential.get(i).toString(), parallel.get(i).toString());
+    }
+  }
+
+  public void testChunkBoundsAreLineAligned() {
+    ByteBuffer data = ByteBuffer.wrap("h\naa\nbbbb\nc\n\nddddd\ne".getBytes());
+    int[] bounds = IpDataReaderTask.chunkBounds(data, 2, data.limit(), 4);
+    assertEquals(2, bounds[0]);
+    assertEquals(data.limit(), bounds[bounds.length - 1]);
+    for (int i = 1; i < bounds.length - 1; i++) {
+      assertEquals('\n', data.get(bounds[i] - 1));
+      assertTrue(bounds[i] > bounds[i - 1]);
+    }
+    assertTrue(Arrays.toString(bounds), bounds.length > 2);
+  }
+
+  public void testMoreChunksThanLines() {
+    ByteBuffer data = ByteBuffer.wrap("h\na\n".getBytes());
+    int[] bounds = IpDataReaderTask.chunkBounds(data, 2, data.limit(), 16);
+    assertEquals(2, bounds.length);
+  }
+
+  private List<IpSearchCityBean> parse(int parallelism) {
+    BlockingQueue<IpSearchCityBean> queue = new ArrayBlockingQueue<IpSearchCityBean>(1820);
+    new IpDataReaderTask("src/test/resources/ipsearch_test.zip", "ip_group_city.csv", queue, new IpSearchCityBeanPool(0),
+        new SymbolTable(), parallelism).fire();
+    List<IpSearchCityBean> rows = new ArrayList<IpSearchCityBean>(queue);
+    Collections.sort(rows, new Comparator<IpSearchCityBean>() {
+      @Override
+      public int compare(IpSearchCityBean o1, IpSearchCityBean o2) {
+        return o1.ipStart() < o2.ipStart() ? -1 : o1.ipStart() == o2.ipStart() ? 0 : 1;
+      }
+    });
+    return rows;
+  }
+}
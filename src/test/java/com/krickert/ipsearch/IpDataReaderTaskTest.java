@@ -1,5 +1,7 @@
 package com.krickert.ipsearch;
 
+import java.io.File;
+import java.io.IOException;
 import java.util.concurrent.ArrayBlockingQueue;
 import java.util.concurrent.BlockingQueue;
 
@@ -42,6 +44,29 @@ public class IpDataReaderTaskTest extends TestCase {
     }
   }
 
+  public void testLastRangeRunsToTheEndOfTheAddressSpace() throws IOException {
+    File dir = File.createTempFile("ipdb", "");
+    dir.delete();
+    dir.mkdirs();
+    IpdbWriter writer = new IpdbWriter(dir, true, new LocationStoreWriter(dir, false));
+    IpSearchCityBean last = null;
+    for (IpSearchCityBean bean : queue) {
+      writer.add(bean);
+      last = bean;
+    }
+    assertEquals(0xffffffffl, last.ipEnd());
+    writer.write();
+
+    IpdbFile file = new IpdbFile(writer.getFile());
+    IpSearchCityBean found = file.locate("255.255.255.255");
+    assertNotNull(found);
+    assertEquals(last.ipStart(), found.ipStart());
+    assertEquals(last.getCity(), found.getCity());
+    assertEquals(found.ipStart(), file.locate(last.ipStart()).ipStart());
+    writer.getFile().delete();
+    dir.delete();
+  }
+
   @Override
   protected void setUp() throws Exception {
     super.setUp();
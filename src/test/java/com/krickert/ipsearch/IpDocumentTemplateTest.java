@@ -0,0 +1,104 @@
+package com.krickert.ipsearch;
+
+import java.io.File;
+
+import junit.framework.TestCase;
+
+import org.apache.lucene.document.Document;
+import org.apache.lucene.document.Fieldable;
+import org.apache.lucene.spatial.tier.projections.CartesianTierPlotter;
+import org.apache.lucene.spatial.tier.projections.SinusoidalProjector;
+import org.apache.lucene.util.NumericUtils;
+
+import com.krickert.ipsearch.city.IpSearchCityBean;
+
+public class IpDocumentTemplateTest extends TestCase {
+
+  private static IpSearchCityBean bean(long ipStart, String city, double lat, double lon) {
+    IpSearchCityBean bean = new IpSearchCityBean();
+    bean.setIpStart(ipStart);
+    bean.setIpEnd(ipStart + 87l);
+    bean.setCountryCode("US");
+    bean.setCountryName("United States");
+    bean.setCity(city);
+    bean.setLat(lat);
+    bean.setLon(lon);
+    return bean;
+  }
+
+  public void testFillsTheSameDocumentAgain() {
+    IpDocumentTemplate template = new IpDocumentTemplate();
+    Document first = template.fill(bean(3523140760l, "Chicago", 41.9288, -87.6315));
+    assertEquals("3523140760", first.get("ip_start"));
+    assertEquals("3523140847", first.get("ip_end"));
+    assertEquals("Chicago", first.get("city"));
+    assertEquals(NumericUtils.doubleToPrefixCoded(41.9288), first.get("lat"));
+    assertNull(first.get("zip_code"));
+
+    Document second = template.fill(bean(3523140848l, "", 34.0285, -118.318));
+    assertSame(first, second);
+    assertEquals("3523140848", second.get("ip_start"));
+    assertNull(second.get("city"));
+    assertEquals(1, second.getValues("country_code").length);
+    assertEquals(NumericUtils.doubleToPrefixCoded(-118.318), second.get("lon"));
+    for (int tier = TierEncoder.DEFAULT_START_TIER; tier <= TierEncoder.DEFAULT_END_TIER; tier++) {
+      CartesianTierPlotter plotter = new CartesianTierPlotter(tier, new SinusoidalProjector(), TierEncoder.DEFAULT_TIER_PREFIX);
+      assertEquals(NumericUtils.doubleToPrefixCoded(plotter.getTierBoxId(34.0285, -118.318)), second.get(plotter.getTierFieldName()));
+    }
+
+    Document third = template.fill(bean(3523140936l, "Los Angeles", 34.0285, -118.318));
+    assertEquals("Los Angeles", third.get("city"));
+    assertEquals(1, third.getValues("city").length);
+  }
+
+  public void testMinimalSchemaOnlyIndexesTheRange() {
+    IpDocumentTemplate template = new IpDocumentTemplate(IndexSchema.MINIMAL, new TierEncoder());
+    Document doc = template.fill(bean(3523140760l, "Chicago", 41.9288, -87.6315));
+    assertTrue(doc.getFieldable("ip_start").isIndexed());
+    assertNull(doc.getFieldable("ip_start_a"));
+    assertNull(doc.getFieldable("_localTier10"));
+    assertFalse(doc.getFieldable("lat").isIndexed());
+    assertEquals(NumericUtils.doubleToPrefixCoded(41.9288), doc.get("lat"));
+    assertFalse(doc.getFieldable("city").isIndexed());
+    assertEquals("Chicago", doc.get("city"));
+  }
+
+  public void testLookupSchemaOmitsNormsAndFrequencies() {
+    IpDocumentTemplate template = new IpDocumentTemplate(IndexSchema.LOOKUP, new TierEncoder());
+    Document doc = template.fill(bean(3523140760l, "Chicago", 41.9288, -87.6315));
+    Fieldable code = doc.getFieldable("country_code");
+    assertTrue(code.isIndexed());
+    assertFalse(code.isTokenized());
+    assertTrue(code.getOmitNorms());
+    assertTrue(code.getOmitTermFreqAndPositions());
+    Fieldable city = doc.getFieldable("city");
+    assertTrue(city.isTokenized());
+    assertTrue(city.getOmitNorms());
+    assertNull(doc.getFieldable("_localTier10"));
+  }
+
+  public void testSpatialSchemaIndexesTheTiers() {
+    IpDocumentTemplate template = new IpDocumentTemplate(IndexSchema.SPATIAL, new TierEncoder());
+    Document doc = template.fill(bean(3523140760l, "Chicago", 41.9288, -87.6315));
+    assertTrue(doc.getFieldable("lat").isIndexed());
+    assertNotNull(doc.getFieldable("_localTier10"));
+    assertNull(doc.getFieldable("ip_end_d"));
+  }
+
+  public void testStoreKeepsOnlyTheLocationId() throws Exception {
+    File dir = File.createTempFile("locations", "");
+    dir.delete();
+    LocationStoreWriter store = new LocationStoreWriter(dir, true);
+    IpDocumentTemplate template = new IpDocumentTemplate(IndexSchema.LOOKUP, new TierEncoder(), store);
+    Document doc = template.fill(bean(3523140760l, "Chicago", 41.9288, -87.6315));
+    assertEquals("0", doc.get("location_id"));
+    assertFalse(doc.getFieldable("city").isStored());
+    assertTrue(doc.getFieldable("city").isIndexed());
+    assertNull(doc.getFieldable("lat"));
+    doc = template.fill(bean(3523140848l, "Chicago", 41.9288, -87.6315));
+    assertEquals("0", doc.get("location_id"));
+    doc = template.fill(bean(3523140936l, "Los Angeles", 34.0285, -118.318));
+    assertEquals("1", doc.get("location_id"));
+    assertEquals(2, store.size());
+  }
+}
@@ -0,0 +1,62 @@
+package com.krickert.ipsearch;
+
+import java.io.IOException;
+
+import junit.framework.TestCase;
+
+import org.apache.lucene.analysis.WhitespaceAnalyzer;
+import org.apache.lucene.index.IndexWriter;
+import org.apache.lucene.store.RAMDirectory;
+
+import com.krickert.ipsearch.city.IpSearchCityBean;
+
+public class IpLocatorTest extends TestCase {
+
+  private static IpSearchCityBean bean(long ipStart, long ipEnd, String city) {
+    IpSearchCityBean bean = new IpSearchCityBean();
+    bean.setIpStart(ipStart);
+    bean.setIpEnd(ipEnd);
+    bean.setCountryCode("US");
+    bean.setCity(city);
+    bean.setLat(41.9288);
+    bean.setLon(-87.6315);
+    return bean;
+  }
+
+  public void testDottedQuads() {
+    assertEquals(3523091096l, IpLocator.toLong("209.254.26.152"));
+    assertEquals(0l, IpLocator.toLong("0.0.0.0"));
+    assertEquals(0xffffffffl, IpLocator.toLong("255.255.255.255"));
+    assertEquals("209.254.26.152", IpLocator.toDottedQuad(3523091096l));
+    for (String bad : new String[] { "", "1.2.3", "1.2.3.4.5", "1..3.4", "1.2.3.256", "1.2.3.x", "1.2.3.4." }) {
+      try {
+        IpLocator.toLong(bad);
+        fail("expected " + bad + " to be rejected");
+      } catch (IllegalArgumentException e) {
+        // not an address
+      }
+    }
+  }
+
+  public void testLocatesTheRangeOfAnAddress() throws IOException {
+    RAMDirectory directory = new RAMDirectory();
+    IndexWriter writer = new IndexWriter(directory, new WhitespaceAnalyzer(), true, IndexWriter.MaxFieldLength.UNLIMITED);
+    IpDocumentTemplate template = new IpDocumentTemplate();
+    writer.addDocument(template.fill(bean(300l, 399l, "Boston")));
+    writer.addDocument(template.fill(bean(100l, 199l, "Chicago")));
+    writer.addDocument(template.fill(bean(500l, 599l, "Denver")));
+    writer.close();
+
+    IpLocator locator = new IpLocator(directory, null);
+    assertEquals(3, locator.size());
+    assertEquals("Chicago", locator.locate(100l).getCity());
+    assertEquals("Chicago", locator.locate(199l).getCity());
+    assertEquals("Boston", locator.locate(350l).getCity());
+    assertEquals(599l, locator.locate(500l).getIpEnd().longValue());
+    assertEquals(41.9288, locator.locate(550l).lat());
+    assertNull(locator.locate(99l));
+    assertNull(locator.locate(250l));
+    assertNull(locator.locate(600l));
+    locator.close();
+  }
+}
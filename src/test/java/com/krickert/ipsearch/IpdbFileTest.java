@@ -0,0 +1,131 @@
+package com.krickert.ipsearch;
+
+import java.io.File;
+import java.io.IOException;
+
+import junit.framework.TestCase;
+
+import com.krickert.ipsearch.city.IpSearchCityBean;
+
+public class IpdbFileTest extends TestCase {
+  private File dir;
+
+  @Override
+  public void setUp() throws Exception {
+    super.setUp();
+    dir = File.createTempFile("ipdb", "");
+    dir.delete();
+    dir.mkdirs();
+  }
+
+  @Override
+  public void tearDown() throws Exception {
+    File[] files = dir.listFiles();
+    for (File file : files) {
+      file.delete();
+    }
+    dir.delete();
+    super.tearDown();
+  }
+
+  private static IpSearchCityBean bean(long ipStart, long ipEnd, String city, String zipCode) {
+    IpSearchCityBean bean = new IpSearchCityBean();
+    bean.setIpStart(ipStart);
+    bean.setIpEnd(ipEnd);
+    bean.setCountryCode("US");
+    bean.setCountryName("United States");
+    bean.setRegionCode("17");
+    bean.setRegionName("Illinois");
+    bean.setCity(city);
+    bean.setZipCode(zipCode);
+    bean.setLat(41.9288);
+    bean.setLon(-87.6315);
+    return bean;
+  }
+
+  public void testReadsBackTheSortedRanges() throws IOException {
+    IpdbWriter writer = new IpdbWriter(dir, true, new LocationStoreWriter(dir, false));
+    writer.add(bean(3523140848l, 3523140999l, "Chicago", "60657"));
+    writer.add(bean(100l, 199l, "Chicago", "60611"));
+    writer.add(bean(200l, 299l, "Chicago Heights", null));
+    writer.add(bean(400l, 499l, "Chicago", "60611"));
+    writer.write();
+
+    IpdbFile file = new IpdbFile(writer.getFile());
+    assertEquals(4, file.size());
+    assertEquals(3, file.locationCount());
+    assertEquals(100l, file.start(0));
+    assertEquals(3523140999l, file.end(3));
+    assertEquals(file.locationId(150l), file.locationId(450l));
+    assertEquals(-1, file.locationId(99l));
+    assertEquals(-1, file.locationId(350l));
+    assertEquals(-1, file.locationId(3523141000l));
+
+    IpSearchCityBean found = file.locate(3523140900l);
+    assertEquals(3523140848l, found.ipStart());
+    assertEquals("Chicago", found.getCity());
+    assertEquals("60657", found.getZipCode());
+    assertEquals("Illinois", found.getRegionName());
+    assertEquals(41.9288, found.lat());
+    found = file.locate("0.0.0.250");
+    assertEquals("Chicago Heights", found.getCity());
+    assertNull(found.getZipCode());
+    assertNull(file.locate(350l));
+  }
+
+  public void testFrontCodesManyStrings() throws IOException {
+    IpdbWriter writer = new IpdbWriter(dir, true, new LocationStoreWriter(dir, false));
+    for (int i = 0; i < 100; i++) {
+      writer.add(bean(i * 10l, i * 10l + 9, "City " + (i * 7 % 100), "606" + i));
+    }
+    writer.write();
+    IpdbFile file = new IpdbFile(writer.getFile());
+    for (int i = 0; i < 100; i++) {
+      IpSearchCityBean found = file.locate(i * 10l + 5);
+      assertEquals("City " + (i * 7 % 100), found.getCity());
+      assertEquals("606" + i, found.getZipCode());
+    }
+  }
+
+  public void testMergesTheRangesOfEveryThread() throws Exception {
+    final IpdbWriter writer = new IpdbWriter(dir, true, new LocationStoreWriter(dir, false));
+    Thread[] threads = new Thread[4];
+    for (int t = 0; t < threads.length; t++) {
+      final int first = t;
+      threads[t] = new Thread() {
+        @Override
+        public void run() {
+          for (int i = first; i < 1000; i += 4) {
+            writer.add(bean(i * 10l, i * 10l + 9, i % 2 == 0 ? "Chicago" : "Boston", null));
+          }
+        }
+      };
+      threads[t].start();
+    }
+    for (Thread thread : threads) {
+      thread.join();
+    }
+    assertEquals(1000, writer.size());
+    writer.write();
+
+    IpdbFile file = new IpdbFile(writer.getFile());
+    assertEquals(1000, file.size());
+    assertEquals(2, file.locationCount());
+    for (int i = 0; i < 1000; i++) {
+      assertEquals(i * 10l, file.start(i));
+      assertEquals(i % 2 == 0 ? "Chicago" : "Boston", file.locate(i * 10l + 5).getCity());
+    }
+  }
+
+  public void testNotAnIpdbFile() throws IOException {
+    LocationStoreWriter store = new LocationStoreWriter(dir, true);
+    store.locationId(bean(1l, 2l, "Chicago", "60611"));
+    store.write();
+    try {
+      new IpdbFile(store.getFile());
+      fail("expected the location store to be rejected");
+    } catch (IOException e) {
+      // wrong magic
+    }
+  }
+}
@@ -0,0 +1,114 @@
+package com.krickert.ipsearch;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+
+import junit.framework.TestCase;
+
+import com.krickert.ipsearch.city.IpSearchCityBean;
+
+public class LocationStoreTest extends TestCase {
+  private File dir;
+
+  @Override
+  public void setUp() throws Exception {
+    super.setUp();
+    dir = File.createTempFile("locations", "");
+    dir.delete();
+    dir.mkdirs();
+  }
+
+  @Override
+  public void tearDown() throws Exception {
+    File[] files = dir.listFiles();
+    for (File file : files) {
+      file.delete();
+    }
+    dir.delete();
+    super.tearDown();
+  }
+
+  private static IpSearchCityBean bean(long ipStart, String city, String zipCode, double lat, double lon) {
+    IpSearchCityBean bean = new IpSearchCityBean();
+    bean.setIpStart(ipStart);
+    bean.setCountryCode("US");
+    bean.setCountryName("United States");
+    bean.setRegionCode("17");
+    bean.setRegionName("Illinois");
+    bean.setCity(city);
+    bean.setZipCode(zipCode);
+    bean.setLat(lat);
+    bean.setLon(lon);
+    bean.setMetroCode("602");
+    return bean;
+  }
+
+  public void testSameLocationSameId() throws IOException {
+    LocationStoreWriter writer = new LocationStoreWriter(dir, true);
+    int chicago = writer.locationId(bean(1l, "Chicago", "60601", 41.9288, -87.6315));
+    assertEquals(0, chicago);
+    assertEquals(chicago, writer.locationId(bean(2l, "Chicago", "60601", 41.9288, -87.6315)));
+    assertEquals(1, writer.locationId(bean(3l, "Chicago", "60602", 41.9288, -87.6315)));
+    assertEquals(2, writer.locationId(bean(4l, "Chicago", "60601", 41.9289, -87.6315)));
+    assertEquals(3, writer.size());
+  }
+
+  public void testReadsBackWhatWasWritten() throws IOException {
+    LocationStoreWriter writer = new LocationStoreWriter(dir, true);
+    writer.locationId(bean(1l, "Chicago", "60601", 41.9288, -87.6315));
+    int blank = writer.locationId(bean(2l, " ", null, 0d, 0d));
+    int munich = writer.locationId(bean(3l, "München", "80331", 48.1374, 11.5755));
+    writer.write();
+
+    LocationStore store = new LocationStore(writer.getFile());
+    assertEquals(3, store.size());
+    LocationStore.Location chicago = store.get(0);
+    assertEquals("Chicago", chicago.getCity());
+    assertEquals("60601", chicago.getZipCode());
+    assertEquals("US", chicago.getCountryCode());
+    assertEquals("United States", chicago.getCountryName());
+    assertEquals("602", chicago.getMetroCode());
+    assertEquals("17", chicago.getRegionCode());
+    assertEquals("Illinois", chicago.getRegionName());
+    assertEquals(41.9288, chicago.lat);
+    assertEquals(-87.6315, chicago.lon);
+
+    assertNull(store.get(blank).getCity());
+    assertNull(store.get(blank, LocationStore.ZIP_CODE));
+    assertEquals("München", store.get(munich, LocationStore.CITY));
+    assertEquals(11.5755, store.lon(munich));
+    try {
+      store.get(3);
+      fail("expected no location 3");
+    } catch (IndexOutOfBoundsException e) {
+      assertEquals("no location 3 in a store of 3", e.getMessage());
+    }
+  }
+
+  public void testRefreshKeepsTheIds() throws IOException {
+    LocationStoreWriter writer = new LocationStoreWriter(dir, true);
+    writer.locationId(bean(1l, "Chicago", "60601", 41.9288, -87.6315));
+    writer.locationId(bean(2l, "Evanston", "60201", 42.0411, -87.6901));
+    writer.write();
+
+    LocationStoreWriter refresh = new LocationStoreWriter(dir, true);
+    assertEquals(2, refresh.size());
+    assertEquals(1, refresh.locationId(bean(5l, "Evanston", "60201", 42.0411, -87.6901)));
+    assertEquals(2, refresh.locationId(bean(6l, "Skokie", "60076", 42.0324, -87.7416)));
+  }
+
+  public void testRejectsOtherFiles() throws IOException {
+    LocationStoreWriter writer = new LocationStoreWriter(dir, false);
+    assertFalse(writer.isEnabled());
+    FileOutputStream out = new FileOutputStream(writer.getFile());
+    out.write(new byte[32]);
+    out.close();
+    try {
+      new LocationStore(writer.getFile());
+      fail("expected an unknown file to be rejected");
+    } catch (IOException e) {
+      assertTrue(e.getMessage().endsWith("is not a location store"));
+    }
+  }
+}
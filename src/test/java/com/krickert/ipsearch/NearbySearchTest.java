@@ -0,0 +1,59 @@
+package com.krickert.ipsearch;
+
+import java.io.IOException;
+import java.util.List;
+
+import junit.framework.TestCase;
+
+import org.apache.lucene.analysis.WhitespaceAnalyzer;
+import org.apache.lucene.index.IndexWriter;
+import org.apache.lucene.store.RAMDirectory;
+
+import com.krickert.ipsearch.city.IpSearchCityBean;
+
+public class NearbySearchTest extends TestCase {
+
+  private static IpSearchCityBean bean(long ipStart, String city, String regionCode, double lat, double lon) {
+    IpSearchCityBean bean = new IpSearchCityBean();
+    bean.setIpStart(ipStart);
+    bean.setIpEnd(ipStart + 99l);
+    bean.setCountryCode("US");
+    bean.setRegionCode(regionCode);
+    bean.setCity(city);
+    bean.setLat(lat);
+    bean.setLon(lon);
+    return bean;
+  }
+
+  public void testMiles() {
+    assertEquals(0d, NearbySearch.miles(41.9288, -87.6315, 41.9288, -87.6315), 1e-9);
+    // Chicago to Los Angeles
+    assertEquals(1745d, NearbySearch.miles(41.8781, -87.6298, 34.0522, -118.2437), 10d);
+    assertEquals(Math.PI * NearbySearch.EARTH_RADIUS_MILES, NearbySearch.miles(0, 0, 0, 180), 1e-6);
+  }
+
+  public void testFindsTheNearestRangesWithinTheRadius() throws IOException {
+    RAMDirectory directory = new RAMDirectory();
+    IndexWriter writer = new IndexWriter(directory, new WhitespaceAnalyzer(), true, IndexWriter.MaxFieldLength.UNLIMITED);
+    IpDocumentTemplate template = new IpDocumentTemplate();
+    writer.addDocument(template.fill(bean(100l, "Los Angeles", "06", 34.0522, -118.2437)));
+    writer.addDocument(template.fill(bean(200l, "Hollywood", "06", 34.0928, -118.3287)));
+    writer.addDocument(template.fill(bean(300l, "Pasadena", "06", 34.1478, -118.1445)));
+    writer.addDocument(template.fill(bean(400l, "Chicago", "17", 41.8781, -87.6298)));
+    writer.close();
+
+    NearbySearch search = new NearbySearch(new IpLocator(directory, null));
+    List<NearbySearch.Hit> hits = search.search(34.0285, -118.318, 10, null, null, 10).hits;
+    assertEquals(2, hits.size());
+    assertEquals("Hollywood", hits.get(0).bean.getCity());
+    assertEquals("Los Angeles", hits.get(1).bean.getCity());
+    assertTrue(hits.get(0).miles < hits.get(1).miles);
+
+    assertEquals(3, search.search(34.0285, -118.318, 20, "US", "06", 10).hits.size());
+    assertEquals(1, search.search(34.0285, -118.318, 20, "US", "06", 1).hits.size());
+    assertEquals(0, search.search(34.0285, -118.318, 20, "US", "17", 10).hits.size());
+    assertEquals("Pasadena", search.search("0.0.1.50", 1, null, null, 10).hits.get(0).bean.getCity());
+    assertEquals(5, search.getSearches());
+    search.close();
+  }
+}
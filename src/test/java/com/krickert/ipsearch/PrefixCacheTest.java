@@ -0,0 +1,98 @@
+package com.krickert.ipsearch;
+
+import java.io.IOException;
+
+import junit.framework.TestCase;
+
+import com.krickert.ipsearch.city.IpSearchCityBean;
+
+public class PrefixCacheTest extends TestCase {
+
+  /**
+   * Ranges of 1024 addresses each below 0.1.0.0, the one at 0.0.40.0 split at
+   * 0.0.40.128.
+   */
+  private static class CountingLocator implements Locator {
+    int calls = 0;
+
+    @Override
+    public IpSearchCityBean locate(long ip) {
+      calls++;
+      if (ip >= 0x10000l) {
+        return null;
+      }
+      IpSearchCityBean bean = new IpSearchCityBean();
+      long start = ip & ~0x3ffl;
+      long end = start + 0x3ffl;
+      if (start == 0x2800l) {
+        start = ip < 0x2880l ? 0x2800l : 0x2880l;
+        end = ip < 0x2880l ? 0x287fl : 0x2bffl;
+      }
+      bean.setIpStart(start);
+      bean.setIpEnd(end);
+      bean.setCity("city " + start);
+      return bean;
+    }
+  }
+
+  public void testHitsWithinAPrefix() throws IOException {
+    CountingLocator locator = new CountingLocator();
+    PrefixCache cache = new PrefixCache(locator, 24, 64);
+    IpSearchCityBean first = cache.locate(0x0405l);
+    assertEquals("city 1024", first.getCity());
+    assertSame(first, cache.locate(0x04ffl));
+    assertEquals(1, locator.calls);
+    assertEquals(1, cache.getHits());
+    assertEquals(1, cache.getMisses());
+    // the next network of the same range
+    assertEquals("city 1024", cache.locate(0x0500l).getCity());
+    assertEquals(2, locator.calls);
+  }
+
+  public void testCachedRangesCantBeChanged() throws IOException {
+    PrefixCache cache = new PrefixCache(new CountingLocator(), 24, 64);
+    IpSearchCityBean cached = cache.locate(0x0405l);
+    try {
+      cached.setCity("Chicago");
+      fail("expected the cached range to be read only");
+    } catch (UnsupportedOperationException e) {
+      // shared by every caller
+    }
+    assertEquals("city 1024", cache.locate(0x0405l).getCity());
+    assertEquals(1024l, cache.locate(0x0405l).ipStart());
+    assertEquals(1, cache.getMisses());
+    assertEquals(2, cache.getHits());
+  }
+
+  public void testSplitPrefixesAreNotCached() throws IOException {
+    CountingLocator locator = new CountingLocator();
+    PrefixCache cache = new PrefixCache(locator, 24, 64);
+    assertEquals("city 10240", cache.locate(0x2810l).getCity());
+    assertEquals("city 10368", cache.locate(0x2890l).getCity());
+    assertEquals("city 10240", cache.locate(0x2810l).getCity());
+    assertEquals(3, locator.calls);
+    assertEquals(3, cache.getUncacheable());
+    assertNull(cache.locate(0x10000l));
+    assertNull(cache.locate(0x10000l));
+    assertEquals(5, locator.calls);
+  }
+
+  public void testEvictsWhatIsntReferenced() throws IOException {
+    CountingLocator locator = new CountingLocator();
+    PrefixCache cache = new PrefixCache(locator, 24, PrefixCache.WAYS);
+    assertEquals(PrefixCache.WAYS, cache.capacity());
+    for (int i = 0; i < PrefixCache.WAYS; i++) {
+      cache.locate(i * 0x100l);
+    }
+    assertEquals(0, cache.getEvictions());
+    // keep the first prefix referenced while the others are pushed out
+    for (int i = PrefixCache.WAYS; i < PrefixCache.WAYS * 4; i++) {
+      cache.locate(0l);
+      cache.locate(i * 0x100l);
+    }
+    assertEquals(PrefixCache.WAYS * 3, cache.getEvictions());
+    int calls = locator.calls;
+    cache.locate(0x10l);
+    assertEquals(calls, locator.calls);
+  }
+}
@@ -0,0 +1,82 @@
+package com.krickert.ipsearch;
+
+import java.io.File;
+import java.io.IOException;
+
+import junit.framework.TestCase;
+
+import com.krickert.ipsearch.city.IpSearchCityBean;
+import com.krickert.ipsearch.city.SymbolTable;
+
+public class RangeTableTest extends TestCase {
+
+  public void testFindsTheRangeOfAnAddress() {
+    RangeTable table = new RangeTable.Builder().add(100l, 0).add(200l, 1).add(300l, 2).build();
+    assertEquals(3, table.size());
+    assertEquals(RangeTable.NO_LOCATION, table.locationId(99l));
+    assertEquals(0, table.locationId(100l));
+    assertEquals(0, table.locationId(199l));
+    assertEquals(1, table.locationId(200l));
+    assertEquals(2, table.locationId(0xffffffffl));
+    assertEquals(1, table.range(250l));
+    assertEquals(200l, table.start(1));
+  }
+
+  public void testJoinsNeighboursWithTheSameLocation() {
+    RangeTable table = new RangeTable.Builder().add(100l, 0).add(200l, 0).add(300l, 1).add(400l, 0).build();
+    assertEquals(3, table.size());
+    assertEquals(0, table.locationId(250l));
+    assertEquals(1, table.locationId(350l));
+    assertEquals(0, table.locationId(450l));
+  }
+
+  public void testRangesMustComeInOrder() {
+    RangeTable.Builder builder = new RangeTable.Builder().add(200l, 0);
+    try {
+      builder.add(200l, 1);
+      fail("expected the range to be rejected");
+    } catch (IllegalArgumentException e) {
+      // not after the one before
+    }
+  }
+
+  public void testReadsTheTestFile() throws IOException {
+    File dir = File.createTempFile("locations", "");
+    dir.delete();
+    LocationStoreWriter locations = new LocationStoreWriter(dir, true);
+    RangeTable table = RangeTable.read(new ZipEntrySource("src/test/resources/ipsearch_test.zip", "ip_group_city.csv"),
+        new SymbolTable(), locations);
+    assertTrue(table.size() > 0);
+    for (int range = 1; range < table.size(); range++) {
+      assertTrue(table.start(range - 1) < table.start(range));
+      assertTrue(table.locationIdOf(range - 1) != table.locationIdOf(range));
+      assertEquals(table.locationIdOf(range), table.locationId(table.start(range)));
+    }
+  }
+
+  public void testReadsTheIdsOfAnIpdbFile() throws IOException {
+    File dir = File.createTempFile("ipdb", "");
+    dir.delete();
+    dir.mkdirs();
+    IpdbWriter writer = new IpdbWriter(dir, true, new LocationStoreWriter(dir, false));
+    String[] cities = { "Chicago", "Chicago", "Boston", "Chicago", "Denver" };
+    for (int i = 0; i < cities.length; i++) {
+      IpSearchCityBean bean = new IpSearchCityBean();
+      bean.setIpStart(100l * (i + 1));
+      bean.setIpEnd(100l * (i + 2) - 1);
+      bean.setCity(cities[i]);
+      writer.add(bean);
+    }
+    writer.write();
+
+    IpdbFile file = new IpdbFile(writer.getFile());
+    RangeTable table = RangeTable.read(file);
+    assertEquals(4, table.size());
+    assertEquals(RangeTable.NO_LOCATION, table.locationId(99l));
+    for (long ip = 100l; ip < 600l; ip += 50) {
+      assertEquals(file.locationId(ip), table.locationId(ip));
+    }
+    writer.getFile().delete();
+    dir.delete();
+  }
+}
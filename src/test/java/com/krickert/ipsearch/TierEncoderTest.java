@@ -0,0 +1,50 @@
+package com.krickert.ipsearch;
+
+import junit.framework.TestCase;
+
+import org.apache.lucene.spatial.tier.projections.CartesianTierPlotter;
+import org.apache.lucene.spatial.tier.projections.SinusoidalProjector;
+import org.apache.lucene.util.NumericUtils;
+
+public class TierEncoderTest extends TestCase {
+  private static final double[][] LOCATIONS = { { 41.9288, -87.6315 }, { 34.0285, -118.318 }, { -33.8675, 151.207 }, { 0, 0 },
+      { 90, 180 }, { -90, -180 }, { 51.5, -0.1167 } };
+
+  public void testSameAsCartesianTierPlotter() {
+    TierEncoder encoder = new TierEncoder();
+    String[] fieldNames = encoder.getFieldNames();
+    assertEquals(11, fieldNames.length);
+    for (double[] location : LOCATIONS) {
+      TierEncoder.Location encoded = encoder.encode(location[0], location[1]);
+      assertEquals(NumericUtils.doubleToPrefixCoded(location[0]), encoded.latCode);
+      assertEquals(NumericUtils.doubleToPrefixCoded(location[1]), encoded.lonCode);
+      for (int tier = 5; tier <= 15; tier++) {
+        CartesianTierPlotter plotter = new CartesianTierPlotter(tier, new SinusoidalProjector(), "_localTier");
+        assertEquals(plotter.getTierFieldName(), fieldNames[tier - 5]);
+        assertEquals(NumericUtils.doubleToPrefixCoded(plotter.getTierBoxId(location[0], location[1])), encoded.tierCodes[tier - 5]);
+      }
+    }
+  }
+
+  public void testMemoizedByLocation() {
+    TierEncoder encoder = new TierEncoder(3, 4, "_tier_", 16);
+    TierEncoder.Location chicago = encoder.encode(41.9288, -87.6315);
+    assertSame(chicago, encoder.encode(41.9288, -87.6315));
+    assertNotSame(chicago, encoder.encode(41.9288, -87.6316));
+    assertEquals(2, encoder.getTierCount());
+
+    TierEncoder uncached = new TierEncoder(3, 4, "_tier_", 0);
+    TierEncoder.Location first = uncached.encode(41.9288, -87.6315);
+    assertNotSame(first, uncached.encode(41.9288, -87.6315));
+    assertEquals(first.tierCodes[1], uncached.encode(41.9288, -87.6315).tierCodes[1]);
+  }
+
+  public void testTierRangeIsChecked() {
+    try {
+      new TierEncoder(15, 5, "_localTier", 16);
+      fail("an empty tier range");
+    } catch (IllegalArgumentException e) {
+      // expected
+    }
+  }
+}
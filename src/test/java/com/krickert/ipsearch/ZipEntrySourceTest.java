@@ -0,0 +1,84 @@
+package com.krickert.ipsearch;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+import junit.framework.TestCase;
+
+import com.krickert.ipsearch.ZipEntrySource.Mode;
+import com.krickert.ipsearch.city.IpSearchCityBean;
+import com.krickert.ipsearch.city.IpSearchCityBeanPool;
+import com.krickert.ipsearch.city.SymbolTable;
+
+public class ZipEntrySourceTest extends TestCase {
+  private static final String zip = "src/test/resources/ipsearch_test.zip";
+  private static final String entry = "ip_group_city.csv";
+  private File cache;
+
+  @Override
+  protected void setUp() throws Exception {
+    super.setUp();
+    cache = File.createTempFile("ip_group_city", ".csv");
+    cache.delete();
+  }
+
+  @Override
+  protected void tearDown() throws Exception {
+    cache.delete();
+    super.tearDown();
+  }
+
+  public void testAllModesReadTheSameData() throws IOException {
+    ByteBuffer expected = new ZipEntrySource(zip, entry).map();
+    assertEquals(153573, expected.remaining());
+    assertEquals(expected, new ZipEntrySource(zip, entry, Mode.INFLATER, null).map());
+    assertEquals(expected, new ZipEntrySource(zip, entry, Mode.CACHE, cache.getPath()).map());
+    assertEquals(expected, ZipEntrySource.readFully(new ZipEntrySource(zip, entry, Mode.INFLATER, null).openStream(), -1));
+  }
+
+  public void testCacheFileIsExtractedOnce() throws IOException {
+    ZipEntrySource source = new ZipEntrySource(zip, entry, Mode.CACHE, cache.getPath());
+    assertEquals(cache, source.extract());
+    assertEquals(153573, cache.length());
+    // an extraction would give the cache file a new modification time
+    assertTrue(cache.setLastModified(new File(zip).lastModified() + 1000));
+    long modified = cache.lastModified();
+    InputStream in = source.openStream();
+    in.close();
+    assertEquals(modified, cache.lastModified());
+  }
+
+  public void testStaleCacheFileIsExtractedAgain() throws IOException {
+    ZipEntrySource source = new ZipEntrySource(zip, entry, Mode.CACHE, cache.getPath());
+    source.extract();
+    assertTrue(cache.setLastModified(new File(zip).lastModified() - 1000));
+    source.extract();
+    assertTrue(cache.lastModified() >= new File(zip).lastModified());
+  }
+
+  public void testMissingEntry() {
+    try {
+      new ZipEntrySource(zip, "missing.csv").map();
+      fail();
+    } catch (IllegalArgumentException e) {
+      // expected
+    } catch (IOException e) {
+      fail(e.toString());
+    }
+  }
+
+  public void testReaderParsesEveryMode() {
+    for (Mode mode : Mode.values()) {
+      for (int parallelism = 1; parallelism <= 2; parallelism++) {
+        BlockingQueue<IpSearchCityBean> queue = new ArrayBlockingQueue<IpSearchCityBean>(1820);
+        new IpDataReaderTask(new ZipEntrySource(zip, entry, mode, cache.getPath()), queue, new IpSearchCityBeanPool(0), new SymbolTable(),
+            parallelism).fire();
+        assertEquals(mode + " " + parallelism, 1819, queue.size());
+      }
+    }
+  }
+}
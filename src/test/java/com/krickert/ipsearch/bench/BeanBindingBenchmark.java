@@ -0,0 +1,103 @@
+package com.krickert.ipsearch.bench;
+
+import java.io.ByteArrayOutputStream;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipInputStream;
+
+import org.supercsv.cellprocessor.Optional;
+import org.supercsv.cellprocessor.ParseDouble;
+import org.supercsv.cellprocessor.constraint.LMinMax;
+import org.supercsv.cellprocessor.constraint.StrMinMax;
+import org.supercsv.cellprocessor.ift.CellProcessor;
+import org.supercsv.io.ByteTokenizer;
+import org.supercsv.io.CsvBeanReader;
+import org.supercsv.prefs.CsvPreference;
+import org.supercsv.util.BeanBinder;
+import org.supercsv.util.MethodBinder;
+
+import com.krickert.ipsearch.city.IpSearchCityBean;
+import com.krickert.ipsearch.city.IpSearchCityBeanBinder;
+
+/**
+ * Compares the ways CsvBeanReader can fill an {@link IpSearchCityBean}: the
+ * reflective set method lookup per cell, the precompiled {@link MethodBinder}
+ * and the direct {@link IpSearchCityBeanBinder}. The test file is inflated into
+ * memory once so only the parsing and binding are measured.
+ *
+ * <pre>
+ * mvn test-compile exec:java -Dexec.classpathScope=test -Dexec.mainClass=com.krickert.ipsearch.bench.BeanBindingBenchmark
+ * </pre>
+ *
+ * @author krickert
+ *
+ */
+public class BeanBindingBenchmark {
+  private static final CsvPreference preference = CsvPreference.EXCEL_NORTH_EUROPE_PREFERENCE;
+  private static final CellProcessor[] processors = { new LMinMax(0l, 4278190080l), new StrMinMax(2l, 2l),
+      new Optional(new StrMinMax(4l, 50l)), new StrMinMax(0l, 2l), new StrMinMax(0l, 50l), new StrMinMax(0l, 34l), new StrMinMax(0l, 6l),
+      new ParseDouble(), new ParseDouble(), null };
+  private static final String[] columnMapping = { "ipStart", "countryCode", "countryName", "regionCode", "regionName", "city", "zipCode",
+      "lat", "lon", "metroCode" };
+
+  public static void main(String[] args) throws Exception {
+    String zipFile = args.length > 0 ? args[0] : "src/test/resources/ipsearch_test.zip";
+    String fileInZip = args.length > 1 ? args[1] : "ip_group_city.csv";
+    final byte[] data = inflate(zipFile, fileInZip);
+
+    Benchmark.measureAll(10, 20, new Benchmark("reflection per cell") {
+      @Override
+      protected long run() throws Exception {
+        return readAll(data, false, null);
+      }
+    }, new Benchmark("precompiled MethodBinder") {
+      @Override
+      protected long run() throws Exception {
+        return readAll(data, true, null);
+      }
+    }, new Benchmark("direct IpSearchCityBeanBinder") {
+      @Override
+      protected long run() throws Exception {
+        return readAll(data, false, new IpSearchCityBeanBinder(columnMapping));
+      }
+    });
+  }
+
+  static long readAll(byte[] data, boolean precompiled, BeanBinder<IpSearchCityBean> binder) throws IOException {
+    CsvBeanReader reader = new CsvBeanReader(new ByteTokenizer(ByteBuffer.wrap(data), preference), preference);
+    reader.setPrecompiledBinding(precompiled);
+    reader.getCSVHeader(true);
+    long rows = 0;
+    IpSearchCityBean bean;
+    while ((bean = binder == null ? reader.read(IpSearchCityBean.class, columnMapping, processors) : reader.read(IpSearchCityBean.class,
+        binder, processors)) != null) {
+      Benchmark.sink += bean.getIpStart();
+      rows++;
+    }
+    reader.close();
+    return rows;
+  }
+
+  static byte[] inflate(String zipFile, String fileInZip) throws IOException {
+    ZipInputStream zip = new ZipInputStream(new FileInputStream(zipFile));
+    try {
+      ZipEntry entry;
+      while ((entry = zip.getNextEntry()) != null) {
+        if (entry.getName().equals(fileInZip)) {
+          ByteArrayOutputStream out = new ByteArrayOutputStream();
+          byte[] buffer = new byte[1 << 16];
+          int n;
+          while ((n = zip.read(buffer)) > 0) {
+            out.write(buffer, 0, n);
+          }
+          return out.toByteArray();
+        }
+      }
+      throw new IllegalArgumentException("Couldn't find file " + fileInZip + " in zip archive " + zipFile);
+    } finally {
+      zip.close();
+    }
+  }
+}
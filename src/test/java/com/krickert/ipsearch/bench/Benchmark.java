@@ -0,0 +1,64 @@
+package com.krickert.ipsearch.bench;
+
+/**
+ * A small micro benchmark harness for comparing implementations in the same
+ * JVM. Each case is warmed up before the measured rounds so the JIT has
+ * compiled it, and the result of every operation is folded into a volatile
+ * sink so the work can't be optimized away. These are run by hand through the
+ * main methods of the benchmark classes, surefire skips them.
+ *
+ * @author krickert
+ *
+ */
+public abstract class Benchmark {
+  /* written by every round so the JIT can't drop the work */
+  public static volatile long sink;
+
+  private final String name;
+
+  protected Benchmark(String name) {
+    this.name = name;
+  }
+
+  /**
+   * Run the operation under test.
+   *
+   * @return the number of operations done, e.g. rows read
+   * @throws Exception
+   *           if the operation fails
+   */
+  protected abstract long run() throws Exception;
+
+  /**
+   * Warm up, then time the rounds and print the best and mean throughput.
+   *
+   * @return the best throughput in operations per second
+   */
+  public double measure(int warmups, int rounds) throws Exception {
+    for (int i = 0; i < warmups; i++) {
+      sink += run();
+    }
+    double best = 0;
+    double total = 0;
+    for (int i = 0; i < rounds; i++) {
+      long start = System.nanoTime();
+      long ops = run();
+      long elapsed = System.nanoTime() - start;
+      sink += ops;
+      double perSecond = ops * 1e9 / elapsed;
+      best = Math.max(best, perSecond);
+      total += perSecond;
+    }
+    System.out.println(String.format("%-30s best %,14.0f ops/s  mean %,14.0f ops/s", name, best, total / rounds));
+    return best;
+  }
+
+  /**
+   * Measure the benchmarks one after the other.
+   */
+  public static void measureAll(int warmups, int rounds, Benchmark... benchmarks) throws Exception {
+    for (Benchmark benchmark : benchmarks) {
+      benchmark.measure(warmups, rounds);
+    }
+  }
+}
@@ -0,0 +1,72 @@
+package com.krickert.ipsearch.bench;
+
+import java.io.File;
+import java.util.Random;
+
+import com.krickert.ipsearch.BulkResolver;
+import com.krickert.ipsearch.LocationStoreWriter;
+import com.krickert.ipsearch.RangeTable;
+import com.krickert.ipsearch.ZipEntrySource;
+import com.krickert.ipsearch.city.SymbolTable;
+
+/**
+ * Compares resolving a batch of random addresses with a binary search of the
+ * {@link RangeTable} each against a {@link BulkResolver} sorting the batch and
+ * joining it with the ranges, on one thread and on all the processors.
+ *
+ * <pre>
+ * mvn test-compile exec:java -Dexec.classpathScope=test -Dexec.mainClass=com.krickert.ipsearch.bench.BulkResolverBenchmark
+ * </pre>
+ *
+ * @author krickert
+ *
+ */
+public class BulkResolverBenchmark {
+  private static final int BATCH = 4 * 1024 * 1024;
+
+  public static void main(String[] args) throws Exception {
+    String zipFile = args.length > 0 ? args[0] : "src/test/resources/ipsearch_test.zip";
+    String fileInZip = args.length > 1 ? args[1] : "ip_group_city.csv";
+
+    File storeDir = File.createTempFile("locations", "");
+    storeDir.delete();
+    final RangeTable table = RangeTable.read(new ZipEntrySource(zipFile, fileInZip), new SymbolTable(),
+        new LocationStoreWriter(storeDir, false));
+    final long[] ips = new long[BATCH];
+    Random random = new Random(42);
+    long first = table.start(0);
+    for (int i = 0; i < ips.length; i++) {
+      ips[i] = first + (random.nextLong() & 0xffffffffl) % (0x100000000l - first);
+    }
+    final int[] ids = new int[BATCH];
+    final BulkResolver single = new BulkResolver(table);
+    final BulkResolver parallel = new BulkResolver(table, Runtime.getRuntime().availableProcessors());
+
+    Benchmark.measureAll(5, 10, new Benchmark("point lookups") {
+      @Override
+      protected long run() throws Exception {
+        for (int i = 0; i < ips.length; i++) {
+          ids[i] = table.locationId(ips[i]);
+        }
+        Benchmark.sink += ids[ids.length / 2];
+        return ips.length;
+      }
+    }, new Benchmark("bulk, 1 thread") {
+      @Override
+      protected long run() throws Exception {
+        single.resolve(ips, ids);
+        Benchmark.sink += ids[ids.length / 2];
+        return ips.length;
+      }
+    }, new Benchmark("bulk, " + Runtime.getRuntime().availableProcessors() + " threads") {
+      @Override
+      protected long run() throws Exception {
+        parallel.resolve(ips, ids);
+        Benchmark.sink += ids[ids.length / 2];
+        return ips.length;
+      }
+    });
+    single.close();
+    parallel.close();
+  }
+}
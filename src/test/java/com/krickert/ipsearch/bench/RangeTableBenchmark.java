@@ -0,0 +1,80 @@
+package com.krickert.ipsearch.bench;
+
+import java.io.File;
+import java.util.Random;
+
+import com.krickert.ipsearch.IpLocator;
+import com.krickert.ipsearch.LocationStore;
+import com.krickert.ipsearch.LocationStoreWriter;
+import com.krickert.ipsearch.RangeTable;
+import com.krickert.ipsearch.ZipEntrySource;
+import com.krickert.ipsearch.city.SymbolTable;
+
+/**
+ * Compares the lookup of the city of random addresses through an
+ * {@link IpLocator} on the built index against a {@link RangeTable} parsed from
+ * the csv file, reading the city from its {@link LocationStore}. The index has
+ * to be built first, by run.sh or the tests.
+ *
+ * <pre>
+ * mvn test-compile exec:java -Dexec.classpathScope=test -Dexec.mainClass=com.krickert.ipsearch.bench.RangeTableBenchmark -Dexec.args="ipindex"
+ * </pre>
+ *
+ * @author krickert
+ *
+ */
+public class RangeTableBenchmark {
+  private static final int LOOKUPS = 1000000;
+
+  public static void main(String[] args) throws Exception {
+    String indexRoot = args.length > 0 ? args[0] : "ipindex";
+    String zipFile = args.length > 1 ? args[1] : "src/test/resources/ipsearch_test.zip";
+    String fileInZip = args.length > 2 ? args[2] : "ip_group_city.csv";
+
+    final long[] addresses = new long[LOOKUPS];
+    Random random = new Random(42);
+    for (int i = 0; i < addresses.length; i++) {
+      addresses[i] = random.nextLong() & 0xffffffffl;
+    }
+
+    File storeDir = File.createTempFile("locations", "");
+    storeDir.delete();
+    storeDir.mkdirs();
+    LocationStoreWriter writer = new LocationStoreWriter(storeDir, true);
+    final RangeTable table = RangeTable.read(new ZipEntrySource(zipFile, fileInZip), new SymbolTable(), writer);
+    writer.write();
+    final LocationStore store = new LocationStore(writer.getFile());
+    final IpLocator locator = IpLocator.open(new File(indexRoot));
+
+    Benchmark.measureAll(5, 10, new Benchmark("lucene IpLocator") {
+      @Override
+      protected long run() throws Exception {
+        for (long address : addresses) {
+          Benchmark.sink += locator.locate(address) == null ? 0 : 1;
+        }
+        return addresses.length;
+      }
+    }, new Benchmark("RangeTable location id") {
+      @Override
+      protected long run() throws Exception {
+        for (long address : addresses) {
+          Benchmark.sink += table.locationId(address);
+        }
+        return addresses.length;
+      }
+    }, new Benchmark("RangeTable and store city") {
+      @Override
+      protected long run() throws Exception {
+        for (long address : addresses) {
+          int id = table.locationId(address);
+          Benchmark.sink += id < 0 ? 0 : store.get(id, LocationStore.CITY) == null ? 1 : 2;
+        }
+        return addresses.length;
+      }
+    });
+
+    locator.close();
+    writer.getFile().delete();
+    storeDir.delete();
+  }
+}
@@ -0,0 +1,77 @@
+package com.krickert.ipsearch.bench;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+import org.supercsv.cellprocessor.ift.CellProcessor;
+import org.supercsv.io.ByteTokenizer;
+import org.supercsv.io.CsvBeanReader;
+import org.supercsv.prefs.CsvPreference;
+
+import com.krickert.ipsearch.city.IpInfoDbRowParser;
+import com.krickert.ipsearch.city.IpSearchCityBean;
+import com.krickert.ipsearch.city.IpSearchCityBeanBinder;
+import com.krickert.ipsearch.city.SymbolTable;
+
+/**
+ * Compares the rows per second of the generic cell processor chain the
+ * IpDataReaderTask used, read through CsvBeanReader with the direct binder,
+ * and of the fused {@link IpInfoDbRowParser}. Both fill the same recycled bean
+ * so only the parsing is measured.
+ *
+ * <pre>
+ * mvn test-compile exec:java -Dexec.classpathScope=test -Dexec.mainClass=com.krickert.ipsearch.bench.RowParsingBenchmark
+ * </pre>
+ *
+ * @author krickert
+ *
+ */
+public class RowParsingBenchmark {
+  private static final CsvPreference preference = CsvPreference.EXCEL_NORTH_EUROPE_PREFERENCE;
+
+  public static void main(String[] args) throws Exception {
+    String zipFile = args.length > 0 ? args[0] : "src/test/resources/ipsearch_test.zip";
+    String fileInZip = args.length > 1 ? args[1] : "ip_group_city.csv";
+    final byte[] data = BeanBindingBenchmark.inflate(zipFile, fileInZip);
+    final SymbolTable symbols = new SymbolTable();
+
+    Benchmark.measureAll(10, 20, new Benchmark("cell processor chain") {
+      @Override
+      protected long run() throws Exception {
+        return readAll(data, IpInfoDbRowParser.cellProcessors(symbols));
+      }
+    }, new Benchmark("fused IpInfoDbRowParser") {
+      @Override
+      protected long run() throws Exception {
+        return parseAll(data, symbols);
+      }
+    });
+  }
+
+  static long readAll(byte[] data, CellProcessor[] processors) throws IOException {
+    CsvBeanReader reader = new CsvBeanReader(new ByteTokenizer(ByteBuffer.wrap(data), preference), preference);
+    IpSearchCityBeanBinder binder = new IpSearchCityBeanBinder(IpInfoDbRowParser.COLUMN_MAPPING);
+    reader.getCSVHeader(true);
+    long rows = 0;
+    IpSearchCityBean bean = new IpSearchCityBean();
+    while (reader.readInto(bean, binder, processors) != null) {
+      Benchmark.sink += bean.ipStart();
+      rows++;
+    }
+    reader.close();
+    return rows;
+  }
+
+  static long parseAll(byte[] data, SymbolTable symbols) throws IOException {
+    IpInfoDbRowParser parser = new IpInfoDbRowParser(new ByteTokenizer(ByteBuffer.wrap(data), preference), symbols);
+    parser.readHeader();
+    long rows = 0;
+    IpSearchCityBean bean = new IpSearchCityBean();
+    while (parser.readInto(bean) != null) {
+      Benchmark.sink += bean.ipStart();
+      rows++;
+    }
+    parser.close();
+    return rows;
+  }
+}
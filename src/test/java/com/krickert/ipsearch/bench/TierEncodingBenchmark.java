@@ -0,0 +1,79 @@
+package com.krickert.ipsearch.bench;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.apache.lucene.spatial.tier.projections.CartesianTierPlotter;
+import org.apache.lucene.spatial.tier.projections.IProjector;
+import org.apache.lucene.spatial.tier.projections.SinusoidalProjector;
+import org.apache.lucene.util.NumericUtils;
+import org.supercsv.io.ByteTokenizer;
+import org.supercsv.prefs.CsvPreference;
+
+import com.krickert.ipsearch.TierEncoder;
+import com.krickert.ipsearch.city.IpInfoDbRowParser;
+import com.krickert.ipsearch.city.IpSearchCityBean;
+import com.krickert.ipsearch.city.SymbolTable;
+
+/**
+ * Compares the per document cost of encoding the lat, lon and tier fields of
+ * every row of the test file: a new projector and plotters projecting the
+ * location once per tier, as addLocation used to, against a
+ * {@link TierEncoder} projecting once per location and memoizing the
+ * locations.
+ *
+ * <pre>
+ * mvn test-compile exec:java -Dexec.classpathScope=test -Dexec.mainClass=com.krickert.ipsearch.bench.TierEncodingBenchmark
+ * </pre>
+ *
+ * @author krickert
+ *
+ */
+public class TierEncodingBenchmark {
+
+  public static void main(String[] args) throws Exception {
+    String zipFile = args.length > 0 ? args[0] : "src/test/resources/ipsearch_test.zip";
+    String fileInZip = args.length > 1 ? args[1] : "ip_group_city.csv";
+    final double[][] locations = locations(BeanBindingBenchmark.inflate(zipFile, fileInZip));
+
+    Benchmark.measureAll(10, 20, new Benchmark("plotters per document") {
+      @Override
+      protected long run() throws Exception {
+        for (double[] location : locations) {
+          Benchmark.sink += NumericUtils.doubleToPrefixCoded(location[0]).length();
+          Benchmark.sink += NumericUtils.doubleToPrefixCoded(location[1]).length();
+          IProjector projector = new SinusoidalProjector();
+          for (int tier = TierEncoder.DEFAULT_START_TIER; tier <= TierEncoder.DEFAULT_END_TIER; tier++) {
+            CartesianTierPlotter ctp = new CartesianTierPlotter(tier, projector, TierEncoder.DEFAULT_TIER_PREFIX);
+            Benchmark.sink += NumericUtils.doubleToPrefixCoded(ctp.getTierBoxId(location[0], location[1])).length();
+          }
+        }
+        return locations.length;
+      }
+    }, new Benchmark("cached TierEncoder") {
+      private final TierEncoder encoder = new TierEncoder();
+
+      @Override
+      protected long run() throws Exception {
+        for (double[] location : locations) {
+          Benchmark.sink += encoder.encode(location[0], location[1]).tierCodes.length;
+        }
+        return locations.length;
+      }
+    });
+  }
+
+  static double[][] locations(byte[] data) throws Exception {
+    CsvPreference preference = CsvPreference.EXCEL_NORTH_EUROPE_PREFERENCE;
+    IpInfoDbRowParser parser = new IpInfoDbRowParser(new ByteTokenizer(ByteBuffer.wrap(data), preference), new SymbolTable());
+    parser.readHeader();
+    List<double[]> locations = new ArrayList<double[]>();
+    IpSearchCityBean bean = new IpSearchCityBean();
+    while (parser.readInto(bean) != null) {
+      locations.add(new double[] { bean.lat(), bean.lon() });
+    }
+    parser.close();
+    return locations.toArray(new double[locations.size()][]);
+  }
+}
@@ -0,0 +1,117 @@
+package com.krickert.ipsearch.city;
+
+import java.io.ByteArrayOutputStream;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipInputStream;
+
+import junit.framework.TestCase;
+
+import org.supercsv.exception.SuperCSVException;
+import org.supercsv.io.ByteTokenizer;
+import org.supercsv.io.CsvBeanReader;
+import org.supercsv.prefs.CsvPreference;
+
+public class IpInfoDbRowParserTest extends TestCase {
+  private static final CsvPreference preference = CsvPreference.EXCEL_NORTH_EUROPE_PREFERENCE;
+  private static final String HEADER = "\"ip_start\";\"country_code\";\"country_name\";\"region_code\";\"region_name\";\"city\";\"zipcode\";"
+      + "\"latitude\";\"longitude\";\"metrocode\"\n";
+
+  private static IpInfoDbRowParser parser(byte[] data, SymbolTable symbols) {
+    return new IpInfoDbRowParser(new ByteTokenizer(ByteBuffer.wrap(data), preference), symbols);
+  }
+
+  private static CsvBeanReader reader(byte[] data) {
+    return new CsvBeanReader(new ByteTokenizer(ByteBuffer.wrap(data), preference), preference);
+  }
+
+  public void testSameBeansAsTheCellProcessors() throws IOException {
+    byte[] data = inflate("src/test/resources/ipsearch_test.zip", "ip_group_city.csv");
+    SymbolTable symbols = new SymbolTable();
+    IpInfoDbRowParser parser = parser(data, symbols);
+    CsvBeanReader reader = reader(data);
+    IpSearchCityBeanBinder binder = new IpSearchCityBeanBinder(IpInfoDbRowParser.COLUMN_MAPPING);
+    assertEquals(10, parser.readHeader().length);
+    reader.getCSVHeader(true);
+
+    int rows = 0;
+    IpSearchCityBean fused = new IpSearchCityBean();
+    IpSearchCityBean expected;
+    while ((expected = reader.read(IpSearchCityBean.class, binder, IpInfoDbRowParser.cellProcessors(symbols))) != null) {
+      assertSame(fused, parser.readInto(fused));
+      assertEquals(expected.toString(), fused.toString());
+      assertSame(expected.getCity(), fused.getCity());
+      assertEquals(reader.getLineNumber(), parser.getLineNumber());
+      rows++;
+    }
+    assertNull(parser.readInto(fused));
+    assertEquals(1819, rows);
+  }
+
+  public void testSameErrorsAsTheCellProcessors() throws IOException {
+    String[] rows = { "\"4278190081\";\"US\";\"United States\";\"17\";\"Illinois\";\"Chicago\";\"60611\";\"41.9288\";\"-87.6315\";\"602\"",
+        "\"12x\";\"US\";\"United States\";\"17\";\"Illinois\";\"Chicago\";\"60611\";\"41.9288\";\"-87.6315\";\"602\"",
+        "\"1\";\"USA\";\"United States\";\"17\";\"Illinois\";\"Chicago\";\"60611\";\"41.9288\";\"-87.6315\";\"602\"",
+        "\"1\";\"US\";\"USA\";\"17\";\"Illinois\";\"Chicago\";\"60611\";\"41.9288\";\"-87.6315\";\"602\"",
+        "\"1\";\"US\";\"United States\";\"17\";\"Illinois\";\"Chicago\";\"6061100\";\"41.9288\";\"-87.6315\";\"602\"",
+        "\"1\";\"US\";\"United States\";\"17\";\"Illinois\";\"Chicago\";\"60611\";\"north\";\"-87.6315\";\"602\"",
+        "\"1\";\"US\";\"United States\";\"17\";\"Illinois\";\"Chicago\";\"60611\";\"41.9288\"" };
+    for (String row : rows) {
+      byte[] data = (HEADER + row + "\n").getBytes("UTF-8");
+      SymbolTable symbols = new SymbolTable();
+      String expected = null;
+      CsvBeanReader reader = reader(data);
+      reader.getCSVHeader(true);
+      try {
+        reader.read(IpSearchCityBean.class, new IpSearchCityBeanBinder(IpInfoDbRowParser.COLUMN_MAPPING), IpInfoDbRowParser
+            .cellProcessors(symbols));
+        fail("the cell processors accepted " + row);
+      } catch (SuperCSVException e) {
+        expected = e.getMessage();
+      }
+      IpInfoDbRowParser parser = parser(data, symbols);
+      parser.readHeader();
+      try {
+        parser.readInto(new IpSearchCityBean());
+        fail("the parser accepted " + row);
+      } catch (SuperCSVException e) {
+        assertEquals(expected, e.getMessage());
+      }
+    }
+  }
+
+  public void testEmptyCountryNameIsNull() throws IOException {
+    byte[] data = (HEADER + "\"1\";\"US\";\"\";\"\";\"\";\"\";\"\";\"1.5\";\"-2\";\"\"\n").getBytes("UTF-8");
+    IpInfoDbRowParser parser = parser(data, new SymbolTable());
+    parser.readHeader();
+    IpSearchCityBean bean = parser.readInto(new IpSearchCityBean());
+    assertEquals(1l, bean.ipStart());
+    assertNull(bean.getCountryName());
+    assertEquals("", bean.getCity());
+    assertEquals(1.5, bean.lat());
+    assertEquals(-2.0, bean.lon());
+  }
+
+  static byte[] inflate(String zipFile, String fileInZip) throws IOException {
+    ZipInputStream zip = new ZipInputStream(new FileInputStream(zipFile));
+    try {
+      ZipEntry entry;
+      while ((entry = zip.getNextEntry()) != null) {
+        if (entry.getName().equals(fileInZip)) {
+          ByteArrayOutputStream out = new ByteArrayOutputStream();
+          byte[] buffer = new byte[1 << 16];
+          int n;
+          while ((n = zip.read(buffer)) > 0) {
+            out.write(buffer, 0, n);
+          }
+          return out.toByteArray();
+        }
+      }
+      throw new IllegalArgumentException("Couldn't find file " + fileInZip + " in zip archive " + zipFile);
+    } finally {
+      zip.close();
+    }
+  }
+}
@@ -0,0 +1,60 @@
+package com.krickert.ipsearch.city;
+
+import junit.framework.TestCase;
+
+public class IpSearchCityBeanPoolTest extends TestCase {
+
+  public void testReleasedBeansAreClearedAndReused() {
+    IpSearchCityBeanPool pool = new IpSearchCityBeanPool(2);
+    IpSearchCityBean bean = pool.acquire();
+    bean.setIpStart(16777216l);
+    bean.setLat(41.9288d);
+    bean.setCity("Chicago");
+    pool.release(bean);
+    assertEquals(1, pool.available());
+
+    IpSearchCityBean reused = pool.acquire();
+    assertSame(bean, reused);
+    assertEquals(0l, reused.ipStart());
+    assertEquals(0d, reused.lat());
+    assertNull(reused.getCity());
+    assertEquals(0, pool.available());
+  }
+
+  public void testFullPoolDropsBeans() {
+    IpSearchCityBeanPool pool = new IpSearchCityBeanPool(1);
+    pool.release(new IpSearchCityBean());
+    pool.release(new IpSearchCityBean());
+    assertEquals(1, pool.available());
+  }
+
+  public void testBatchesReleasedOnAnotherThreadAreReused() throws Exception {
+    final IpSearchCityBeanPool pool = new IpSearchCityBeanPool(IpSearchCityBeanPool.BATCH * 2);
+    final IpSearchCityBean[] beans = new IpSearchCityBean[IpSearchCityBeanPool.BATCH];
+    for (int i = 0; i < beans.length; i++) {
+      beans[i] = new IpSearchCityBean();
+    }
+    Thread indexer = new Thread() {
+      @Override
+      public void run() {
+        for (IpSearchCityBean bean : beans) {
+          pool.release(bean);
+        }
+      }
+    };
+    indexer.start();
+    indexer.join();
+    // the full batch was handed over, nothing is left on the other thread
+    assertEquals(IpSearchCityBeanPool.BATCH, pool.available());
+    assertSame(beans[beans.length - 1], pool.acquire());
+    assertEquals(IpSearchCityBeanPool.BATCH - 1, pool.available());
+  }
+
+  public void testZeroCapacityDoesNotRecycle() {
+    IpSearchCityBeanPool pool = new IpSearchCityBeanPool(0);
+    IpSearchCityBean bean = pool.acquire();
+    pool.release(bean);
+    assertEquals(0, pool.available());
+    assertNotSame(bean, pool.acquire());
+  }
+}
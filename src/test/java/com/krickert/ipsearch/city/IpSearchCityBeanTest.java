@@ -0,0 +1,24 @@
+package com.krickert.ipsearch.city;
+
+import junit.framework.TestCase;
+
+public class IpSearchCityBeanTest extends TestCase {
+
+  public void testNullBoxedValuesSetZero() {
+    IpSearchCityBean bean = new IpSearchCityBean();
+    bean.setIpStart(16777216l);
+    bean.setIpEnd(16777471l);
+    bean.setLat(41.9288d);
+    bean.setLon(-87.6315d);
+    bean.setIpStart((Long) null);
+    bean.setIpEnd((Long) null);
+    bean.setLat((Double) null);
+    bean.setLon((Double) null);
+    assertEquals(0l, bean.ipStart());
+    assertEquals(0l, bean.ipEnd());
+    assertEquals(0d, bean.lat());
+    assertEquals(0d, bean.lon());
+    assertEquals(Long.valueOf(0l), bean.getIpStart());
+    assertEquals(Double.valueOf(0d), bean.getLat());
+  }
+}
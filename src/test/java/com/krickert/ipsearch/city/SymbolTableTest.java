@@ -0,0 +1,38 @@
+package com.krickert.ipsearch.city;
+
+import junit.framework.TestCase;
+
+import org.supercsv.cellprocessor.constraint.StrMinMax;
+import org.supercsv.util.CSVContext;
+
+public class SymbolTableTest extends TestCase {
+
+  public void testInternReturnsCanonicalInstance() {
+    SymbolTable symbols = new SymbolTable();
+    String first = new String("Chicago");
+    String second = new String("Chicago");
+    assertSame(first, symbols.intern(first));
+    assertSame(first, symbols.intern(second));
+    assertNull(symbols.intern(null));
+    assertEquals(1, symbols.size());
+  }
+
+  public void testIdsInOrderOfFirstUse() {
+    SymbolTable symbols = new SymbolTable();
+    assertEquals(-1, symbols.id("US"));
+    assertEquals(0, symbols.symbol("US").id);
+    assertEquals(1, symbols.symbol("Illinois").id);
+    assertEquals(0, symbols.symbol("US").id);
+    assertEquals(1, symbols.id("Illinois"));
+    assertEquals("Illinois", symbols.value(1));
+  }
+
+  public void testProcessorInternsAfterConstraint() {
+    SymbolTable symbols = new SymbolTable();
+    StrMinMax processor = new StrMinMax(2l, 2l, new InternSymbol(symbols));
+    Object first = processor.execute(new String("US"), new CSVContext(1, 2));
+    Object second = processor.execute(new String("US"), new CSVContext(2, 2));
+    assertSame(first, second);
+    assertEquals(0, symbols.id("US"));
+  }
+}
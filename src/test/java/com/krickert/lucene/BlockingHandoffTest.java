@@ -0,0 +1,84 @@
+package com.krickert.lucene;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import junit.framework.TestCase;
+
+public class BlockingHandoffTest extends TestCase {
+
+  public void testProducerWaitsInsteadOfRunningTheJob() throws Exception {
+    final CountDownLatch release = new CountDownLatch(1);
+    final AtomicInteger ran = new AtomicInteger();
+    final List<Thread> runners = Collections.synchronizedList(new ArrayList<Thread>());
+    // counted down once the caller waits for room in the queue
+    final CountDownLatch waiting = new CountDownLatch(1);
+    ArrayBlockingQueue<Runnable> queue = new ArrayBlockingQueue<Runnable>(1) {
+      @Override
+      public void put(Runnable job) throws InterruptedException {
+        waiting.countDown();
+        super.put(job);
+      }
+    };
+    ThreadPoolExecutor pool = new ThreadPoolExecutor(1, 1, 0, TimeUnit.SECONDS, queue, new ThreadedIndexWriter.BlockingHandoff());
+    Runnable job = new Runnable() {
+      @Override
+      public void run() {
+        try {
+          release.await();
+        } catch (InterruptedException e) {
+          Thread.currentThread().interrupt();
+        }
+        runners.add(Thread.currentThread());
+        ran.incrementAndGet();
+      }
+    };
+    // one running, one queued, the third has to wait for room
+    pool.execute(job);
+    pool.execute(job);
+    Thread caller = Thread.currentThread();
+    Thread releaser = new Thread() {
+      @Override
+      public void run() {
+        try {
+          waiting.await();
+        } catch (InterruptedException e) {
+          return;
+        }
+        release.countDown();
+      }
+    };
+    releaser.start();
+    pool.execute(job);
+    // the release only happens while the caller waits for room
+    assertEquals(0, waiting.getCount());
+    assertEquals(0, release.getCount());
+    pool.shutdown();
+    assertTrue(pool.awaitTermination(10, TimeUnit.SECONDS));
+    assertEquals(3, ran.get());
+    assertFalse(runners.contains(caller));
+  }
+
+  public void testRejectsOnceShutDown() {
+    ThreadPoolExecutor pool = new ThreadPoolExecutor(1, 1, 0, TimeUnit.SECONDS, new ArrayBlockingQueue<Runnable>(1),
+        new ThreadedIndexWriter.BlockingHandoff());
+    pool.shutdown();
+    try {
+      pool.execute(new Runnable() {
+        @Override
+        public void run() {
+        }
+      });
+      fail("expected the job to be rejected");
+    } catch (RejectedExecutionException e) {
+      assertEquals("The writer is closed", e.getMessage());
+    }
+  }
+}
@@ -0,0 +1,107 @@
+package com.krickert.lucene;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.List;
+
+import junit.framework.TestCase;
+
+public class IndexVersionsTest extends TestCase {
+  private File root;
+
+  @Override
+  public void setUp() throws Exception {
+    super.setUp();
+    root = File.createTempFile("ipindex", "");
+    root.delete();
+    root.mkdirs();
+  }
+
+  @Override
+  public void tearDown() throws Exception {
+    delete(root);
+    super.tearDown();
+  }
+
+  private static void delete(File file) {
+    File[] children = file.listFiles();
+    if (children != null) {
+      for (File child : children) {
+        delete(child);
+      }
+    }
+    file.delete();
+  }
+
+  private static void write(File file, String content) throws IOException {
+    FileOutputStream out = new FileOutputStream(file);
+    try {
+      out.write(content.getBytes("UTF-8"));
+    } finally {
+      out.close();
+    }
+  }
+
+  private static File build(IndexVersions versions, String content) throws IOException {
+    File staging = versions.getStagingDir();
+    write(new File(staging, "segments.gen"), content);
+    versions.publish();
+    return staging;
+  }
+
+  public void testNothingIsPublishedUntilTheBuildIs() throws IOException {
+    IndexVersions versions = new IndexVersions(root, 2);
+    assertNull(versions.current());
+    File staging = versions.getStagingDir();
+    assertTrue(staging.isDirectory());
+    assertSame(staging, versions.getStagingDir());
+    assertNull(versions.current());
+    versions.publish();
+    assertEquals(staging, versions.current());
+    assertFalse(new File(root, IndexVersions.POINTER_FILE + ".tmp").exists());
+  }
+
+  public void testKeepsTheLastVersionsAndRollsBack() throws IOException {
+    IndexVersions versions = new IndexVersions(root, 2);
+    File first = build(versions, "1");
+    File second = build(versions, "2");
+    File third = build(versions, "3");
+    List<File> kept = versions.versions();
+    assertEquals(2, kept.size());
+    assertFalse(first.exists());
+    assertEquals(second, kept.get(0));
+    assertEquals(third, versions.current());
+
+    assertEquals(second, versions.rollback());
+    assertEquals(second, versions.current());
+    try {
+      versions.rollback();
+      fail("expected no version before the oldest one kept");
+    } catch (IllegalStateException e) {
+      // there's none before it
+    }
+  }
+
+  public void testFailedBuildIsDroppedByTheNextPublish() throws IOException {
+    IndexVersions versions = new IndexVersions(root, 3);
+    File good = build(versions, "1");
+    File failed = versions.getStagingDir();
+    assertEquals(good, versions.current());
+
+    IndexVersions nextRun = new IndexVersions(root, 3);
+    File next = build(nextRun, "2");
+    assertFalse(failed.equals(next));
+    assertFalse(failed.exists());
+    assertTrue(good.exists());
+    assertEquals(next, nextRun.current());
+  }
+
+  public void testIncrementalVersionStartsAsACopy() throws IOException {
+    build(new IndexVersions(root, 2), "1");
+    IndexVersions versions = new IndexVersions(root, 2, true);
+    File staging = versions.getStagingDir();
+    assertEquals(1, new File(staging, "segments.gen").length());
+    assertFalse(new File(staging, "PUBLISHED").exists());
+  }
+}
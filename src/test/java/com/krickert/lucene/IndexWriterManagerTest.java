@@ -0,0 +1,142 @@
+package com.krickert.lucene;
+
+import java.io.File;
+import java.util.List;
+
+import junit.framework.TestCase;
+
+import org.apache.lucene.analysis.WhitespaceAnalyzer;
+import org.apache.lucene.document.Document;
+import org.apache.lucene.document.Field;
+import org.apache.lucene.index.IndexReader;
+import org.apache.lucene.index.IndexWriter;
+import org.apache.lucene.index.Term;
+import org.apache.lucene.store.Directory;
+import org.apache.lucene.store.FSDirectory;
+import org.apache.lucene.store.RAMDirectory;
+
+public class IndexWriterManagerTest extends TestCase {
+  private File shardDir;
+
+  @Override
+  public void setUp() throws Exception {
+    super.setUp();
+    shardDir = File.createTempFile("shards", "");
+    shardDir.delete();
+  }
+
+  private static Document doc(String city) {
+    Document doc = new Document();
+    doc.add(new Field("city", city, Field.Store.YES, Field.Index.NOT_ANALYZED));
+    return doc;
+  }
+
+  public void testShardsAreMergedIntoTheIndex() throws Exception {
+    RAMDirectory directory = new RAMDirectory();
+    IndexWriterManager manager = new IndexWriterManager(directory, new WhitespaceAnalyzer(), 1, 10, 16, 10, false, 2, shardDir, true);
+    List<IndexWriter> shards = manager.getShardWriters();
+    assertEquals(2, shards.size());
+    shards.get(0).addDocument(doc("Chicago"));
+    shards.get(1).addDocument(doc("Los Angeles"));
+    shards.get(1).addDocument(doc("Boston"));
+    manager.finishIndex();
+
+    IndexReader reader = IndexReader.open(directory, true);
+    assertEquals(3, reader.numDocs());
+    reader.close();
+    assertFalse(shardDir.exists());
+  }
+
+  public void testShardsAreKeptForAMultiSearcher() throws Exception {
+    RAMDirectory directory = new RAMDirectory();
+    IndexWriterManager manager = new IndexWriterManager(directory, new WhitespaceAnalyzer(), 1, 10, 16, 10, false, 2, shardDir, false);
+    manager.getShardWriters().get(0).addDocument(doc("Chicago"));
+    manager.finishIndex();
+
+    IndexReader reader = IndexReader.open(directory, true);
+    assertEquals(0, reader.numDocs());
+    reader.close();
+    File first = manager.getShardDirs().get(0);
+    assertTrue(first.isDirectory());
+    for (File shard : manager.getShardDirs()) {
+      for (File file : shard.listFiles()) {
+        file.delete();
+      }
+      shard.delete();
+    }
+    shardDir.delete();
+  }
+
+  public void testUnmergedShardsAreReadWithTheIndex() throws Exception {
+    File indexDir = shardDir;
+    Directory directory = FSDirectory.open(indexDir);
+    IndexWriterManager manager = new IndexWriterManager(directory, new WhitespaceAnalyzer(), 1, 10, 16, 10, false, 2, new File(indexDir,
+        IndexWriterManager.SHARDS_DIR), false);
+    manager.getShardWriters().get(0).addDocument(doc("Chicago"));
+    manager.getShardWriters().get(1).addDocument(doc("Boston"));
+    manager.finishIndex();
+
+    IndexReader reader = IndexWriterManager.openReader(directory, indexDir);
+    assertEquals(2, reader.numDocs());
+    reader.close();
+    delete(indexDir);
+  }
+
+  private static void delete(File file) {
+    File[] children = file.listFiles();
+    if (children != null) {
+      for (File child : children) {
+        delete(child);
+      }
+    }
+    file.delete();
+  }
+
+  public void testNoShardsWithOne() throws Exception {
+    IndexWriterManager manager = new IndexWriterManager(new RAMDirectory(), new WhitespaceAnalyzer(), 1, 10, 16, 10, false, 1, shardDir,
+        true);
+    assertTrue(manager.getShardWriters().isEmpty());
+    manager.finishIndex();
+    assertFalse(shardDir.exists());
+  }
+
+  public void testFinishMergesIntoTheTargetSegments() throws Exception {
+    RAMDirectory directory = new RAMDirectory();
+    IndexWriterManager manager = new IndexWriterManager(directory, new WhitespaceAnalyzer(), 1, 10, 16, 10, false, 3, shardDir, true);
+    manager.setMaxSegments(1);
+    manager.setMergeThreads(2);
+    for (int i = 0; i < 6; i++) {
+      manager.getShardWriters().get(i % 3).addDocument(doc("city" + i));
+    }
+    manager.finishIndex();
+
+    IndexReader reader = IndexReader.open(directory, true);
+    assertEquals(6, reader.numDocs());
+    assertEquals(1, reader.getSequentialSubReaders().length);
+    reader.close();
+  }
+
+  public void testIncrementalRefreshExpungesInsteadOfMerging() throws Exception {
+    RAMDirectory directory = new RAMDirectory();
+    IndexWriter writer = new IndexWriter(directory, new WhitespaceAnalyzer(), true, IndexWriter.MaxFieldLength.UNLIMITED);
+    writer.addDocument(doc("Chicago"));
+    writer.addDocument(doc("Denver"));
+    writer.commit();
+    writer.addDocument(doc("Boston"));
+    writer.close();
+
+    IndexWriterManager manager = new IndexWriterManager(directory, new WhitespaceAnalyzer(), 1, 10, 16, 10, false, 1, shardDir, true,
+        true);
+    assertTrue(manager.isIncremental());
+    manager.setMaxSegments(1);
+    manager.setExpungeDeletes(true);
+    manager.getWriter().deleteDocuments(new Term("city", "Chicago"));
+    manager.finishIndex();
+
+    IndexReader reader = IndexReader.open(directory, true);
+    assertEquals(2, reader.numDocs());
+    assertFalse(reader.hasDeletions());
+    assertEquals(2, reader.getSequentialSubReaders().length);
+    reader.close();
+  }
+}
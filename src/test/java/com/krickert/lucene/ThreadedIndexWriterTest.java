@@ -0,0 +1,88 @@
+package com.krickert.lucene;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import junit.framework.TestCase;
+
+import org.apache.lucene.analysis.WhitespaceAnalyzer;
+import org.apache.lucene.document.Document;
+import org.apache.lucene.document.Field;
+import org.apache.lucene.index.IndexReader;
+import org.apache.lucene.index.IndexWriter;
+import org.apache.lucene.index.Term;
+import org.apache.lucene.store.RAMDirectory;
+
+public class ThreadedIndexWriterTest extends TestCase {
+
+  /**
+   * Fails to build the document of "bad", counting the values handed back.
+   */
+  private static class CitySource implements DocumentSource<String> {
+    final AtomicInteger indexed = new AtomicInteger();
+
+    @Override
+    public Document document(String city) {
+      if (city.equals("bad")) {
+        throw new IllegalArgumentException("no document for " + city);
+      }
+      Document doc = new Document();
+      doc.add(new Field("city", city, Field.Store.YES, Field.Index.NOT_ANALYZED));
+      return doc;
+    }
+
+    @Override
+    public Term term(String city) {
+      return null;
+    }
+
+    @Override
+    public void indexed(String city) {
+      indexed.incrementAndGet();
+    }
+  }
+
+  public void testAFailedDocumentFailsTheJobsButNotTheRestOfTheBatch() throws Exception {
+    RAMDirectory directory = new RAMDirectory();
+    ThreadedIndexWriter writer = new ThreadedIndexWriter(directory, new WhitespaceAnalyzer(), true, 2, 10,
+        IndexWriter.MaxFieldLength.UNLIMITED);
+    CitySource source = new CitySource();
+    List<String> batch = Arrays.asList("Chicago", "bad", "Boston", "Denver");
+    writer.addDocuments(source, batch);
+    try {
+      writer.finishJobs();
+      fail("expected the failed document to fail the jobs");
+    } catch (IOException e) {
+      assertTrue(e.getCause() instanceof IllegalArgumentException);
+    }
+    assertEquals(1, writer.getFailures());
+    // every value went back to the source, the ones after the failure too
+    assertEquals(4, source.indexed.get());
+    try {
+      writer.close();
+      fail("expected the writer to be rolled back");
+    } catch (IOException e) {
+      // nothing was committed
+    }
+    IndexReader reader = IndexReader.open(directory, true);
+    assertEquals(0, reader.numDocs());
+    reader.close();
+  }
+
+  public void testFinishesWithoutFailures() throws Exception {
+    RAMDirectory directory = new RAMDirectory();
+    ThreadedIndexWriter writer = new ThreadedIndexWriter(directory, new WhitespaceAnalyzer(), true, 2, 10,
+        IndexWriter.MaxFieldLength.UNLIMITED);
+    CitySource source = new CitySource();
+    writer.addDocuments(source, Arrays.asList("Chicago", "Boston"));
+    writer.addDocument(source, "Denver");
+    writer.finishJobs();
+    writer.close();
+    assertEquals(0, writer.getFailures());
+    IndexReader reader = IndexReader.open(directory, true);
+    assertEquals(3, reader.numDocs());
+    reader.close();
+  }
+}